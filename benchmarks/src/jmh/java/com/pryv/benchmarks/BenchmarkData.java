@@ -0,0 +1,92 @@
+package com.pryv.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.pryv.model.Event;
+import com.pryv.model.Stream;
+import com.pryv.utils.JsonConverter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the data used by the benchmarks, deterministically for a given size.
+ */
+final class BenchmarkData {
+
+  static final String[] TYPES = {"note/txt", "mass/kg", "count/steps", "pressure/mmhg-bp"};
+  static final String[] TAGS = {"morning", "evening", "home", "work", "sport"};
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Creates a Streams tree of depth 3 holding about streamCount Streams, with ids
+   * "stream-{index}"
+   */
+  static List<Stream> createStreamsTree(int streamCount) {
+    List<Stream> rootStreams = new ArrayList<Stream>();
+    int branching = Math.max(1, (int) Math.round(Math.cbrt(streamCount)));
+    int index = 0;
+    for (int i = 0; i < branching && index < streamCount; i++) {
+      Stream root = createStream(index++);
+      for (int j = 0; j < branching && index < streamCount; j++) {
+        Stream child = createStream(index++);
+        for (int k = 0; k < branching && index < streamCount; k++) {
+          child.addChildStream(createStream(index++));
+        }
+        root.addChildStream(child);
+      }
+      rootStreams.add(root);
+    }
+    return rootStreams;
+  }
+
+  /**
+   * Creates a chain of Streams of the given depth, returns its root
+   */
+  static Stream createDeepStream(int depth) {
+    Stream root = createStream(0);
+    Stream parent = root;
+    for (int i = 1; i < depth; i++) {
+      Stream child = createStream(i);
+      parent.addChildStream(child);
+      parent = child;
+    }
+    return root;
+  }
+
+  static Stream createStream(int index) {
+    return new Stream("stream-" + index, "Stream " + index);
+  }
+
+  /**
+   * Creates events spread over streamCount Streams, with ids "stream-{index}"
+   */
+  static List<Event> createEvents(int eventCount, int streamCount) {
+    Random random = new Random(eventCount);
+    List<Event> events = new ArrayList<Event>(eventCount);
+    for (int i = 0; i < eventCount; i++) {
+      Event event = new Event()
+              .setId("event-" + i)
+              .setStreamId("stream-" + random.nextInt(streamCount))
+              .setType(TYPES[random.nextInt(TYPES.length)])
+              .setContent(random.nextInt(1000))
+              .setTime(1400000000.0 + i * 60)
+              .setModified(1400000000.0 + i * 60)
+              .setTrashed(random.nextInt(20) == 0)
+              .addTag(TAGS[random.nextInt(TAGS.length)]);
+      events.add(event);
+    }
+    return events;
+  }
+
+  static String createEventsJson(int eventCount, int streamCount) throws JsonProcessingException {
+    return JsonConverter.toJson(Collections.singletonMap("events", createEvents(eventCount, streamCount)));
+  }
+
+  static String createStreamsJson(int streamCount) throws JsonProcessingException {
+    return JsonConverter.toJson(Collections.singletonMap("streams", createStreamsTree(streamCount)));
+  }
+}
@@ -0,0 +1,31 @@
+package com.pryv.benchmarks;
+
+import com.pryv.utils.Cuid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Id generation, alone and under contention.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CuidBenchmark {
+
+  @Benchmark
+  @Threads(1)
+  public String createCuid() {
+    return Cuid.createCuid();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public String createCuidContended() {
+    return Cuid.createCuid();
+  }
+}
@@ -0,0 +1,66 @@
+package com.pryv.benchmarks;
+
+import com.pryv.api.EventIterator;
+import com.pryv.model.Event;
+import com.pryv.utils.JsonConverter;
+import com.pryv.utils.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events decoded and encoded per second, with the streaming codecs and with the ObjectMapper
+ * bindings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventCodecBenchmark {
+
+  private static final int EVENTS = 1000;
+
+  @Param({"true", "false"})
+  public boolean codecs;
+
+  private byte[] eventsJson;
+  private List<Event> events;
+
+  @Setup
+  public void setUp() throws IOException {
+    Logger.getInstance().turnOff();
+    JsonConverter.setCodecsEnabled(codecs);
+    eventsJson = BenchmarkData.createEventsJson(EVENTS, 50).getBytes(StandardCharsets.UTF_8);
+    events = BenchmarkData.createEvents(EVENTS, 50);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void decodeEvents(Blackhole blackhole) throws IOException {
+    EventIterator iterator = new EventIterator(new ByteArrayInputStream(eventsJson));
+    while (iterator.hasNext()) {
+      blackhole.consume(iterator.next());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void encodeEvents(Blackhole blackhole) throws IOException {
+    for (Event event : events) {
+      blackhole.consume(JsonConverter.toJson(event));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.pryv.benchmarks;
+
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.FilterMatcher;
+import com.pryv.model.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local filtering of Events against a scope of scopeSize Streams out of a tree of 1000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterBenchmark {
+
+  private static final int STREAM_COUNT = 1000;
+
+  @Param({"1000", "100000"})
+  public int eventCount;
+
+  @Param({"1", "50"})
+  public int scopeSize;
+
+  private List<Event> events;
+  private Filter filter;
+  private FilterMatcher matcher;
+
+  @Setup
+  public void setUp() {
+    events = BenchmarkData.createEvents(eventCount, STREAM_COUNT);
+    filter = new Filter()
+            .setFromTime(1400000000.0)
+            .addTag("morning")
+            .addTag("home")
+            .addType("note/txt")
+            .addType("mass/kg")
+            .setState(Filter.State.DEFAULT);
+    // scope Streams taken among the roots and second level Streams, which have descendants
+    int scopeAdded = 0;
+    for (Stream root : BenchmarkData.createStreamsTree(STREAM_COUNT)) {
+      filter.addStream(root);
+      if (++scopeAdded == scopeSize) {
+        break;
+      }
+      for (Stream child : root.getChildren()) {
+        filter.addStream(child);
+        if (++scopeAdded == scopeSize) {
+          break;
+        }
+      }
+      if (scopeAdded == scopeSize) {
+        break;
+      }
+    }
+    matcher = filter.compile();
+  }
+
+  @Benchmark
+  public void match(Blackhole blackhole) {
+    for (Event event : events) {
+      blackhole.consume(filter.match(event));
+    }
+  }
+
+  @Benchmark
+  public void hasInScope(Blackhole blackhole) {
+    for (Event event : events) {
+      blackhole.consume(filter.hasInScope(event));
+    }
+  }
+
+  @Benchmark
+  public void compiledMatch(Blackhole blackhole) {
+    for (Event event : events) {
+      blackhole.consume(matcher.match(event));
+    }
+  }
+
+  @Benchmark
+  public FilterMatcher compile() {
+    return filter.compile();
+  }
+
+  @Benchmark
+  public List<Event> filterList() {
+    return matcher.filter(events);
+  }
+}
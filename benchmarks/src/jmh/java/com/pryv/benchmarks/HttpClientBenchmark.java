@@ -0,0 +1,59 @@
+package com.pryv.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.pryv.api.ApiRequest;
+import com.pryv.api.HttpClient;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building of API requests, without sending them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpClientBenchmark {
+
+  private HttpClient httpClient;
+  private Filter filter;
+  private Event event;
+
+  @Setup
+  public void setUp() {
+    httpClient = new HttpClient("https://username.pryv.me/", "?auth=token");
+    filter = new Filter()
+            .setFromTime(1400000000.0)
+            .setToTime(1500000000.0)
+            .addStream(new Stream("diary", null))
+            .addStream(new Stream("health", null))
+            .addType("note/txt")
+            .setLimit(100);
+    event = BenchmarkData.createEvents(1, 1).get(0);
+  }
+
+  @Benchmark
+  public ApiRequest getRequest() {
+    return httpClient.getRequest("events", filter);
+  }
+
+  @Benchmark
+  public ApiRequest createRequest() throws JsonProcessingException {
+    return httpClient.createRequest("events", event, null);
+  }
+
+  @Benchmark
+  public ApiRequest updateRequest() throws JsonProcessingException {
+    return httpClient.updateRequest("events", event.getId(), event.cloneMutableFields());
+  }
+}
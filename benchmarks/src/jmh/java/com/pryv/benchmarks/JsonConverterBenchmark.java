@@ -0,0 +1,65 @@
+package com.pryv.benchmarks;
+
+import com.pryv.model.Event;
+import com.pryv.model.Stream;
+import com.pryv.utils.JsonConverter;
+import com.pryv.utils.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserialization of events.get and streams.get responses, serialization of an Event, with the
+ * streaming codecs and with the ObjectMapper bindings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonConverterBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int size;
+
+  @Param({"true", "false"})
+  public boolean codecs;
+
+  private String eventsJson;
+  private String streamsJson;
+  private Event event;
+
+  @Setup
+  public void setUp() throws IOException {
+    Logger.getInstance().turnOff();
+    JsonConverter.setCodecsEnabled(codecs);
+    eventsJson = BenchmarkData.createEventsJson(size, 50);
+    streamsJson = BenchmarkData.createStreamsJson(size);
+    event = BenchmarkData.createEvents(1, 1).get(0);
+  }
+
+  @Benchmark
+  public List<Event> createEventsFromJson() throws IOException {
+    return JsonConverter.createEventsFromJson(eventsJson);
+  }
+
+  @Benchmark
+  public Map<String, Stream> createStreamsTreeFromJson() throws IOException {
+    return JsonConverter.createStreamsTreeFromJson(streamsJson);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public String eventToJson() throws IOException {
+    return JsonConverter.toJson(event);
+  }
+}
@@ -0,0 +1,92 @@
+package com.pryv.benchmarks;
+
+import com.pryv.api.JsonRequestBody;
+import com.pryv.model.Event;
+import com.pryv.utils.JsonConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
+
+/**
+ * Writing of a JSON array of Events into a request sink, streamed by JsonRequestBody or first
+ * built as a String. Run with the gc profiler to compare the allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequestBodyBenchmark {
+
+  private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+  @Param({"100", "10000"})
+  public int size;
+
+  private List<Event> events;
+
+  @Setup
+  public void setUp() {
+    events = BenchmarkData.createEvents(size, 50);
+  }
+
+  @Benchmark
+  public long streamedBody() throws IOException {
+    return writeTo(JsonRequestBody.ofArray(events));
+  }
+
+  @Benchmark
+  public long stringBody() throws IOException {
+    return writeTo(RequestBody.create(JSON, JsonConverter.toJson(events)));
+  }
+
+  private static long writeTo(RequestBody body) throws IOException {
+    DiscardingSink sink = new DiscardingSink();
+    BufferedSink bufferedSink = Okio.buffer(sink);
+    body.writeTo(bufferedSink);
+    bufferedSink.flush();
+    return sink.written;
+  }
+
+  /**
+   * Counts and drops the bytes, as a socket would send them
+   */
+  private static class DiscardingSink implements Sink {
+    long written;
+
+    @Override
+    public void write(Buffer source, long byteCount) throws IOException {
+      source.skip(byteCount);
+      written += byteCount;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
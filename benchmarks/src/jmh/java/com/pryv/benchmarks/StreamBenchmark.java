@@ -0,0 +1,59 @@
+package com.pryv.benchmarks;
+
+import com.pryv.model.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Descendant lookups in deep and in wide Streams trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StreamBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int size;
+
+  private Stream deepRoot;
+  private Stream wideRoot;
+  private String deepestId;
+  private String lastWideId;
+
+  @Setup
+  public void setUp() {
+    deepRoot = BenchmarkData.createDeepStream(size);
+    deepestId = "stream-" + (size - 1);
+    wideRoot = BenchmarkData.createStreamsTree(size).get(0);
+    lastWideId = "stream-" + (size - 1);
+  }
+
+  @Benchmark
+  public boolean hasChildDeepest() {
+    return deepRoot.hasChild(deepestId);
+  }
+
+  @Benchmark
+  public boolean hasChildMissingDeep() {
+    return deepRoot.hasChild("unknown");
+  }
+
+  @Benchmark
+  public boolean hasChildMissingWide() {
+    return wideRoot.hasChild("unknown");
+  }
+
+  @Benchmark
+  public boolean hasChildWide() {
+    return wideRoot.hasChild(lastWideId);
+  }
+}
@@ -1,11 +1,15 @@
 package com.pryv;
 
 import com.pryv.api.HttpClient;
+import com.pryv.api.PryvHttpEngine;
+import com.pryv.connection.Batch;
 import com.pryv.connection.ConnectionAccesses;
 import com.pryv.connection.ConnectionAccount;
 import com.pryv.connection.ConnectionEvents;
+import com.pryv.connection.ConnectionNotifications;
 import com.pryv.connection.ConnectionProfile;
 import com.pryv.connection.ConnectionStreams;
+import com.pryv.connection.QueryCache;
 import com.pryv.model.Stream;
 
 import java.util.Map;
@@ -25,6 +29,10 @@ public class Connection {
     private String domain;
     private String urlEndpoint;
     private String registrationUrl;
+    private String token;
+    private HttpClient httpClient;
+    private PryvHttpEngine engine;
+    private ConnectionNotifications notifications;
 
     /**
      * Main object to manipulate Pryv data, instanciate it with the required parameters.
@@ -34,19 +42,35 @@ public class Connection {
      * @param domain
      */
     public Connection(String username, String token, String domain) {
+        this(username, token, domain, PryvHttpEngine.getDefault());
+    }
+
+    /**
+     * Instanciates a Connection sending its requests through the provided engine, which can be
+     * shared among many Connections.
+     *
+     * @param username
+     * @param token
+     * @param domain
+     * @param engine
+     */
+    public Connection(String username, String token, String domain, PryvHttpEngine engine) {
 
         this.username = username;
         this.domain = domain;
+        this.token = token;
+        this.engine = engine;
         buildUrlEndpoint();
         buildRegistrationUrl();
 
-        HttpClient httpClient = new HttpClient(urlEndpoint, "?auth=" + token);
+        this.httpClient = new HttpClient(urlEndpoint, "?auth=" + token, engine);
 
         this.accesses = new ConnectionAccesses(httpClient);
         this.account = new ConnectionAccount();
         this.events = new ConnectionEvents(httpClient);
         this.profile = new ConnectionProfile();
         this.streams = new ConnectionStreams(httpClient);
+        this.events.setStreams(streams);
     }
 
     private String buildUrlEndpoint() {
@@ -63,6 +87,66 @@ public class Connection {
         return this.registrationUrl;
     }
 
+    /**
+     * Creates a new Batch, used to send many create/update/delete calls in few HTTP requests.
+     * Its successful calls invalidate the cached get results as the single calls do.
+     *
+     * @return
+     */
+    public Batch batch() {
+        return new Batch(httpClient, events, streams);
+    }
+
+    /**
+     * Returns the realtime change notifications of this connection, sharing one websocket among
+     * all their listeners. The socket is opened by {@link ConnectionNotifications#start()}.
+     *
+     * @return
+     */
+    public synchronized ConnectionNotifications notifications() {
+        if (notifications == null) {
+            String socketUrl = urlEndpoint + "socket.io/?EIO=3&transport=websocket&auth=" + token;
+            notifications = new ConnectionNotifications(socketUrl, "/" + username, engine.getClient());
+        }
+        return notifications;
+    }
+
+    /**
+     * Sets the maximum number of asynchronous requests this connection runs at the same time,
+     * further requests are queued until one finishes.
+     *
+     * @param maxConcurrentRequests
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        httpClient.getAsyncDispatcher().setMaxConcurrentRequests(maxConcurrentRequests);
+    }
+
+    /**
+     * Enables or disables the coalescing of identical GET calls in flight, see
+     * {@link HttpClient#setCoalescingEnabled(boolean)}. Disabled by default.
+     *
+     * @param coalescingEnabled
+     */
+    public void setCoalescingEnabled(boolean coalescingEnabled) {
+        httpClient.setCoalescingEnabled(coalescingEnabled);
+    }
+
+    /**
+     * Sets an in-memory cache in front of the blocking events and streams get calls. The
+     * creations, updates and deletions made through this connection invalidate the cached
+     * results whose scope includes the modified Stream.
+     *
+     * @param queryCache
+     *          the cache, null to disable caching
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        if (queryCache != null) {
+            queryCache.setStreams(streams);
+        }
+        events.setQueryCache(queryCache);
+        streams.setQueryCache(queryCache);
+    }
+
     /**
      * returns the root Streams of the Pryv structure
      *
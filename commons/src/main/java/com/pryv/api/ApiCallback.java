@@ -0,0 +1,35 @@
+package com.pryv.api;
+
+import com.pryv.exceptions.ApiException;
+
+import java.io.IOException;
+
+/**
+ * Receives the outcome of an asynchronous call to Pryv API. Exactly one of the methods is called,
+ * on a worker thread of the connection, never on the HTTP client's dispatcher threads.
+ *
+ * @param <T> the type of the result of the call
+ */
+public interface ApiCallback<T> {
+
+    /**
+     * Called with the parsed result of a successful call
+     *
+     * @param result
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when Pryv API answered with an error
+     *
+     * @param exception
+     */
+    void onApiError(ApiException exception);
+
+    /**
+     * Called when the request could not be sent or its response could not be read
+     *
+     * @param exception
+     */
+    void onFailure(IOException exception);
+}
@@ -1,37 +1,254 @@
 package com.pryv.api;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.pryv.exceptions.ApiException;
 import com.pryv.utils.JsonConverter;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * Model a HTTP request to Pryv API
  */
 public class ApiRequest {
+    private static final String META_KEY = "meta";
+    private static final String ERROR_KEY = "error";
+
+    /**
+     * Returns the response itself
+     */
+    static final ResponseParser<ApiResponse> RESPONSE_PARSER = new ResponseParser<ApiResponse>() {
+        @Override
+        public ApiResponse parse(ApiResponse apiResponse) {
+            return apiResponse;
+        }
+    };
+
     private Request httpRequest;
     private OkHttpClient httpClient;
+    private AsyncDispatcher dispatcher;
+    private SingleFlight singleFlight;
+    private String flightKey;
+    private SingleFlight writtenFlights;
 
     public ApiRequest(Request httpRequest, OkHttpClient httpClient) {
+        this(httpRequest, httpClient, null);
+    }
+
+    public ApiRequest(Request httpRequest, OkHttpClient httpClient, AsyncDispatcher dispatcher) {
         this.httpRequest = httpRequest;
         this.httpClient = httpClient;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Makes the request share its response with the identical requests in flight at the same
+     * time, identified by the key.
+     *
+     * @param singleFlight
+     * @param key
+     * @return
+     */
+    ApiRequest coalesce(SingleFlight singleFlight, String key) {
+        this.singleFlight = singleFlight;
+        this.flightKey = key;
+        return this;
+    }
+
+    /**
+     * Makes the request, a write, close the flights in progress once it is answered: identical
+     * requests made after it are sent again instead of sharing a response that may predate it.
+     *
+     * @param singleFlight
+     * @return
+     */
+    ApiRequest closesFlights(SingleFlight singleFlight) {
+        this.writtenFlights = singleFlight;
+        return this;
     }
 
     public ApiResponse exec() throws IOException, ApiException {
+        Response response;
+        try {
+            response = httpClient.newCall(httpRequest).execute();
+        } finally {
+            closeFlights();
+        }
+        return readResponse(response);
+    }
+
+    /**
+     * Executes the request and converts its response using the parser. A coalesced request
+     * waits for the identical request in flight instead, if any, and receives the same result as
+     * the other callers using the same parser.
+     *
+     * @param parser
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    public <T> T exec(ResponseParser<T> parser) throws IOException, ApiException {
+        if (singleFlight != null) {
+            return singleFlight.exec(flightKey, this, parser);
+        }
+        return parser.parse(exec());
+    }
+
+    /**
+     * Executes the request and hands its response, unread, to the handler if it is successful
+     * (2xx). The response is closed once handled.
+     *
+     * @param handler
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    public <T> T exec(ResponseHandler<T> handler) throws IOException, ApiException {
+        Response response = httpClient.newCall(httpRequest).execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw readApiError(readJsonNode(response), response.code());
+            }
+            return handler.handle(response);
+        } finally {
+            response.body().close();
+        }
+    }
+
+    /**
+     * Sends the request without blocking. The response is read and converted using the parser on
+     * the worker threads of the dispatcher, which then notifies the callback. A coalesced
+     * request joins the identical request in flight instead, if any.
+     *
+     * @param parser
+     * @param callback
+     */
+    public <T> void enqueue(ResponseParser<T> parser, ApiCallback<T> callback) {
+        if (dispatcher == null) {
+            throw new IllegalStateException("ApiRequest: no AsyncDispatcher to enqueue the request");
+        }
+        if (singleFlight != null) {
+            singleFlight.enqueue(flightKey, this, parser, callback);
+        } else {
+            send(parser, callback);
+        }
+    }
+
+    /**
+     * Sends the request through the dispatcher
+     */
+    <T> void send(final ResponseParser<T> parser, final ApiCallback<T> callback) {
+        if (dispatcher == null) {
+            throw new IllegalStateException("ApiRequest: no AsyncDispatcher to enqueue the request");
+        }
+        dispatcher.submit(new Runnable() {
+            @Override
+            public void run() {
+                httpClient.newCall(httpRequest).enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, final IOException e) {
+                        closeFlights();
+                        dispatcher.finished();
+                        dispatcher.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(e);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onResponse(Call call, final Response response) {
+                        closeFlights();
+                        dispatcher.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                T result;
+                                try {
+                                    result = parser.parse(readResponse(response));
+                                } catch (ApiException e) {
+                                    callback.onApiError(e);
+                                    return;
+                                } catch (IOException e) {
+                                    callback.onFailure(e);
+                                    return;
+                                } catch (RuntimeException e) {
+                                    callback.onFailure(new IOException("ApiRequest: response parsing failed", e));
+                                    return;
+                                } finally {
+                                    dispatcher.finished();
+                                }
+                                callback.onSuccess(result);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Executes the request without reading the response body in memory. Error responses are
+     * still read and thrown as ApiException.
+     *
+     * @return the response body, to be closed by the caller
+     * @throws IOException
+     * @throws ApiException
+     */
+    public InputStream execStream() throws IOException, ApiException {
         Response response = httpClient.newCall(httpRequest).execute();
-        String json = response.body().string();
-        double time = JsonConverter.retrieveServerTime(json);
         int status = response.code();
         if (status != HttpURLConnection.HTTP_CREATED && status != HttpURLConnection.HTTP_OK) {
-            ApiException exception = JsonConverter.retrieveApiError(json);
-            throw exception;
+            throw readApiError(readJsonNode(response), status);
+        }
+        return response.body().byteStream();
+    }
+
+    private void closeFlights() {
+        if (writtenFlights != null) {
+            writtenFlights.closeAll();
+        }
+    }
+
+    /**
+     * Reads the response body in a single pass: the server time, the error and the payload are
+     * then all retrieved from the same JsonNode.
+     */
+    private static ApiResponse readResponse(Response response) throws IOException, ApiException {
+        JsonNode json = readJsonNode(response);
+        int status = response.code();
+        if (status != HttpURLConnection.HTTP_CREATED && status != HttpURLConnection.HTTP_OK) {
+            throw readApiError(json, status);
+        }
+        if (json == null || !json.isObject()) {
+            throw new IOException("ApiRequest: unexpected response body (status " + status + ")");
+        }
+        double time = json.has(META_KEY) ? JsonConverter.retrieveServerTime(json) : 0;
+        return new ApiResponse(json, time, status);
+    }
+
+    private static JsonNode readJsonNode(Response response) throws IOException {
+        ResponseBody body = response.body();
+        try {
+            return JsonConverter.toJsonNode(body.byteStream());
+        } finally {
+            body.close();
+        }
+    }
+
+    private static ApiException readApiError(JsonNode json, int status) {
+        if (json == null || !json.has(ERROR_KEY)) {
+            return new ApiException(null, "Unexpected HTTP status " + status, null, new ArrayList<String>());
         }
-        ApiResponse apiResponse = new ApiResponse(json, time, status);
-        return apiResponse;
+        return JsonConverter.retrieveApiError(json);
     }
-}
\ No newline at end of file
+}
@@ -1,20 +1,51 @@
 package com.pryv.api;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 /**
- * Model a HTTP Response from Pryv API
+ * Model a HTTP Response from Pryv API. The body is parsed once when the response is read, the
+ * parsers then work on its root JsonNode.
  */
 public class ApiResponse {
+    private JsonNode jsonNode;
     private String jsonBody;
     private double serverTime;
     private int status;
 
-    public ApiResponse (String httpResponse, double serverTime, int statusCode) {
-        this.jsonBody = httpResponse;
+    public ApiResponse (JsonNode jsonNode, double serverTime, int statusCode) {
+        this.jsonNode = jsonNode;
         this.serverTime = serverTime;
         this.status = statusCode;
     }
 
-    public String getJsonBody() {
+    /**
+     * Returns the parsed body of the response
+     *
+     * @return
+     */
+    public JsonNode getJsonNode() {
+        return jsonNode;
+    }
+
+    /**
+     * Returns whether the response has the field at root level
+     *
+     * @param key
+     * @return
+     */
+    public boolean has(String key) {
+        return jsonNode.has(key);
+    }
+
+    /**
+     * Returns the body of the response serialized back to JSON, prefer {@link #getJsonNode()}
+     *
+     * @return
+     */
+    public synchronized String getJsonBody() {
+        if (jsonBody == null) {
+            jsonBody = jsonNode.toString();
+        }
         return jsonBody;
     }
 
@@ -25,4 +56,4 @@ public class ApiResponse {
     public int getStatus() {
         return status;
     }
-}
\ No newline at end of file
+}
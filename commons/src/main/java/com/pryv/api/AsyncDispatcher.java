@@ -0,0 +1,220 @@
+package com.pryv.api;
+
+import com.pryv.exceptions.ApiException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of asynchronous requests in flight for a connection and runs the parsing of
+ * their responses, as well as the callbacks, on worker threads instead of the HTTP client's
+ * dispatcher threads. Requests over the limit are queued, not blocked.
+ */
+public class AsyncDispatcher {
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+    private static ExecutorService defaultExecutor;
+    private static ExecutorService blockingExecutor;
+
+    private Executor executor;
+    private int maxConcurrentRequests;
+    private int runningRequests = 0;
+    private Deque<Runnable> pendingRequests = new ArrayDeque<>();
+
+    /**
+     * Dispatcher running responses on the shared worker pool, with the default concurrency limit
+     */
+    public AsyncDispatcher() {
+        this(getDefaultExecutor(), DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * @param executor
+     *          runs response parsing and callbacks
+     * @param maxConcurrentRequests
+     *          the maximum number of requests in flight at the same time
+     */
+    public AsyncDispatcher(Executor executor, int maxConcurrentRequests) {
+        this.executor = executor;
+        setMaxConcurrentRequests(maxConcurrentRequests);
+    }
+
+    /**
+     * Returns the worker pool shared by default among connections, sized on the number of
+     * processors since it only runs CPU-bound parsing.
+     *
+     * @return
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "pryv-worker-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Returns the pool running the blocking calls of all connections. Its threads are created on
+     * demand since the number of calls in flight is bounded by each dispatcher.
+     *
+     * @return
+     */
+    private static synchronized ExecutorService getBlockingExecutor() {
+        if (blockingExecutor == null) {
+            blockingExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "pryv-io-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return blockingExecutor;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("AsyncDispatcher: max concurrent requests must be positive");
+        }
+        synchronized (this) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+        }
+        promotePendingRequests();
+    }
+
+    public synchronized int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public synchronized int getRunningRequestsCount() {
+        return runningRequests;
+    }
+
+    public synchronized int getPendingRequestsCount() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Starts the request if the limit allows it, queues it otherwise. Each started request must
+     * call {@link #finished()} once its response is consumed.
+     *
+     * @param startRequest
+     *          sends the request, must not block
+     */
+    void submit(Runnable startRequest) {
+        synchronized (this) {
+            if (runningRequests >= maxConcurrentRequests) {
+                pendingRequests.add(startRequest);
+                return;
+            }
+            runningRequests++;
+        }
+        startRequest.run();
+    }
+
+    /**
+     * Runs the blocking call on a thread of its own, counted within the concurrency limit like
+     * a request, then notifies the callback on the worker threads.
+     *
+     * @param call
+     * @param callback
+     */
+    public <T> void run(final BlockingCall<T> call, final ApiCallback<T> callback) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                getBlockingExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Runnable notification;
+                        try {
+                            final T result = call.call();
+                            notification = new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onSuccess(result);
+                                }
+                            };
+                        } catch (final ApiException e) {
+                            notification = new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onApiError(e);
+                                }
+                            };
+                        } catch (final IOException e) {
+                            notification = new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onFailure(e);
+                                }
+                            };
+                        } catch (final RuntimeException e) {
+                            notification = new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onFailure(new IOException("AsyncDispatcher: call failed", e));
+                                }
+                            };
+                        } finally {
+                            finished();
+                        }
+                        execute(notification);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the worker threads
+     *
+     * @param task
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Releases the slot of a request and starts the next pending one, if any
+     */
+    void finished() {
+        synchronized (this) {
+            runningRequests--;
+        }
+        promotePendingRequests();
+    }
+
+    private void promotePendingRequests() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (runningRequests >= maxConcurrentRequests || pendingRequests.isEmpty()) {
+                    return;
+                }
+                next = pendingRequests.poll();
+                runningRequests++;
+            }
+            next.run();
+        }
+    }
+}
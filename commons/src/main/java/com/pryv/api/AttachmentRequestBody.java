@@ -0,0 +1,145 @@
+package com.pryv.api;
+
+import com.pryv.model.Attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Request body streaming the content of an Attachment, from a File, an InputStream, a ByteBuffer
+ * or a FileChannel, chunk by chunk into the request sink without reading it whole in memory. Its
+ * content type is the Attachment's type.
+ */
+public class AttachmentRequestBody extends RequestBody {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Attachment attachment;
+    private final MediaType contentType;
+    private boolean streamConsumed = false;
+    private long channelStart = -1;
+
+    public AttachmentRequestBody(Attachment attachment) {
+        if (!attachment.hasContent()) {
+            throw new IllegalArgumentException("AttachmentRequestBody: attachment "
+                    + attachment.getFileName() + " has no File nor data to upload");
+        }
+        this.attachment = attachment;
+        this.contentType = attachment.getType() == null ? null : MediaType.parse(attachment.getType());
+    }
+
+    /**
+     * Returns the name of the uploaded file: the Attachment's fileName, else the File's name
+     *
+     * @return
+     */
+    public String getFileName() {
+        if (attachment.getFileName() != null) {
+            return attachment.getFileName();
+        }
+        return attachment.getFile() != null ? attachment.getFile().getName() : "attachment";
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        Object data = attachment.getData();
+        if (data == null) {
+            return attachment.getFile().length();
+        } else if (data instanceof ByteBuffer) {
+            return ((ByteBuffer) data).remaining();
+        } else if (data instanceof FileChannel) {
+            FileChannel channel = (FileChannel) data;
+            return channel.size() - getChannelStart(channel);
+        }
+        return attachment.getSize() < 0 ? -1 : attachment.getSize();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        Object data = attachment.getData();
+        if (data == null) {
+            writeFile(attachment.getFile(), sink);
+        } else if (data instanceof ByteBuffer) {
+            writeBuffer((ByteBuffer) data, sink);
+        } else if (data instanceof FileChannel) {
+            writeChannel((FileChannel) data, sink);
+        } else {
+            writeStream((InputStream) data, sink);
+        }
+    }
+
+    private static void writeFile(File file, BufferedSink sink) throws IOException {
+        Source source = Okio.source(file);
+        try {
+            sink.writeAll(source);
+        } finally {
+            source.close();
+        }
+    }
+
+    private static void writeBuffer(ByteBuffer buffer, BufferedSink sink) throws IOException {
+        // a duplicate keeps the buffer's position, so that the body can be written again
+        ByteBuffer content = buffer.duplicate();
+        if (content.hasArray()) {
+            sink.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            return;
+        }
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, content.remaining())];
+        while (content.hasRemaining()) {
+            int length = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, length);
+            sink.write(chunk, 0, length);
+        }
+    }
+
+    private void writeChannel(FileChannel channel, BufferedSink sink) throws IOException {
+        // positional reads leave the channel's position unchanged
+        long position = getChannelStart(channel);
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        int read;
+        while ((read = channel.read(chunk, position)) > 0) {
+            sink.write(chunk.array(), 0, read);
+            position += read;
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Returns the position of the channel when the body was first measured or written, where
+     * every write starts
+     */
+    private synchronized long getChannelStart(FileChannel channel) throws IOException {
+        if (channelStart < 0) {
+            channelStart = channel.position();
+        }
+        return channelStart;
+    }
+
+    private synchronized void writeStream(InputStream stream, BufferedSink sink) throws IOException {
+        if (streamConsumed) {
+            throw new IOException("AttachmentRequestBody: the stream of attachment "
+                    + getFileName() + " was already consumed");
+        }
+        streamConsumed = true;
+        Source source = Okio.source(stream);
+        try {
+            sink.writeAll(source);
+        } finally {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.pryv.api;
+
+import com.pryv.exceptions.ApiException;
+
+import java.io.IOException;
+
+/**
+ * A call to Pryv API made of blocking steps, e.g. a download written to disk, run asynchronously
+ * by {@link AsyncDispatcher#run(BlockingCall, ApiCallback)}.
+ *
+ * @param <T> the type of the result
+ */
+public interface BlockingCall<T> {
+
+    T call() throws IOException, ApiException;
+}
@@ -0,0 +1,16 @@
+package com.pryv.api;
+
+import com.pryv.model.Event;
+
+/**
+ * Receives the Events of a streamed events.get response, one at a time as they are read.
+ */
+public interface EventConsumer {
+
+    /**
+     * Called for each Event of the response, in the order sent by the API.
+     *
+     * @param event
+     */
+    void onEvent(Event event);
+}
@@ -0,0 +1,145 @@
+package com.pryv.api;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.pryv.model.Event;
+import com.pryv.utils.JsonConverter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the Events of an events.get response while it is being read, binding each
+ * element of the "events" array on its own so that the whole response is never held in memory.
+ * The underlying stream is released once the response is fully read or the iterator is closed.
+ */
+public class EventIterator implements Iterator<Event>, Closeable {
+
+    private static final String EVENTS_KEY = "events";
+    private static final String META_KEY = "meta";
+    private static final String SERVER_TIME_KEY = "serverTime";
+
+    private JsonParser parser;
+    private Event next;
+    private boolean inEventsArray = false;
+    private boolean finished = false;
+    private double serverTime;
+
+    public EventIterator(InputStream source) throws IOException {
+        parser = JsonConverter.createParser(source);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            close();
+            throw new JsonParseException("events response is not a JSON object",
+                    parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Reads the next Event from the response.
+     *
+     * @return the next Event, null if the response has no more events
+     * @throws IOException
+     */
+    public Event nextEvent() throws IOException {
+        if (next != null) {
+            Event event = next;
+            next = null;
+            return event;
+        }
+        return readNext();
+    }
+
+    /**
+     * Returns the meta.serverTime field of the response, available once all events have been read.
+     *
+     * @return
+     */
+    public double getServerTime() {
+        return serverTime;
+    }
+
+    /**
+     * Returns whether the whole response has been read.
+     *
+     * @return
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readNext();
+            } catch (IOException e) {
+                throw new IllegalStateException("EventIterator: failed reading events", e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Event next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Event event = next;
+        next = null;
+        return event;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("EventIterator is read-only");
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        parser.close();
+    }
+
+    private Event readNext() throws IOException {
+        while (!finished) {
+            if (inEventsArray) {
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    return JsonConverter.readEvent(parser);
+                }
+                inEventsArray = false;
+                continue;
+            }
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_OBJECT) {
+                close();
+                return null;
+            }
+            String fieldName = parser.getCurrentName();
+            token = parser.nextToken();
+            if (EVENTS_KEY.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                inEventsArray = true;
+            } else if (META_KEY.equals(fieldName) && token == JsonToken.START_OBJECT) {
+                readMeta();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return null;
+    }
+
+    private void readMeta() throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            parser.nextToken();
+            if (SERVER_TIME_KEY.equals(fieldName)) {
+                serverTime = parser.getDoubleValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
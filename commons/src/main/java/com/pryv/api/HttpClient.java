@@ -4,11 +4,10 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.pryv.model.ApiResource;
 import com.pryv.model.Attachment;
 import com.pryv.model.Filter;
-import com.pryv.utils.JsonConverter;
 
-import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
-import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -18,17 +17,75 @@ import okhttp3.RequestBody;
  * Model a REST client communicating with Pryv API
  */
 public class HttpClient {
-    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
     private OkHttpClient client;
     private String apiUrl;
     private String tokenParameter;
+    private AsyncDispatcher dispatcher;
+    private SingleFlight singleFlight;
+    private boolean coalescingEnabled = false;
 
     public HttpClient(String apiUrl, String tokenParameter) {
-        client = new OkHttpClient();
+        this(apiUrl, tokenParameter, PryvHttpEngine.getDefault());
+    }
+
+    /**
+     * @param apiUrl
+     * @param tokenParameter
+     * @param engine
+     *          provides the OkHttpClient, shared with the other users of the engine
+     */
+    public HttpClient(String apiUrl, String tokenParameter, PryvHttpEngine engine) {
+        client = engine.getClient();
+        dispatcher = new AsyncDispatcher();
+        singleFlight = new SingleFlight(dispatcher);
         this.apiUrl = apiUrl;
         this.tokenParameter = tokenParameter;
     }
 
+    /**
+     * Returns the dispatcher limiting and running the asynchronous requests of this client
+     *
+     * @return
+     */
+    public AsyncDispatcher getAsyncDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Enables or disables the coalescing of GET requests: identical GET requests made while one
+     * of them is in flight share its response instead of being sent, and the callers using the
+     * same parser receive the same result instances, whose lists and maps are unmodifiable. The
+     * writes sent through this client close the requests in flight once answered, so that later
+     * GET requests are sent again. Disabled by default.
+     *
+     * @param coalescingEnabled
+     */
+    public void setCoalescingEnabled(boolean coalescingEnabled) {
+        this.coalescingEnabled = coalescingEnabled;
+    }
+
+    public boolean isCoalescingEnabled() {
+        return coalescingEnabled;
+    }
+
+    /**
+     * Returns the number of distinct GET requests currently in flight through coalescing
+     *
+     * @return
+     */
+    public int getInFlightCount() {
+        return singleFlight.getInFlightCount();
+    }
+
+    /**
+     * Builds a GET request. Filters are rendered in their canonical form, so equal Filters give
+     * identical requests, which are coalesced while in flight if enabled.
+     *
+     * @param endpoint
+     * @param filter
+     *          optional
+     * @return
+     */
     public ApiRequest getRequest(String endpoint, Filter filter) {
         String url = apiUrl + endpoint + tokenParameter;
         if (filter != null) {
@@ -38,41 +95,62 @@ public class HttpClient {
                 .url(url)
                 .get()
                 .build();
-        return new ApiRequest(request, client);
+        ApiRequest apiRequest = new ApiRequest(request, client, dispatcher);
+        return coalescingEnabled ? apiRequest.coalesce(singleFlight, url) : apiRequest;
     }
 
     public ApiRequest createRequest(String endpoint, ApiResource newResource, Attachment attachment) throws JsonProcessingException {
+        List<Attachment> attachments = attachment == null ? null : Collections.singletonList(attachment);
+        return createRequest(endpoint, newResource, attachments, null);
+    }
+
+    /**
+     * Builds a creation request. With attachments, the resource and all the attachments are sent
+     * in a single multipart request, each attachment in its own part typed with its content type.
+     * Bodies are streamed while the request is sent.
+     *
+     * @param endpoint
+     * @param newResource
+     * @param attachments
+     *          optional, each with a File or data to upload
+     * @param listener
+     *          optional, notified of the number of bytes sent
+     * @return
+     * @throws JsonProcessingException
+     */
+    public ApiRequest createRequest(String endpoint, ApiResource newResource, List<Attachment> attachments,
+                                    UploadProgressListener listener) throws JsonProcessingException {
         String url = apiUrl + endpoint + tokenParameter;
-        String jsonEvent = JsonConverter.toJson(newResource);
-        RequestBody body;
-        // TODO: handle multiple attachments, do it elsewhere?
-        if(attachment != null) {
-            File file = attachment.getFile();
-            body = new MultipartBody.Builder()
+        RequestBody body = JsonRequestBody.of(newResource);
+        if (attachments != null && !attachments.isEmpty()) {
+            MultipartBody.Builder multipart = new MultipartBody.Builder()
                     .setType(MultipartBody.FORM)
-                    .addFormDataPart("event", jsonEvent)
-                    .addFormDataPart("file", file.getName(), RequestBody.create(null, file))
-                    .build();
-        } else {
-            body = RequestBody.create(JSON, jsonEvent);
+                    .addFormDataPart("event", null, body);
+            for (Attachment attachment : attachments) {
+                AttachmentRequestBody part = new AttachmentRequestBody(attachment);
+                multipart.addFormDataPart("file", part.getFileName(), part);
+            }
+            body = multipart.build();
+        }
+        if (listener != null) {
+            body = new ProgressRequestBody(body, listener);
         }
 
         Request request = new Request.Builder()
                 .url(url)
                 .post(body)
                 .build();
-        return new ApiRequest(request, client);
+        return new ApiRequest(request, client, dispatcher).closesFlights(singleFlight);
     }
 
     public ApiRequest updateRequest(String endpoint, String resourceId, ApiResource updatedResource) throws JsonProcessingException {
         String url = apiUrl + endpoint + "/" + resourceId + tokenParameter;
-        String jsonEvent = JsonConverter.toJson(updatedResource);
-        RequestBody body = RequestBody.create(JSON, jsonEvent);
+        RequestBody body = JsonRequestBody.of(updatedResource);
         Request request = new Request.Builder()
                 .url(url)
                 .put(body)
                 .build();
-        return new ApiRequest(request, client);
+        return new ApiRequest(request, client, dispatcher).closesFlights(singleFlight);
     }
 
     public ApiRequest deleteRequest(String endpoint, String resourceId, Boolean mergeEventsWithParent) {
@@ -86,6 +164,47 @@ public class HttpClient {
                 .url(url)
                 .delete()
                 .build();
-        return new ApiRequest(request, client);
+        return new ApiRequest(request, client, dispatcher).closesFlights(singleFlight);
+    }
+
+    /**
+     * Builds a batch call sending several API method calls in a single HTTP request. The calls
+     * are serialized one after the other while the request is sent.
+     *
+     * @param methodCalls
+     *          the method calls, each serialized as {"method": ..., "params": ...}
+     * @return
+     * @throws JsonProcessingException
+     */
+    public ApiRequest batchRequest(Iterable<?> methodCalls) throws JsonProcessingException {
+        String url = apiUrl + tokenParameter;
+        Request request = new Request.Builder()
+                .url(url)
+                .post(JsonRequestBody.ofArray(methodCalls))
+                .build();
+        return new ApiRequest(request, client, dispatcher).closesFlights(singleFlight);
+    }
+
+    /**
+     * Builds the download request of an attachment's content. With a positive offset, only the
+     * bytes from the offset are requested, to resume a previous download.
+     *
+     * @param endpoint
+     * @param resourceId
+     *          the id of the Event holding the attachment
+     * @param attachmentId
+     * @param offset
+     *          the number of bytes already downloaded
+     * @return
+     */
+    public ApiRequest downloadRequest(String endpoint, String resourceId, String attachmentId, long offset) {
+        String url = apiUrl + endpoint + "/" + resourceId + "/" + attachmentId + tokenParameter;
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .get();
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+        }
+        return new ApiRequest(builder.build(), client, dispatcher);
     }
 }
@@ -0,0 +1,111 @@
+package com.pryv.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.pryv.utils.JsonConverter;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Request body writing its JSON straight into the request sink while the request is being sent,
+ * so that the payload is never held in memory, neither as a String nor as bytes. Values are
+ * serialized when the request is sent, not when the body is created.
+ */
+public abstract class JsonRequestBody extends RequestBody {
+
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    /**
+     * Creates a body holding the value serialized in JSON.
+     *
+     * @param value
+     *          resource, map or collection, as accepted by {@link JsonConverter#toJson(Object)}
+     * @return
+     */
+    public static JsonRequestBody of(final Object value) {
+        return new JsonRequestBody() {
+            @Override
+            protected void writeJson(JsonGenerator generator) throws IOException {
+                JsonConverter.writeValue(generator, value);
+            }
+        };
+    }
+
+    /**
+     * Creates a body holding a JSON array of the items, read from the Iterable each time the
+     * body is written.
+     *
+     * @param items
+     * @return
+     */
+    public static JsonRequestBody ofArray(final Iterable<?> items) {
+        return new JsonRequestBody() {
+            @Override
+            protected void writeJson(JsonGenerator generator) throws IOException {
+                writeArray(generator, items.iterator());
+            }
+        };
+    }
+
+    /**
+     * Creates a body holding a JSON array of the items, produced lazily by the Iterator as they
+     * are written. Such a body can only be written once: if the request has to be sent again,
+     * e.g. after a connection failure, it fails with an IOException.
+     *
+     * @param items
+     * @return
+     */
+    public static JsonRequestBody ofArray(final Iterator<?> items) {
+        return new JsonRequestBody() {
+            private boolean written = false;
+
+            @Override
+            protected synchronized void writeJson(JsonGenerator generator) throws IOException {
+                if (written) {
+                    throw new IOException("JsonRequestBody: the items of the body were already consumed");
+                }
+                written = true;
+                writeArray(generator, items);
+            }
+        };
+    }
+
+    private static void writeArray(JsonGenerator generator, Iterator<?> items) throws IOException {
+        generator.writeStartArray();
+        while (items.hasNext()) {
+            JsonConverter.writeValue(generator, items.next());
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Writes the JSON of the body
+     *
+     * @param generator
+     * @throws IOException
+     */
+    protected abstract void writeJson(JsonGenerator generator) throws IOException;
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        // unknown until written, the body is sent in chunks
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        JsonGenerator generator = JsonConverter.createGenerator(sink.outputStream());
+        writeJson(generator);
+        // flushes the generator's buffer into the sink, which is left open
+        generator.close();
+    }
+}
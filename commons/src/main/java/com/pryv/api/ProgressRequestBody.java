@@ -0,0 +1,53 @@
+package com.pryv.api;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * Request body reporting to an UploadProgressListener the number of bytes written by the body
+ * it wraps
+ */
+public class ProgressRequestBody extends RequestBody {
+
+    private final RequestBody body;
+    private final UploadProgressListener listener;
+
+    public ProgressRequestBody(RequestBody body, UploadProgressListener listener) {
+        this.body = body;
+        this.listener = listener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return body.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return body.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        final long contentLength = contentLength();
+        BufferedSink countingSink = Okio.buffer(new ForwardingSink(sink) {
+            private long bytesWritten = 0;
+
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                super.write(source, byteCount);
+                bytesWritten += byteCount;
+                listener.onProgress(bytesWritten, contentLength);
+            }
+        });
+        body.writeTo(countingSink);
+        // hands the remaining bytes to the request sink, which stays open
+        countingSink.flush();
+    }
+}
@@ -0,0 +1,144 @@
+package com.pryv.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Owns the OkHttpClient - and thus the connection pool, dispatcher and threads - used to reach
+ * Pryv. A single engine is meant to be shared by all Connections and authentication requests of
+ * an application, so that connections and TLS sessions are reused. Use {@link #getDefault()}
+ * or configure one through {@link Builder}.
+ */
+public class PryvHttpEngine {
+
+    private static PryvHttpEngine defaultEngine;
+
+    private OkHttpClient client;
+
+    private PryvHttpEngine(Builder builder) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(builder.maxRequests);
+        dispatcher.setMaxRequestsPerHost(builder.maxRequestsPerHost);
+        List<Protocol> protocols = builder.http2Enabled
+                ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : Collections.singletonList(Protocol.HTTP_1_1);
+        client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(builder.maxIdleConnections,
+                        builder.keepAliveDurationMs, TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(protocols)
+                .connectTimeout(builder.connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(builder.readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(builder.writeTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the engine shared by default by all Connections and authentication requests.
+     *
+     * @return
+     */
+    public static synchronized PryvHttpEngine getDefault() {
+        if (defaultEngine == null) {
+            defaultEngine = new Builder().build();
+        }
+        return defaultEngine;
+    }
+
+    /**
+     * Replaces the engine shared by default. Connections created before keep their engine.
+     *
+     * @param engine
+     */
+    public static synchronized void setDefault(PryvHttpEngine engine) {
+        defaultEngine = engine;
+    }
+
+    public OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Closes the idle connections of the pool, connections in use are closed once released.
+     */
+    public void evictIdleConnections() {
+        client.connectionPool().evictAll();
+    }
+
+    /**
+     * Configures a PryvHttpEngine. Defaults are those of OkHttp.
+     */
+    public static class Builder {
+        private int maxIdleConnections = 5;
+        private long keepAliveDurationMs = TimeUnit.MINUTES.toMillis(5);
+        private boolean http2Enabled = true;
+        private long connectTimeoutMs = TimeUnit.SECONDS.toMillis(10);
+        private long readTimeoutMs = TimeUnit.SECONDS.toMillis(10);
+        private long writeTimeoutMs = TimeUnit.SECONDS.toMillis(10);
+        private int maxRequests = 64;
+        private int maxRequestsPerHost = 5;
+
+        public Builder setMaxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        public Builder setKeepAliveDuration(long duration, TimeUnit unit) {
+            this.keepAliveDurationMs = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder setHttp2Enabled(boolean http2Enabled) {
+            this.http2Enabled = http2Enabled;
+            return this;
+        }
+
+        public Builder setConnectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeoutMs = unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder setReadTimeout(long timeout, TimeUnit unit) {
+            this.readTimeoutMs = unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder setWriteTimeout(long timeout, TimeUnit unit) {
+            this.writeTimeoutMs = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests run at the same time by the dispatcher, all hosts
+         * included
+         *
+         * @param maxRequests
+         */
+        public Builder setMaxRequests(int maxRequests) {
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests run at the same time by the dispatcher for a single
+         * host, that is a single Pryv user
+         *
+         * @param maxRequestsPerHost
+         */
+        public Builder setMaxRequestsPerHost(int maxRequestsPerHost) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        public PryvHttpEngine build() {
+            return new PryvHttpEngine(this);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.pryv.api;
+
+import java.io.IOException;
+
+import okhttp3.Response;
+
+/**
+ * Reads the raw HTTP response of a successful call, e.g. to stream a file download without
+ * buffering it.
+ *
+ * @param <T> the type of the result
+ */
+public interface ResponseHandler<T> {
+
+    T handle(Response response) throws IOException;
+}
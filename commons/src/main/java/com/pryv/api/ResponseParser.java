@@ -0,0 +1,13 @@
+package com.pryv.api;
+
+import java.io.IOException;
+
+/**
+ * Converts the response of a successful call to Pryv API into its result.
+ *
+ * @param <T> the type of the result
+ */
+public interface ResponseParser<T> {
+
+    T parse(ApiResponse apiResponse) throws IOException;
+}
@@ -0,0 +1,233 @@
+package com.pryv.api;
+
+import com.pryv.exceptions.ApiException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shares a request in flight among the identical requests made before its response arrives: only
+ * the first one is sent, the others wait for its response. The response is parsed once per
+ * parser, so callers using the same parser receive the same result instance. Lists, sets and maps
+ * are returned unmodifiable, and the objects they hold must not be modified.
+ * <p>
+ * Writes close the flights in progress once they are answered, so that the requests made after
+ * a write are sent again instead of receiving a response that may predate it.
+ */
+class SingleFlight {
+
+    private AsyncDispatcher dispatcher;
+    private Map<String, Flight> flights = new HashMap<>();
+
+    SingleFlight(AsyncDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Executes the request, or waits for the identical request in flight, then parses the
+     * response.
+     *
+     * @param key
+     *          identifies identical requests
+     * @param request
+     * @param parser
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    <T> T exec(String key, ApiRequest request, ResponseParser<T> parser) throws IOException, ApiException {
+        Flight flight;
+        boolean leader;
+        synchronized (this) {
+            flight = flights.get(key);
+            leader = flight == null;
+            if (leader) {
+                flight = new Flight();
+                flights.put(key, flight);
+            }
+        }
+        if (leader) {
+            ApiResponse response = null;
+            Exception error = null;
+            try {
+                response = request.exec();
+            } catch (ApiException | IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                land(key, flight, null, new IOException("SingleFlight: request failed", e));
+                throw e;
+            }
+            land(key, flight, response, error);
+        }
+        return flight.await(parser);
+    }
+
+    /**
+     * Sends the request without blocking, or joins the identical request in flight. The
+     * callback is notified on the dispatcher's worker threads.
+     *
+     * @param key
+     *          identifies identical requests
+     * @param request
+     * @param parser
+     * @param callback
+     */
+    <T> void enqueue(final String key, ApiRequest request, ResponseParser<T> parser, ApiCallback<T> callback) {
+        final Flight flight;
+        boolean leader;
+        synchronized (this) {
+            Flight current = flights.get(key);
+            leader = current == null;
+            if (leader) {
+                current = new Flight();
+                flights.put(key, current);
+            }
+            flight = current;
+        }
+        flight.addWaiter(parser, callback);
+        if (leader) {
+            request.send(ApiRequest.RESPONSE_PARSER, new ApiCallback<ApiResponse>() {
+                @Override
+                public void onSuccess(ApiResponse response) {
+                    land(key, flight, response, null);
+                }
+
+                @Override
+                public void onApiError(ApiException exception) {
+                    land(key, flight, null, exception);
+                }
+
+                @Override
+                public void onFailure(IOException exception) {
+                    land(key, flight, null, exception);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes the flights in progress: the requests made from now on are sent again, the callers
+     * already waiting still receive the response of their flight.
+     */
+    synchronized void closeAll() {
+        flights.clear();
+    }
+
+    synchronized int getInFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * Removes the flight first, so that later requests are sent again, then hands its outcome
+     * to the waiting callers
+     */
+    private void land(String key, Flight flight, ApiResponse response, Exception error) {
+        synchronized (this) {
+            if (flights.get(key) == flight) {
+                flights.remove(key);
+            }
+        }
+        flight.complete(response, error);
+    }
+
+    /**
+     * Outcome of a request shared by several callers
+     */
+    private class Flight {
+
+        private boolean completed = false;
+        private ApiResponse response;
+        private Exception error;
+        private List<Runnable> waiters = new ArrayList<>();
+        // results by parser instance
+        private Map<ResponseParser<?>, Object> results = new IdentityHashMap<>();
+
+        synchronized <T> void addWaiter(final ResponseParser<T> parser, final ApiCallback<T> callback) {
+            Runnable notification = new Runnable() {
+                @Override
+                public void run() {
+                    T result;
+                    try {
+                        result = await(parser);
+                    } catch (ApiException e) {
+                        callback.onApiError(e);
+                        return;
+                    } catch (IOException e) {
+                        callback.onFailure(e);
+                        return;
+                    } catch (RuntimeException e) {
+                        callback.onFailure(new IOException("SingleFlight: response parsing failed", e));
+                        return;
+                    }
+                    callback.onSuccess(result);
+                }
+            };
+            if (completed) {
+                dispatcher.execute(notification);
+            } else {
+                waiters.add(notification);
+            }
+        }
+
+        void complete(ApiResponse response, Exception error) {
+            List<Runnable> notifications;
+            synchronized (this) {
+                this.response = response;
+                this.error = error;
+                completed = true;
+                notifyAll();
+                notifications = waiters;
+                waiters = null;
+            }
+            for (Runnable notification : notifications) {
+                dispatcher.execute(notification);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized <T> T await(ResponseParser<T> parser) throws IOException, ApiException {
+            try {
+                while (!completed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("SingleFlight: interrupted while waiting for a response");
+            }
+            if (error instanceof ApiException) {
+                throw (ApiException) error;
+            } else if (error != null) {
+                throw (IOException) error;
+            }
+            if (results.containsKey(parser)) {
+                return (T) results.get(parser);
+            }
+            T result = unmodifiable(parser.parse(response));
+            results.put(parser, result);
+            return result;
+        }
+    }
+
+    /**
+     * Wraps the collections shared by several callers, so that one of them cannot modify the
+     * result of the others
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T unmodifiable(T result) {
+        if (result instanceof List) {
+            return (T) Collections.unmodifiableList((List<?>) result);
+        } else if (result instanceof Set) {
+            return (T) Collections.unmodifiableSet((Set<?>) result);
+        } else if (result instanceof Map) {
+            return (T) Collections.unmodifiableMap((Map<?, ?>) result);
+        }
+        return result;
+    }
+}
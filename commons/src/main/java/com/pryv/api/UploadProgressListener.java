@@ -0,0 +1,17 @@
+package com.pryv.api;
+
+/**
+ * Receives the progress of an upload, on the thread sending the request
+ */
+public interface UploadProgressListener {
+
+    /**
+     * Called each time a part of the request body was written.
+     *
+     * @param bytesWritten
+     *          the number of bytes of the body written so far
+     * @param contentLength
+     *          the total number of bytes of the body, -1 if unknown
+     */
+    void onProgress(long bytesWritten, long contentLength);
+}
@@ -1,5 +1,6 @@
 package com.pryv.auth;
 
+import com.pryv.api.PryvHttpEngine;
 import com.pryv.model.Permission;
 import com.pryv.utils.Logger;
 
@@ -15,6 +16,7 @@ public class AuthController {
 	private List<Permission> permissions;
 	private AuthView view;
 	private AuthModel model;
+	private PryvHttpEngine engine;
 	// optional
 	private String language = "en";
 	private String returnURL = "";
@@ -37,6 +39,18 @@ public class AuthController {
 	 */
 	public AuthController(String pRequestingAppId, List<Permission> pPermissions, String pLang, String pReturnURL,
 			AuthView pView) {
+		this(pRequestingAppId, pPermissions, pLang, pReturnURL, pView, PryvHttpEngine.getDefault());
+	}
+
+	/**
+	 * Same as above, sending the authentication requests through the provided engine
+	 *
+	 * @param pEngine
+	 *            the engine shared with the application's Connections
+	 */
+	public AuthController(String pRequestingAppId, List<Permission> pPermissions, String pLang, String pReturnURL,
+			AuthView pView, PryvHttpEngine pEngine) {
+		engine = pEngine;
 		requestingAppId = pRequestingAppId;
 		permissions = pPermissions;
 		if (pLang != null) {
@@ -49,7 +63,7 @@ public class AuthController {
 	}
 
 	public void signIn() {
-		model = new AuthModel(this, requestingAppId, permissions, language, returnURL);
+		model = new AuthModel(this, requestingAppId, permissions, language, returnURL, engine);
 		model.startLogin();
 	}
 
@@ -59,12 +73,12 @@ public class AuthController {
 	}
 
 	public void onError(String message) {
-		logger.log("AuthControllerImpl: failure: message=" + message);
+		logger.warn("AuthControllerImpl: failure: message={}", message);
 		view.onAuthError("AuthController: failure: message=" + message);
 	}
 
 	public void onRefused(int reasonId, String message, String detail) {
-		logger.log("AuthControllerImpl: refused: reasonId=" + reasonId + ", message=" + message + ", detail=" + detail);
+		logger.log(Logger.Level.WARN, "AuthControllerImpl: refused: reasonId={}, message={}, detail={}", reasonId, message, detail);
 		view.onAuthRefused(reasonId, message, detail);
 	}
 
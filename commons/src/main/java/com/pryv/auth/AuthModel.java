@@ -4,6 +4,7 @@ package com.pryv.auth;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.pryv.Pryv;
+import com.pryv.api.PryvHttpEngine;
 import com.pryv.model.Permission;
 import com.pryv.utils.JsonConverter;
 import com.pryv.utils.Logger;
@@ -26,17 +27,25 @@ public class AuthModel {
     private AuthenticationRequest authRequest;
     private Boolean first = true;
     private Logger logger = Logger.getInstance();
+    private PryvHttpEngine engine;
     public AuthModel(AuthController pController, String requestingAppId,
                      List<Permission> permissions, String language, String returnURL) {
+        this(pController, requestingAppId, permissions, language, returnURL, PryvHttpEngine.getDefault());
+    }
+
+    public AuthModel(AuthController pController, String requestingAppId,
+                     List<Permission> permissions, String language, String returnURL,
+                     PryvHttpEngine pEngine) {
         this.controller = pController;
+        this.engine = pEngine;
         authRequest = new AuthenticationRequest(requestingAppId, permissions, language, returnURL);
     }
 
     public void startLogin() {
         try {
             String jsonRequest = JsonConverter.toJson(authRequest);
-            logger.log("AuthModelImpl: start login request: " + jsonRequest);
-            OkHttpClient client = new OkHttpClient();
+            logger.debug("AuthModelImpl: start login request: {}", jsonRequest);
+            OkHttpClient client = engine.getClient();
             RequestBody bodyString = RequestBody.create(MediaType.parse("application/json; charset=utf-8"), jsonRequest);
             Request request = new Request.Builder()
                     .url(Pryv.REGISTRATION_URL)
@@ -74,23 +83,23 @@ public class AuthModel {
         public String handleResponse(Response response) throws IOException {
             int statusCode = response.code();
             String reply = response.body().string();
-            logger.log("AuthModelImpl: signInResponseHandler: response status code: " + statusCode);
-            logger.log("sAuthModelImpl: ignInResponseHandler: handling reply entity : " + reply);
+            logger.debug("AuthModelImpl: signInResponseHandler: response status code: {}", statusCode);
+            logger.debug("AuthModelImpl: signInResponseHandler: handling reply entity : {}", reply);
             if (statusCode == HttpURLConnection.HTTP_CREATED || statusCode == HttpURLConnection.HTTP_OK) {
                 JsonNode jsonResponse = JsonConverter.toJsonNode(reply);
                 if (first) {
                     String loginUrl = jsonResponse.get(SERVER_URL_KEY).textValue();
                     controller.displayLoginView(loginUrl);
                     first = false;
-                    logger.log("signInResponseHandler: start view of address : \'" + loginUrl + "\'");
+                    logger.debug("signInResponseHandler: start view of address : '{}'", loginUrl);
                 }
                 String state = jsonResponse.get(STATUS_KEY).textValue();
-                logger.log("signInResponseHandler: state retrieved: " + state);
+                logger.debug("signInResponseHandler: state retrieved: {}", state);
                 if (state.equals(NEED_SIGNIN_VALUE)) {
                     long rate = jsonResponse.get(POLL_RATE_MS_KEY).longValue();
                     String pollURL = jsonResponse.get(POLL_URL_KEY).textValue();
-                    logger.log("signInResponseHandler: polling at address: " + pollURL);
-                    new PollingThread(pollURL, rate, this, controller).start();
+                    logger.debug("signInResponseHandler: polling at address: {}", pollURL);
+                    new PollingThread(pollURL, rate, this, controller, engine).start();
                 } else if (state.equals(ACCEPTED_VALUE)) {
                     String username = jsonResponse.get(USERNAME_KEY).textValue();
                     String token = jsonResponse.get(TOKEN_KEY).textValue();
@@ -1,5 +1,6 @@
 package com.pryv.auth;
 
+import com.pryv.api.PryvHttpEngine;
 import com.pryv.utils.Logger;
 
 import java.io.IOException;
@@ -17,11 +18,18 @@ public class PollingThread extends Thread {
   private long pollRate;
   private AuthModel.SignInResponseHandler responseHandler;
   private Logger logger = Logger.getInstance();
+  private PryvHttpEngine engine;
 
   public PollingThread(String url, long rate, AuthModel.SignInResponseHandler handler,
     AuthController pController) {
+    this(url, rate, handler, pController, PryvHttpEngine.getDefault());
+  }
+
+  public PollingThread(String url, long rate, AuthModel.SignInResponseHandler handler,
+    AuthController pController, PryvHttpEngine pEngine) {
+    engine = pEngine;
     controller = pController;
-    logger.log("PollingThread instanciated");
+    logger.debug("PollingThread instanciated");
     pollURL = url;
     pollRate = rate;
     responseHandler = handler;
@@ -31,10 +39,10 @@ public class PollingThread extends Thread {
   public void run() {
 
     try {
-      logger.log("PollingThread: sending poll request");
+      logger.debug("PollingThread: sending poll request");
       sleep(pollRate);
 
-      OkHttpClient client = new OkHttpClient();
+      OkHttpClient client = engine.getClient();
       Request request = new Request.Builder()
               .url(pollURL)
               .get()
@@ -42,7 +50,7 @@ public class PollingThread extends Thread {
       Response response = client.newCall(request).execute();
       responseHandler.handleResponse(response);
 
-      logger.log("PollingThread: polling request sent");
+      logger.debug("PollingThread: polling request sent");
 
     } catch (IOException e) {
       controller.onError(e.getMessage());
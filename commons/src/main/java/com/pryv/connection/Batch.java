@@ -0,0 +1,288 @@
+package com.pryv.connection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pryv.api.ApiResponse;
+import com.pryv.api.HttpClient;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Access;
+import com.pryv.model.Event;
+import com.pryv.model.Stream;
+import com.pryv.utils.JsonConverter;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues create/update/delete calls on Events, Streams and Accesses and sends them to Pryv API
+ * as batch calls, a single HTTP request per chunk of calls. Attachments are not uploaded
+ * through batch calls.
+ */
+public class Batch {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    private static final String EVENT_KEY = "event";
+    private static final String STREAM_KEY = "stream";
+    private static final String ACCESS_KEY = "access";
+    private static final String EVENT_DELETION_KEY = "eventDeletion";
+    private static final String STREAM_DELETION_KEY = "streamDeletion";
+    private static final String ACCESS_DELETION_KEY = "accessDeletion";
+    private static final String ID_KEY = "id";
+    private static final String UPDATE_KEY = "update";
+    private static final String MERGE_EVENTS_WITH_PARENT_KEY = "mergeEventsWithParent";
+
+    private HttpClient httpClient;
+    private ConnectionEvents events;
+    private ConnectionStreams streams;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private List<BatchCall<?>> pendingCalls;
+
+    public Batch(HttpClient client) {
+        this(client, null, null);
+    }
+
+    /**
+     * Creates a Batch whose successful calls invalidate the cached get results of the provided
+     * Events and Streams and update their known Streams tree, as their own create/update/delete
+     * calls do.
+     *
+     * @param client
+     * @param events
+     *          optional
+     * @param streams
+     *          optional
+     */
+    public Batch(HttpClient client, ConnectionEvents events, ConnectionStreams streams) {
+        this.httpClient = client;
+        this.events = events;
+        this.streams = streams;
+        this.pendingCalls = new ArrayList<>();
+    }
+
+    /**
+     * Sets the maximum number of calls sent in a single HTTP request. Bigger batches are split.
+     *
+     * @param chunkSize
+     */
+    public Batch setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Batch: chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Returns the number of calls waiting to be executed
+     *
+     * @return
+     */
+    public int size() {
+        return pendingCalls.size();
+    }
+
+    public BatchCall<Event> createEvent(Event newEvent) {
+        return queue(new BatchCall<Event>("events.create", newEvent) {
+            @Override
+            Event parseResult(JsonNode result) throws IOException {
+                return JsonConverter.fromJsonNode(result.get(EVENT_KEY), Event.class);
+            }
+
+            @Override
+            void onResult(Event createdEvent) {
+                invalidate(createdEvent);
+            }
+        });
+    }
+
+    public BatchCall<Event> updateEvent(Event updateEvent) {
+        return queue(new BatchCall<Event>("events.update",
+                updateParams(updateEvent.getId(), updateEvent.cloneMutableFields())) {
+            @Override
+            Event parseResult(JsonNode result) throws IOException {
+                return JsonConverter.fromJsonNode(result.get(EVENT_KEY), Event.class);
+            }
+
+            @Override
+            void onResult(Event updatedEvent) {
+                invalidate(updatedEvent);
+            }
+        });
+    }
+
+    public BatchCall<Event> deleteEvent(final Event deleteEvent) {
+        return queue(new BatchCall<Event>("events.delete", deleteParams(deleteEvent.getId())) {
+            @Override
+            Event parseResult(JsonNode result) throws IOException {
+                if (result.has(EVENT_DELETION_KEY)) {
+                    // event was deleted
+                    return deleteEvent.setDeleted(true);
+                } else {
+                    // event was trashed
+                    return JsonConverter.fromJsonNode(result.get(EVENT_KEY), Event.class);
+                }
+            }
+
+            @Override
+            void onResult(Event deletedEvent) {
+                invalidate(deleteEvent);
+            }
+        });
+    }
+
+    public BatchCall<Stream> createStream(Stream newStream) {
+        return queue(new BatchCall<Stream>("streams.create", newStream) {
+            @Override
+            Stream parseResult(JsonNode result) throws IOException {
+                return JsonConverter.fromJsonNode(result.get(STREAM_KEY), Stream.class);
+            }
+
+            @Override
+            void onResult(Stream createdStream) {
+                apply(createdStream);
+            }
+        });
+    }
+
+    public BatchCall<Stream> updateStream(Stream streamToUpdate) {
+        return queue(new BatchCall<Stream>("streams.update",
+                updateParams(streamToUpdate.getId(), streamToUpdate.cloneMutableFields())) {
+            @Override
+            Stream parseResult(JsonNode result) throws IOException {
+                return JsonConverter.fromJsonNode(result.get(STREAM_KEY), Stream.class);
+            }
+
+            @Override
+            void onResult(Stream updatedStream) {
+                apply(updatedStream);
+            }
+        });
+    }
+
+    public BatchCall<Stream> deleteStream(final Stream deleteStream, boolean mergeEventsWithParent) {
+        Map<String, Object> params = deleteParams(deleteStream.getId());
+        params.put(MERGE_EVENTS_WITH_PARENT_KEY, mergeEventsWithParent);
+        return queue(new BatchCall<Stream>("streams.delete", params) {
+            @Override
+            Stream parseResult(JsonNode result) throws IOException {
+                if (result.has(STREAM_DELETION_KEY)) {
+                    // stream was deleted
+                    return deleteStream.setDeleted(true);
+                } else {
+                    // stream was trashed
+                    return JsonConverter.fromJsonNode(result.get(STREAM_KEY), Stream.class);
+                }
+            }
+
+            @Override
+            void onResult(Stream deletedStream) {
+                apply(deletedStream);
+            }
+        });
+    }
+
+    public BatchCall<Access> createAccess(Access newAccess) {
+        return queue(new BatchCall<Access>("accesses.create", newAccess) {
+            @Override
+            Access parseResult(JsonNode result) throws IOException {
+                return JsonConverter.fromJsonNode(result.get(ACCESS_KEY), Access.class);
+            }
+        });
+    }
+
+    public BatchCall<Access> updateAccess(Access updateAccess) {
+        return queue(new BatchCall<Access>("accesses.update",
+                updateParams(updateAccess.getId(), updateAccess.cloneMutableFields())) {
+            @Override
+            Access parseResult(JsonNode result) throws IOException {
+                return JsonConverter.fromJsonNode(result.get(ACCESS_KEY), Access.class);
+            }
+        });
+    }
+
+    public BatchCall<Access> deleteAccess(final Access deleteAccess) {
+        return queue(new BatchCall<Access>("accesses.delete", deleteParams(deleteAccess.getId())) {
+            @Override
+            Access parseResult(JsonNode result) throws IOException {
+                return deleteAccess.setDeleted(true);
+            }
+        });
+    }
+
+    /**
+     * Sends the queued calls, in chunks of at most chunkSize calls, and assigns to each call its
+     * result or error. The queue is emptied so that the Batch can be reused. Each chunk is taken
+     * off the queue when it is sent: if its response is lost, the API may still have run its
+     * calls, which are left without result rather than sent again.
+     *
+     * @return the executed calls, in the order they were queued
+     * @throws IOException
+     *           if a chunk failed, the calls of the following chunks are left queued
+     * @throws ApiException
+     *           if the API rejected a whole chunk (e.g. invalid token)
+     */
+    public List<BatchCall<?>> exec() throws IOException, ApiException {
+        List<BatchCall<?>> executedCalls = new ArrayList<>();
+        while (!pendingCalls.isEmpty()) {
+            List<BatchCall<?>> queuedChunk = pendingCalls.subList(0, Math.min(chunkSize, pendingCalls.size()));
+            final List<BatchCall<?>> chunk = new ArrayList<>(queuedChunk);
+            queuedChunk.clear();
+            // method calls are built one by one while the request body is written
+            List<Map<String, Object>> methodCalls = new AbstractList<Map<String, Object>>() {
+                @Override
+                public Map<String, Object> get(int index) {
+                    return chunk.get(index).toMethodCall();
+                }
+
+                @Override
+                public int size() {
+                    return chunk.size();
+                }
+            };
+            ApiResponse apiResponse = httpClient.batchRequest(methodCalls).exec();
+            List<JsonNode> results = JsonConverter.retrieveBatchResultsFromJson(apiResponse.getJsonNode());
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setResponse(i < results.size() ? results.get(i) : null);
+            }
+            executedCalls.addAll(chunk);
+        }
+        return executedCalls;
+    }
+
+    private void invalidate(Event event) {
+        if (events != null) {
+            events.invalidate(event);
+        }
+    }
+
+    private void apply(Stream stream) {
+        if (streams != null) {
+            streams.apply(stream);
+        }
+    }
+
+    private <T> BatchCall<T> queue(BatchCall<T> call) {
+        pendingCalls.add(call);
+        return call;
+    }
+
+    private static Map<String, Object> deleteParams(String id) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put(ID_KEY, id);
+        return params;
+    }
+
+    private static Map<String, Object> updateParams(String id, Object update) {
+        Map<String, Object> params = deleteParams(id);
+        params.put(UPDATE_KEY, update);
+        return params;
+    }
+}
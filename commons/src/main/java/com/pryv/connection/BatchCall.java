@@ -0,0 +1,111 @@
+package com.pryv.connection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pryv.exceptions.ApiException;
+import com.pryv.utils.JsonConverter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single API method call queued in a {@link Batch}. Holds either its typed result or the
+ * ApiException returned for it once the batch is executed.
+ *
+ * @param <T> the type of resource returned by the call
+ */
+public abstract class BatchCall<T> {
+
+    private static final String METHOD_KEY = "method";
+    private static final String PARAMS_KEY = "params";
+    private static final String ERROR_KEY = "error";
+
+    private String method;
+    private Object params;
+    private boolean executed = false;
+    private T result;
+    private ApiException error;
+
+    BatchCall(String method, Object params) {
+        this.method = method;
+        this.params = params;
+    }
+
+    /**
+     * Converts the result returned by the API for this call
+     *
+     * @param result
+     *          the JSON result of this call
+     * @return
+     * @throws IOException
+     */
+    abstract T parseResult(JsonNode result) throws IOException;
+
+    /**
+     * Called with the result of a successful call, to keep the connection's caches up to date
+     *
+     * @param result
+     */
+    void onResult(T result) {
+    }
+
+    /**
+     * Returns the call in the format expected by the API: {"method": ..., "params": ...}
+     */
+    Map<String, Object> toMethodCall() {
+        Map<String, Object> methodCall = new LinkedHashMap<>();
+        methodCall.put(METHOD_KEY, method);
+        methodCall.put(PARAMS_KEY, params);
+        return methodCall;
+    }
+
+    void setResponse(JsonNode response) throws IOException {
+        executed = true;
+        if (response == null) {
+            error = new ApiException(null, "no result received for batch call " + method, null,
+                    new ArrayList<String>());
+        } else if (response.has(ERROR_KEY)) {
+            error = JsonConverter.retrieveApiError(response);
+        } else {
+            result = parseResult(response);
+            onResult(result);
+        }
+    }
+
+    /**
+     * Returns the result of the call, throws the error returned by the API if the call failed.
+     *
+     * @return
+     * @throws ApiException
+     */
+    public T get() throws ApiException {
+        if (!executed) {
+            throw new IllegalStateException("BatchCall " + method + " has not been executed yet");
+        }
+        if (error != null) {
+            throw error;
+        }
+        return result;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public boolean isExecuted() {
+        return executed;
+    }
+
+    public boolean isSuccessful() {
+        return executed && error == null;
+    }
+
+    public T getResult() {
+        return result;
+    }
+
+    public ApiException getError() {
+        return error;
+    }
+}
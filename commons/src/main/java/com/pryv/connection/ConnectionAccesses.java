@@ -1,7 +1,10 @@
 package com.pryv.connection;
 
+import com.pryv.api.ApiCallback;
+import com.pryv.api.ApiRequest;
 import com.pryv.api.ApiResponse;
 import com.pryv.api.HttpClient;
+import com.pryv.api.ResponseParser;
 import com.pryv.exceptions.ApiException;
 import com.pryv.model.Access;
 import com.pryv.utils.JsonConverter;
@@ -10,7 +13,8 @@ import java.io.IOException;
 import java.util.List;
 
 /**
- * Encapsulate CRUD operations to Pryv API for Accesses
+ * Encapsulate CRUD operations to Pryv API for Accesses. Each operation comes in a blocking form
+ * and in an asynchronous form notifying an {@link ApiCallback}.
  */
 public class ConnectionAccesses {
 
@@ -19,32 +23,82 @@ public class ConnectionAccesses {
     private static final String ACCESSES_KEY = "accesses";
     private HttpClient httpClient;
 
+    private static final ResponseParser<List<Access>> ACCESSES_PARSER = new ResponseParser<List<Access>>() {
+        @Override
+        public List<Access> parse(ApiResponse apiResponse) throws IOException {
+            return JsonConverter.retrieveResourcesFromJson(apiResponse.getJsonNode(), ACCESSES_KEY, Access.class);
+        }
+    };
+
+    private static final ResponseParser<Access> ACCESS_PARSER = new ResponseParser<Access>() {
+        @Override
+        public Access parse(ApiResponse apiResponse) throws IOException {
+            return JsonConverter.retrieveResourceFromJson(apiResponse.getJsonNode(), ACCESS_KEY, Access.class);
+        }
+    };
+
     public ConnectionAccesses(HttpClient client) {
         this.httpClient = client;
     }
 
     public List<Access> get() throws IOException, ApiException {
-        ApiResponse apiResponse = httpClient.getRequest(PATH, null).exec();
-        List<Access> receivedAccesses = JsonConverter.retrieveResourcesFromJson(apiResponse.getJsonBody(), ACCESSES_KEY, Access.class);
-        return receivedAccesses;
+        return httpClient.getRequest(PATH, null).exec(ACCESSES_PARSER);
+    }
+
+    public void get(ApiCallback<List<Access>> callback) {
+        httpClient.getRequest(PATH, null).enqueue(ACCESSES_PARSER, callback);
     }
 
     public Access create(Access newAccess) throws IOException, ApiException {
-        ApiResponse apiResponse = httpClient.createRequest(PATH, newAccess, null).exec();
-        Access createdAccess = JsonConverter.retrieveResourceFromJson(apiResponse.getJsonBody(), ACCESS_KEY, Access.class);
-        return createdAccess;
+        return httpClient.createRequest(PATH, newAccess, null).exec(ACCESS_PARSER);
+    }
+
+    public void create(Access newAccess, ApiCallback<Access> callback) {
+        ApiRequest request;
+        try {
+            request = httpClient.createRequest(PATH, newAccess, null);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+        request.enqueue(ACCESS_PARSER, callback);
     }
 
     public Access delete(Access deleteAccess) throws IOException, ApiException {
-        httpClient.deleteRequest(PATH, deleteAccess.getId(), false).exec();
-        return deleteAccess.setDeleted(true);
+        return httpClient.deleteRequest(PATH, deleteAccess.getId(), false).exec(deletionParser(deleteAccess));
+    }
+
+    public void delete(Access deleteAccess, ApiCallback<Access> callback) {
+        httpClient.deleteRequest(PATH, deleteAccess.getId(), false).enqueue(deletionParser(deleteAccess), callback);
     }
 
     public Access update(Access updateAccess) throws IOException, ApiException {
+        return updateRequest(updateAccess).exec(ACCESS_PARSER);
+    }
+
+    public void update(Access updateAccess, ApiCallback<Access> callback) {
+        ApiRequest request;
+        try {
+            request = updateRequest(updateAccess);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+        request.enqueue(ACCESS_PARSER, callback);
+    }
+
+    private ApiRequest updateRequest(Access updateAccess) throws IOException {
         Access update = updateAccess.cloneMutableFields();
-        ApiResponse apiResponse = httpClient.updateRequest(PATH, updateAccess.getId(), update).exec();
-        Access updatedAccess = JsonConverter.retrieveResourceFromJson(apiResponse.getJsonBody(), ACCESS_KEY, Access.class);
-        return updatedAccess;
+        return httpClient.updateRequest(PATH, updateAccess.getId(), update);
+    }
+
+    private static ResponseParser<Access> deletionParser(final Access deleteAccess) {
+        return new ResponseParser<Access>() {
+            @Override
+            public Access parse(ApiResponse apiResponse) {
+                return deleteAccess.setDeleted(true);
+            }
+        };
     }
 
 }
\ No newline at end of file
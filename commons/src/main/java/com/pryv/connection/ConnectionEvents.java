@@ -1,66 +1,584 @@
 package com.pryv.connection;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pryv.api.ApiCallback;
+import com.pryv.api.ApiRequest;
 import com.pryv.api.ApiResponse;
+import com.pryv.api.BlockingCall;
+import com.pryv.api.EventConsumer;
+import com.pryv.api.EventIterator;
 import com.pryv.api.HttpClient;
+import com.pryv.api.ResponseHandler;
+import com.pryv.api.ResponseParser;
+import com.pryv.api.UploadProgressListener;
+import com.pryv.database.AttachmentCache;
+import com.pryv.database.EventStore;
+import com.pryv.database.SQLiteEventsCache;
 import com.pryv.exceptions.ApiException;
 import com.pryv.model.Attachment;
 import com.pryv.model.Event;
 import com.pryv.model.Filter;
+import com.pryv.model.FilterMatcher;
 import com.pryv.utils.JsonConverter;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
 
 /**
- * Encapsulate CRUD operations to Pryv API for Events
+ * Encapsulate CRUD operations to Pryv API for Events. Each operation comes in a blocking form
+ * and in an asynchronous form notifying an {@link ApiCallback}.
  */
 public class ConnectionEvents {
 
     private static final String PATH = "events";
+    private static final int BUFFER_SIZE = 8192;
+    private static final String PART_SUFFIX = ".part";
     private HttpClient httpClient;
+    private SQLiteEventsCache cache;
+    private AttachmentCache attachmentCache;
+    private QueryCache queryCache;
+    private WindowCoalescer coalescer;
+    private ConnectionStreams streams;
+    private ShardPlanner shardPlanner = new ShardPlanner();
+
+    private static final ResponseParser<List<Event>> EVENTS_PARSER = new ResponseParser<List<Event>>() {
+        @Override
+        public List<Event> parse(ApiResponse apiResponse) throws IOException {
+            return JsonConverter.createEventsFromJson(apiResponse.getJsonNode());
+        }
+    };
+
+    private static final ResponseParser<Event> EVENT_PARSER = new ResponseParser<Event>() {
+        @Override
+        public Event parse(ApiResponse apiResponse) throws IOException {
+            // TODO: handle stopid, startid
+            return JsonConverter.retrieveEventFromJson(apiResponse.getJsonNode());
+        }
+    };
+
+    private final ResponseParser<Event> invalidatingEventParser = new ResponseParser<Event>() {
+        @Override
+        public Event parse(ApiResponse apiResponse) throws IOException {
+            Event receivedEvent = EVENT_PARSER.parse(apiResponse);
+            invalidate(receivedEvent);
+            return receivedEvent;
+        }
+    };
 
     public ConnectionEvents(HttpClient client) {
         this.httpClient = client;
     }
 
+    /**
+     * Sets the Streams whose known hierarchy is used to apply scopes locally, as a scope on a
+     * Stream includes its descendants. See {@link ConnectionStreams#compile(Filter)}.
+     *
+     * @param streams
+     */
+    public void setStreams(ConnectionStreams streams) {
+        this.streams = streams;
+    }
+
+    /**
+     * Sets the optional on-disk cache through which blocking get calls go. Filters covered by
+     * the cached scope are answered locally after fetching only the changes since the last call.
+     *
+     * @param cache
+     *          the cache, null to disable caching
+     */
+    public void setCache(SQLiteEventsCache cache) {
+        this.cache = cache;
+    }
+
+    public SQLiteEventsCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the optional on-disk cache of attachment contents. Cached attachments are read from
+     * disk without any request, the others are cached once downloaded.
+     *
+     * @param attachmentCache
+     *          the cache, null to disable caching
+     */
+    public void setAttachmentCache(AttachmentCache attachmentCache) {
+        this.attachmentCache = attachmentCache;
+    }
+
+    public AttachmentCache getAttachmentCache() {
+        return attachmentCache;
+    }
+
+    /**
+     * Sets the optional in-memory cache of get results, invalidated by the modifications made
+     * through this object. See {@link com.pryv.Connection#setQueryCache(QueryCache)}.
+     *
+     * @param queryCache
+     *          the cache, null to disable caching
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets the window during which blocking get calls on the same Streams, types and tags with
+     * overlapping time ranges are merged into a single call for the union of their ranges, whose
+     * result is split back to each caller. Calls with skip, limit or deletions are not merged.
+     * The first call of a batch is sent once the window has elapsed.
+     *
+     * @param window
+     *          0 to disable batching, which is the default
+     * @param unit
+     */
+    public void setBatchingWindow(long window, TimeUnit unit) {
+        this.coalescer = window > 0 ? new WindowCoalescer(this, window, unit) : null;
+    }
+
     public List<Event> get(Filter filter) throws IOException, ApiException {
-        ApiResponse apiResponse = httpClient.getRequest(PATH, filter).exec();
-        List<Event> receivedEvents = JsonConverter.createEventsFromJson(apiResponse.getJsonBody());
-        return receivedEvents;
+        if (queryCache == null) {
+            return fetchEvents(filter);
+        }
+        List<Event> cachedEvents = queryCache.getEventsResult(filter);
+        if (cachedEvents != null) {
+            return cachedEvents;
+        }
+        long generation = queryCache.getGeneration();
+        List<Event> events = fetchEvents(filter);
+        queryCache.putEventsResult(filter, events, generation);
+        // modifiable, as cached results
+        return new ArrayList<>(events);
+    }
+
+    private List<Event> fetchEvents(Filter filter) throws IOException, ApiException {
+        if (cache != null && SQLiteEventsCache.isCacheable(filter)) {
+            return getThroughCache(filter);
+        }
+        WindowCoalescer currentCoalescer = coalescer;
+        if (currentCoalescer != null && WindowCoalescer.accepts(filter)) {
+            return currentCoalescer.get(filter);
+        }
+        return httpClient.getRequest(PATH, filter).exec(EVENTS_PARSER);
+    }
+
+    /**
+     * Fetches the Events matching the filter as several shorter time ranges, requested at the
+     * same time within the connection's limit of concurrent requests and parsed on its workers.
+     * The results are merged in the filter's sort order, and its skip and limit apply to the
+     * merged Events. Shards are sized on the number of Events previously received for each time
+     * range, so as to hold as many Events each.
+     *
+     * @param filter
+     *          must have a fromTime and a toTime
+     * @param shardsCount
+     *          the number of time ranges to split the filter's range into
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    public List<Event> getParallel(Filter filter, int shardsCount) throws IOException, ApiException {
+        return new ShardedFetch(this, shardPlanner, filter, shardsCount).exec();
+    }
+
+    /**
+     * Creates a session keeping the store in sync with the Events matching the scope, fetching
+     * only the changes at each synchronization.
+     *
+     * @param scope
+     * @param store
+     * @return
+     */
+    public SyncSession sync(Filter scope, EventStore store) {
+        return new SyncSession(this, scope, store);
+    }
+
+    /**
+     * Fetches the raw response to an events.get call
+     */
+    ApiResponse fetch(Filter filter) throws IOException, ApiException {
+        return httpClient.getRequest(PATH, filter).exec();
+    }
+
+    public void get(Filter filter, ApiCallback<List<Event>> callback) {
+        httpClient.getRequest(PATH, filter).enqueue(EVENTS_PARSER, callback);
+    }
+
+    /**
+     * Fetches the Events matching the filter, handing them to the consumer one by one as the
+     * response is read. Memory use does not depend on the number of Events.
+     *
+     * @param filter
+     * @param consumer
+     * @return the serverTime of the response
+     * @throws IOException
+     * @throws ApiException
+     */
+    public double stream(Filter filter, EventConsumer consumer) throws IOException, ApiException {
+        EventIterator iterator = iterator(filter);
+        try {
+            Event event;
+            while ((event = iterator.nextEvent()) != null) {
+                consumer.onEvent(event);
+            }
+            return iterator.getServerTime();
+        } finally {
+            iterator.close();
+        }
+    }
+
+    /**
+     * Fetches the Events matching the filter as an iterator reading the response lazily. The
+     * iterator must be closed if it is not read until the end.
+     *
+     * @param filter
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    public EventIterator iterator(Filter filter) throws IOException, ApiException {
+        return new EventIterator(httpClient.getRequest(PATH, filter).execStream());
+    }
+
+    /**
+     * Iterates over all the Events matching the filter, fetching them page by page. Pages are
+     * delimited by moving the filter's time bound rather than skipping the Events already read,
+     * and each page is fetched while the previous one is read. A filter without fromTime
+     * iterates back to the oldest Event.
+     *
+     * @param filter
+     *          its skip and limit are replaced by the pagination
+     * @param pageSize
+     *          the number of Events fetched per request
+     * @return
+     */
+    public PagedEventIterator iterate(Filter filter, int pageSize) {
+        return new PagedEventIterator(this, filter, pageSize);
     }
 
     public Event create(Event newEvent) throws IOException, ApiException {
-        ApiResponse apiResponse;
+        return create(newEvent, (UploadProgressListener) null);
+    }
 
-        Attachment firstAttachment = newEvent.getFirstAttachment();
-        if(firstAttachment != null) {
-            newEvent.setAttachments(null);
+    /**
+     * Creates the Event, uploading all its attachments in the same request.
+     *
+     * @param newEvent
+     * @param listener
+     *          notified of the number of bytes uploaded
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    public Event create(Event newEvent, UploadProgressListener listener) throws IOException, ApiException {
+        return createRequest(newEvent, listener).exec(invalidatingEventParser);
+    }
+
+    public void create(Event newEvent, ApiCallback<Event> callback) {
+        create(newEvent, null, callback);
+    }
+
+    public void create(Event newEvent, UploadProgressListener listener, ApiCallback<Event> callback) {
+        ApiRequest request;
+        try {
+            request = createRequest(newEvent, listener);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
         }
-        apiResponse = httpClient.createRequest(PATH, newEvent, firstAttachment).exec();
+        request.enqueue(invalidatingEventParser, callback);
+    }
 
-        String json = apiResponse.getJsonBody();
-        Event createdEvent = JsonConverter.retrieveEventFromJson(json);
-        // TODO: handle stopid, startid
-        return createdEvent;
+    /**
+     * Downloads the content of the attachment into the channel, without holding it in memory.
+     *
+     * @param event
+     *          the Event holding the attachment
+     * @param attachment
+     * @param target
+     * @return the number of bytes written
+     * @throws IOException
+     * @throws ApiException
+     */
+    public long downloadAttachment(Event event, Attachment attachment, final WritableByteChannel target)
+            throws IOException, ApiException {
+        if (attachmentCache == null) {
+            return httpClient.downloadRequest(PATH, event.getId(), attachment.getId(), 0)
+                    .exec(new ResponseHandler<Long>() {
+                        @Override
+                        public Long handle(Response response) throws IOException {
+                            return copy(response.body().byteStream(), target);
+                        }
+                    });
+        }
+        String key = AttachmentCache.key(event.getId(), attachment.getId());
+        acquire(key);
+        try {
+            File cached = attachmentCache.get(key);
+            if (cached == null) {
+                File part = attachmentCache.getPartFile(key);
+                download(event, attachment, part);
+                cached = attachmentCache.commit(key);
+                if (cached == null) {
+                    // too big to be cached
+                    try {
+                        return transfer(part, target);
+                    } finally {
+                        part.delete();
+                    }
+                }
+            }
+            return transfer(cached, target);
+        } finally {
+            attachmentCache.release(key);
+        }
     }
 
-    public Event delete(Event deleteEvent) throws IOException, ApiException {
-        ApiResponse apiResponse = httpClient.deleteRequest(PATH, deleteEvent.getId(), false).exec();
-        String json = apiResponse.getJsonBody();
-        if (JsonConverter.hasEventDeletionField(json)) {
-            // event was deleted
-            return deleteEvent.setDeleted(true);
-        } else {
-            // event was trashed
-            return JsonConverter.retrieveEventFromJson(json);
+    /**
+     * Downloads the content of the attachment into the file, replacing its content. The content
+     * is written to a ".part" file next to the target first, which is resumed from its end by the
+     * next call if the download is interrupted.
+     *
+     * @param event
+     *          the Event holding the attachment
+     * @param attachment
+     * @param target
+     * @return the target file
+     * @throws IOException
+     * @throws ApiException
+     */
+    public File downloadAttachment(Event event, Attachment attachment, File target) throws IOException, ApiException {
+        if (attachmentCache == null) {
+            File part = new File(target.getPath() + PART_SUFFIX);
+            download(event, attachment, part);
+            move(part, target);
+            return target;
+        }
+        String key = AttachmentCache.key(event.getId(), attachment.getId());
+        acquire(key);
+        try {
+            File cached = attachmentCache.get(key);
+            if (cached == null) {
+                File part = attachmentCache.getPartFile(key);
+                download(event, attachment, part);
+                cached = attachmentCache.commit(key);
+                if (cached == null) {
+                    // too big to be cached
+                    move(part, target);
+                    return target;
+                }
+            }
+            try (FileChannel out = new FileOutputStream(target).getChannel()) {
+                transfer(cached, out);
+            }
+            return target;
+        } finally {
+            attachmentCache.release(key);
         }
     }
 
+    /**
+     * Downloads the content of the attachment into the file on a background thread. Downloads
+     * count in the connection's limit of concurrent requests, further downloads are queued.
+     *
+     * @param event
+     * @param attachment
+     * @param target
+     * @param callback
+     */
+    public void downloadAttachment(final Event event, final Attachment attachment, final File target,
+                                   ApiCallback<File> callback) {
+        httpClient.getAsyncDispatcher().run(new BlockingCall<File>() {
+            @Override
+            public File call() throws IOException, ApiException {
+                return downloadAttachment(event, attachment, target);
+            }
+        }, callback);
+    }
+
+    public Event delete(Event deleteEvent) throws IOException, ApiException {
+        return httpClient.deleteRequest(PATH, deleteEvent.getId(), false).exec(deletionParser(deleteEvent));
+    }
+
+    public void delete(Event deleteEvent, ApiCallback<Event> callback) {
+        httpClient.deleteRequest(PATH, deleteEvent.getId(), false).enqueue(deletionParser(deleteEvent), callback);
+    }
+
     public Event update(Event updateEvent) throws IOException, ApiException {
+        return updateRequest(updateEvent).exec(invalidatingEventParser);
+    }
+
+    public void update(Event updateEvent, ApiCallback<Event> callback) {
+        ApiRequest request;
+        try {
+            request = updateRequest(updateEvent);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+        request.enqueue(invalidatingEventParser, callback);
+    }
+
+    private List<Event> getThroughCache(Filter filter) throws IOException, ApiException {
+        try {
+            synchronized (cache) {
+                if (cache.covers(filter)) {
+                    ApiResponse apiResponse = fetch(cache.createDeltaFilter());
+                    JsonNode json = apiResponse.getJsonNode();
+                    List<Event> changedEvents = JsonConverter.createEventsFromJson(json);
+                    Map<String, Double> deletedEvents = JsonConverter.createEventDeletionsFromJson(json);
+                    cache.applyChanges(changedEvents, deletedEvents.keySet(), apiResponse.getServerTime(),
+                            compile(cache.getScope()));
+                } else {
+                    ApiResponse apiResponse = fetch(SQLiteEventsCache.createScopeFilter(filter));
+                    List<Event> scopeEvents = JsonConverter.createEventsFromJson(apiResponse.getJsonNode());
+                    cache.replaceScope(filter, scopeEvents, apiResponse.getServerTime());
+                }
+                return cache.query(filter, compile(filter));
+            }
+        } catch (SQLException e) {
+            throw new IOException("ConnectionEvents: events cache failure", e);
+        }
+    }
+
+    /**
+     * Downloads the attachment into a part file written by this class only, resuming from the
+     * file's end if it holds the beginning of the content. The whole content is written again if
+     * the server ignores the range. A complete file whose length differs from the attachment's
+     * size is deleted.
+     */
+    private void download(Event event, Attachment attachment, final File part) throws IOException, ApiException {
+        long length = part.isFile() ? part.length() : 0;
+        long size = attachment.getSize();
+        if (size <= 0 || length != size) {
+            final long offset = size > 0 && length < size ? length : 0;
+            httpClient.downloadRequest(PATH, event.getId(), attachment.getId(), offset)
+                    .exec(new ResponseHandler<Long>() {
+                        @Override
+                        public Long handle(Response response) throws IOException {
+                            boolean append = offset > 0 && response.code() == 206;
+                            try (FileChannel out = new FileOutputStream(part, append).getChannel()) {
+                                return copy(response.body().byteStream(), out);
+                            }
+                        }
+                    });
+        }
+        if (size > 0 && part.length() != size) {
+            long received = part.length();
+            part.delete();
+            throw new IOException("ConnectionEvents: received " + received + " bytes of attachment "
+                    + attachment.getId() + ", expected " + size);
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        if (!source.renameTo(target)) {
+            target.delete();
+            if (!source.renameTo(target)) {
+                throw new IOException("ConnectionEvents: cannot move " + source + " to " + target);
+            }
+        }
+    }
+
+    private void acquire(String key) throws InterruptedIOException {
+        try {
+            attachmentCache.acquire(key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ConnectionEvents: interrupted while waiting for a download");
+        }
+    }
+
+    private static long copy(InputStream in, WritableByteChannel out) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long count = 0;
+        int read;
+        while ((read = in.read(bytes)) != -1) {
+            buffer.limit(read).position(0);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    private static long transfer(File file, WritableByteChannel out) throws IOException {
+        try (FileChannel in = new FileInputStream(file).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            return size;
+        }
+    }
+
+    private ApiRequest createRequest(Event newEvent, UploadProgressListener listener) throws IOException {
+        List<Attachment> attachments = null;
+        if (newEvent.getAttachments() != null) {
+            // the attachments are uploaded as files, the API creates their metadata
+            attachments = new ArrayList<>(newEvent.getAttachments());
+            newEvent.setAttachments(null);
+        }
+        return httpClient.createRequest(PATH, newEvent, attachments, listener);
+    }
+
+    private ApiRequest updateRequest(Event updateEvent) throws IOException {
         Event update = updateEvent.cloneMutableFields();
-        ApiResponse apiResponse = httpClient.updateRequest(PATH, updateEvent.getId(), update).exec();
-        Event updatedEvent = JsonConverter.retrieveEventFromJson(apiResponse.getJsonBody());
-        return updatedEvent;
+        return httpClient.updateRequest(PATH, updateEvent.getId(), update);
+    }
+
+    /**
+     * Compiles the filter, including the known descendants of its Streams
+     */
+    FilterMatcher compile(Filter filter) {
+        ConnectionStreams knownStreams = streams;
+        return knownStreams != null ? knownStreams.compile(filter) : filter.compile();
+    }
+
+    /**
+     * Invalidates the cached results that may include the modified Event
+     */
+    void invalidate(Event event) {
+        QueryCache currentCache = queryCache;
+        if (currentCache != null) {
+            currentCache.invalidateEvents(event.getStreamId(), event.getId());
+        }
+    }
+
+    private ResponseParser<Event> deletionParser(final Event deleteEvent) {
+        return new ResponseParser<Event>() {
+            @Override
+            public Event parse(ApiResponse apiResponse) throws IOException {
+                invalidate(deleteEvent);
+                JsonNode json = apiResponse.getJsonNode();
+                if (JsonConverter.hasEventDeletionField(json)) {
+                    // event was deleted
+                    return deleteEvent.setDeleted(true);
+                } else {
+                    // event was trashed
+                    return JsonConverter.retrieveEventFromJson(json);
+                }
+            }
+        };
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,486 @@
+package com.pryv.connection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pryv.utils.JsonConverter;
+import com.pryv.utils.Logger;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.ws.WebSocket;
+import okhttp3.ws.WebSocketCall;
+import okhttp3.ws.WebSocketListener;
+import okio.Buffer;
+
+/**
+ * Realtime change notifications of a Pryv account, received over one persistent websocket
+ * speaking the socket.io protocol. Signals of the same kind received within the debounce delay
+ * are coalesced into a single call, made on a dedicated thread. The socket reconnects with an
+ * exponential backoff and, as changes may have been missed while disconnected, every kind is
+ * signaled after a reconnection.
+ */
+public class ConnectionNotifications {
+
+    public static final String EVENTS_CHANGED = "eventsChanged";
+    public static final String STREAMS_CHANGED = "streamsChanged";
+    public static final String ACCESSES_CHANGED = "accessesChanged";
+
+    public static final long DEFAULT_DEBOUNCE_DELAY = 100;
+    public static final long DEFAULT_INITIAL_RECONNECT_DELAY = 1000;
+    public static final long DEFAULT_MAX_RECONNECT_DELAY = 60000;
+    private static final long DEFAULT_PING_INTERVAL = 25000;
+    private static final long DEFAULT_PING_TIMEOUT = 60000;
+
+    private final String url;
+    private final String namespace;
+    private final OkHttpClient client;
+    private final List<NotificationsListener> listeners = new CopyOnWriteArrayList<>();
+    private Logger logger = Logger.getInstance();
+
+    private long debounceDelay = DEFAULT_DEBOUNCE_DELAY;
+    private long initialReconnectDelay = DEFAULT_INITIAL_RECONNECT_DELAY;
+    private long maxReconnectDelay = DEFAULT_MAX_RECONNECT_DELAY;
+
+    // state below is guarded by this
+    private ScheduledThreadPoolExecutor scheduler;
+    // calls the listeners, so that a slow one does not delay the pings
+    private ExecutorService listenersExecutor;
+    private WebSocketCall call;
+    private WebSocket webSocket;
+    // incremented at each connection attempt, callbacks of older sockets are ignored
+    private int generation;
+    private boolean connected;
+    private boolean connectedOnce;
+    private long reconnectDelay;
+    private long pingTimeout;
+    private long lastPacketTime;
+    private ScheduledFuture<?> pingTask;
+    private boolean eventsChanged;
+    private boolean streamsChanged;
+    private boolean accessesChanged;
+    private boolean flushScheduled;
+
+    /**
+     * @param url
+     *          the socket.io websocket URL, including the authorization parameter
+     * @param namespace
+     *          the socket.io namespace of the account, "/{username}" for Pryv
+     * @param client
+     *          the client whose dispatcher and settings are used
+     */
+    public ConnectionNotifications(String url, String namespace, OkHttpClient client) {
+        this.url = url;
+        this.namespace = namespace;
+        // the socket stays silent between notifications, reads must not time out, and its
+        // upgraded connection must never be handed back to the pool shared with API requests
+        this.client = client.newBuilder()
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS))
+                .build();
+    }
+
+    public void addListener(NotificationsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(NotificationsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the delay during which signals of the same kind are coalesced before the listeners
+     * are called, 0 only coalesces the signals received at once.
+     *
+     * @param debounceDelay
+     *          in milliseconds
+     */
+    public synchronized void setDebounceDelay(long debounceDelay) {
+        this.debounceDelay = debounceDelay;
+    }
+
+    /**
+     * Sets the delays between reconnection attempts, doubled after each failed attempt.
+     *
+     * @param initialReconnectDelay
+     *          in milliseconds
+     * @param maxReconnectDelay
+     *          in milliseconds
+     */
+    public synchronized void setReconnectDelays(long initialReconnectDelay, long maxReconnectDelay) {
+        this.initialReconnectDelay = initialReconnectDelay;
+        this.maxReconnectDelay = maxReconnectDelay;
+    }
+
+    /**
+     * Opens the websocket, does nothing if already started.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pryv-notifications");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        listenersExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pryv-notifications-listeners");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reconnectDelay = initialReconnectDelay;
+        connectedOnce = false;
+        connect();
+    }
+
+    /**
+     * Closes the websocket and stops reconnecting. Pending signals are dropped.
+     */
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        disconnect();
+        eventsChanged = streamsChanged = accessesChanged = flushScheduled = false;
+        scheduler.shutdown();
+        scheduler = null;
+        listenersExecutor.shutdown();
+        listenersExecutor = null;
+    }
+
+    /**
+     * Returns whether the socket is currently connected to the namespace of the account
+     *
+     * @return
+     */
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    private void connect() {
+        int attempt = ++generation;
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
+        call = WebSocketCall.create(client, request);
+        call.enqueue(new SocketListener(attempt));
+    }
+
+    private void disconnect() {
+        generation++;
+        connected = false;
+        if (pingTask != null) {
+            pingTask.cancel(false);
+            pingTask = null;
+        }
+        if (call != null) {
+            call.cancel();
+            call = null;
+        }
+        if (webSocket != null) {
+            final WebSocket closedSocket = webSocket;
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        closedSocket.close(1000, "closed by client");
+                    } catch (IOException | IllegalStateException e) {
+                        // already closed
+                    }
+                }
+            });
+            webSocket = null;
+        }
+    }
+
+    private synchronized void onDisconnected(int attempt, String reason) {
+        if (attempt != generation || scheduler == null) {
+            return;
+        }
+        disconnect();
+        logger.info("ConnectionNotifications: disconnected ({}), reconnecting in {}ms", reason, reconnectDelay);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionNotifications.this) {
+                    if (scheduler != null) {
+                        connect();
+                    }
+                }
+            }
+        }, reconnectDelay, TimeUnit.MILLISECONDS);
+        reconnectDelay = Math.min(reconnectDelay * 2, maxReconnectDelay);
+    }
+
+    private synchronized void onOpen(int attempt, WebSocket socket) {
+        if (attempt != generation) {
+            try {
+                socket.close(1000, "closed by client");
+            } catch (IOException | IllegalStateException e) {
+                // already closed
+            }
+            return;
+        }
+        webSocket = socket;
+        lastPacketTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Handles an Engine.IO packet: its type followed by its data
+     */
+    private synchronized void onPacket(int attempt, String packet) {
+        if (attempt != generation || packet.isEmpty()) {
+            return;
+        }
+        lastPacketTime = System.currentTimeMillis();
+        String data = packet.substring(1);
+        switch (packet.charAt(0)) {
+            case '0':
+                onHandshake(attempt, data);
+                break;
+            case '1':
+                onDisconnected(attempt, "closed by server");
+                break;
+            case '2':
+                send(attempt, "3" + data);
+                break;
+            case '4':
+                onMessage(attempt, data);
+                break;
+            default:
+                // pong or noop
+        }
+    }
+
+    private void onHandshake(int attempt, String data) {
+        long pingInterval = DEFAULT_PING_INTERVAL;
+        pingTimeout = DEFAULT_PING_TIMEOUT;
+        try {
+            JsonNode handshake = JsonConverter.toJsonNode(data);
+            pingInterval = handshake.path("pingInterval").asLong(DEFAULT_PING_INTERVAL);
+            pingTimeout = handshake.path("pingTimeout").asLong(DEFAULT_PING_TIMEOUT);
+        } catch (IOException e) {
+            logger.warn("ConnectionNotifications: invalid handshake {}", data);
+        }
+        if (!"/".equals(namespace)) {
+            send(attempt, "40" + namespace);
+        }
+        schedulePings(attempt, pingInterval);
+    }
+
+    private void schedulePings(final int attempt, final long pingInterval) {
+        pingTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionNotifications.this) {
+                    if (System.currentTimeMillis() - lastPacketTime > pingInterval + pingTimeout) {
+                        onDisconnected(attempt, "ping timeout");
+                    } else {
+                        send(attempt, "2");
+                    }
+                }
+            }
+        }, pingInterval, pingInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handles a socket.io packet: its type, optional namespace, optional ack id and data
+     */
+    private void onMessage(int attempt, String message) {
+        if (message.isEmpty()) {
+            return;
+        }
+        char type = message.charAt(0);
+        String rest = message.substring(1);
+        String packetNamespace = "/";
+        if (rest.startsWith("/")) {
+            int separator = rest.indexOf(',');
+            packetNamespace = separator < 0 ? rest : rest.substring(0, separator);
+            rest = separator < 0 ? "" : rest.substring(separator + 1);
+        }
+        if (!namespace.equals(packetNamespace)) {
+            return;
+        }
+        switch (type) {
+            case '0':
+                onNamespaceConnected();
+                break;
+            case '1':
+                onDisconnected(attempt, "namespace disconnected");
+                break;
+            case '2':
+                int dataStart = 0;
+                while (dataStart < rest.length() && Character.isDigit(rest.charAt(dataStart))) {
+                    dataStart++;
+                }
+                onEvent(rest.substring(dataStart));
+                break;
+            case '4':
+                onDisconnected(attempt, "error " + rest);
+                break;
+            default:
+                // acks are not used
+        }
+    }
+
+    private void onNamespaceConnected() {
+        connected = true;
+        reconnectDelay = initialReconnectDelay;
+        if (connectedOnce) {
+            signal(EVENTS_CHANGED);
+            signal(STREAMS_CHANGED);
+            signal(ACCESSES_CHANGED);
+        }
+        connectedOnce = true;
+    }
+
+    private void onEvent(String data) {
+        try {
+            JsonNode event = JsonConverter.toJsonNode(data);
+            signal(event.path(0).asText());
+        } catch (IOException e) {
+            logger.warn("ConnectionNotifications: invalid event {}", data);
+        }
+    }
+
+    private void signal(String name) {
+        if (EVENTS_CHANGED.equals(name)) {
+            eventsChanged = true;
+        } else if (STREAMS_CHANGED.equals(name)) {
+            streamsChanged = true;
+        } else if (ACCESSES_CHANGED.equals(name)) {
+            accessesChanged = true;
+        } else {
+            return;
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, debounceDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        final boolean events, streams, accesses;
+        ExecutorService executor;
+        synchronized (this) {
+            events = eventsChanged;
+            streams = streamsChanged;
+            accesses = accessesChanged;
+            eventsChanged = streamsChanged = accessesChanged = flushScheduled = false;
+            executor = listenersExecutor;
+        }
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callListeners(events, streams, accesses);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // stopped meanwhile, pending signals are dropped
+        }
+    }
+
+    private void callListeners(boolean events, boolean streams, boolean accesses) {
+        for (NotificationsListener listener : listeners) {
+            try {
+                if (events) {
+                    listener.onEventsChanged();
+                }
+                if (streams) {
+                    listener.onStreamsChanged();
+                }
+                if (accesses) {
+                    listener.onAccessesChanged();
+                }
+            } catch (RuntimeException e) {
+                logger.error("ConnectionNotifications: listener failure", e);
+            }
+        }
+    }
+
+    private void send(final int attempt, final String packet) {
+        final WebSocket socket = webSocket;
+        if (socket == null) {
+            return;
+        }
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    socket.sendMessage(RequestBody.create(WebSocket.TEXT, packet));
+                } catch (IOException | IllegalStateException e) {
+                    onDisconnected(attempt, e.getMessage());
+                }
+            }
+        });
+    }
+
+    private class SocketListener implements WebSocketListener {
+
+        private final int attempt;
+
+        SocketListener(int attempt) {
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void onOpen(WebSocket socket, Response response) {
+            ConnectionNotifications.this.onOpen(attempt, socket);
+        }
+
+        @Override
+        public void onMessage(ResponseBody message) throws IOException {
+            String packet;
+            try {
+                packet = message.string();
+            } finally {
+                message.close();
+            }
+            onPacket(attempt, packet);
+        }
+
+        @Override
+        public void onFailure(IOException e, Response response) {
+            onDisconnected(attempt, e.getMessage());
+        }
+
+        @Override
+        public void onPong(Buffer payload) {
+        }
+
+        @Override
+        public void onClose(int code, String reason) {
+            onDisconnected(attempt, reason);
+        }
+    }
+}
@@ -1,102 +1,554 @@
 package com.pryv.connection;
 
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pryv.api.ApiCallback;
+import com.pryv.api.ApiRequest;
 import com.pryv.api.ApiResponse;
 import com.pryv.api.HttpClient;
+import com.pryv.api.ResponseParser;
 import com.pryv.exceptions.ApiException;
 import com.pryv.model.Filter;
+import com.pryv.model.FilterMatcher;
 import com.pryv.model.Stream;
 import com.pryv.utils.JsonConverter;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Encapsulate CRUD operations to Pryv API for Streams
+ * Encapsulate CRUD operations to Pryv API for Streams. Each operation comes in a blocking form
+ * and in an asynchronous form notifying an {@link ApiCallback}.
  */
 public class ConnectionStreams {
 
     private HttpClient httpClient;
     private static final String PATH = "streams";
+    private static final int MAX_STREAMS_PARSERS = 16;
 
     private Map<String, Stream> rootStreams;
+    // id -> Stream and parentId -> children ids indexes of the known Streams, guarded by this
     private Map<String, Stream> flatStreams;
+    private Map<String, Set<String>> childrenIds;
+    private QueryCache queryCache;
+    // incremented by each change to the known Streams, guarded by this
+    private long version = 0;
+    private StreamsSnapshot snapshot;
+    // the Filter of the last get of the whole structure, null until then
+    private Filter treeFilter;
+    // one parser per Filter, so that coalesced get calls parse and index the response once
+    private Map<Filter, ResponseParser<Map<String, Stream>>> streamsParsers =
+            new LinkedHashMap<Filter, ResponseParser<Map<String, Stream>>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Filter, ResponseParser<Map<String, Stream>>> eldest) {
+                    return size() > MAX_STREAMS_PARSERS;
+                }
+            };
+
+    private static final ResponseParser<Stream> STREAM_PARSER = new ResponseParser<Stream>() {
+        @Override
+        public Stream parse(ApiResponse apiResponse) throws IOException {
+            return JsonConverter.retrieveStreamFromJson(apiResponse.getJsonNode());
+        }
+    };
+
+    private final ResponseParser<Stream> indexingStreamParser = new ResponseParser<Stream>() {
+        @Override
+        public Stream parse(ApiResponse apiResponse) throws IOException {
+            Stream receivedStream = STREAM_PARSER.parse(apiResponse);
+            apply(receivedStream);
+            return receivedStream;
+        }
+    };
 
     public ConnectionStreams(HttpClient client) {
         this.httpClient = client;
         this.rootStreams = new ConcurrentHashMap<>();
-        // TODO: Init streams structure with an initial get call + use of recomputeRootStreamsTree
         this.flatStreams = new ConcurrentHashMap<>();
+        this.childrenIds = new HashMap<>();
+    }
+
+    /**
+     * Sets the optional in-memory cache of get results, invalidated by the modifications made
+     * through this object. See {@link com.pryv.Connection#setQueryCache(QueryCache)}.
+     *
+     * @param queryCache
+     *          the cache, null to disable caching
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
     }
 
     public Map<String, Stream> get(Filter filter) throws IOException, ApiException {
-        ApiResponse apiResponse = httpClient.getRequest(PATH, filter).exec();
-        String json = apiResponse.getJsonBody();
-        Map<String, Stream> receivedStreams =
-                JsonConverter.createStreamsTreeFromJson(json);
-        rootStreams = receivedStreams;
-        return receivedStreams;
+        if (queryCache == null) {
+            return httpClient.getRequest(PATH, filter).exec(streamsParser(filter));
+        }
+        Map<String, Stream> cachedStreams = queryCache.getStreamsResult(filter);
+        if (cachedStreams != null) {
+            return cachedStreams;
+        }
+        long generation = queryCache.getGeneration();
+        Map<String, Stream> receivedStreams = httpClient.getRequest(PATH, filter).exec(streamsParser(filter));
+        queryCache.putStreamsResult(filter, receivedStreams, generation);
+        // modifiable, as cached results
+        return new HashMap<>(receivedStreams);
+    }
+
+    public void get(Filter filter, ApiCallback<Map<String, Stream>> callback) {
+        httpClient.getRequest(PATH, filter).enqueue(streamsParser(filter), callback);
     }
 
     public Stream create(Stream newStream) throws IOException, ApiException {
-        ApiResponse apiResponse = httpClient.createRequest(PATH, newStream, null).exec();
-        Stream createdStream = JsonConverter.retrieveStreamFromJson(apiResponse.getJsonBody());
-        return createdStream;
+        return httpClient.createRequest(PATH, newStream, null).exec(indexingStreamParser);
     }
 
-    public Stream delete(Stream deleteStream, boolean mergeEventsWithParent) throws IOException, ApiException {
-        ApiResponse apiResponse = httpClient.deleteRequest(PATH, deleteStream.getId(), mergeEventsWithParent).exec();
-        String json = apiResponse.getJsonBody();
-        if (JsonConverter.hasStreamDeletionField(json)) {
-            // stream was deleted
-            return deleteStream.setDeleted(true);
-        } else {
-            // stream was trashed
-            return JsonConverter.retrieveStreamFromJson(json);
+    public void create(Stream newStream, ApiCallback<Stream> callback) {
+        ApiRequest request;
+        try {
+            request = httpClient.createRequest(PATH, newStream, null);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
         }
+        request.enqueue(indexingStreamParser, callback);
+    }
+
+    /**
+     * Trashes the Stream, or deletes it if it is already trashed. A deleted Stream is removed from
+     * the known Streams along with its descendants, and the cached Events results including it
+     * are invalidated, including those of its parent when its Events are merged into it.
+     *
+     * @param deleteStream
+     * @param mergeEventsWithParent
+     *          moves the Events of the deleted Streams to the parent instead of deleting them
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    public Stream delete(Stream deleteStream, boolean mergeEventsWithParent) throws IOException, ApiException {
+        return httpClient.deleteRequest(PATH, deleteStream.getId(), mergeEventsWithParent)
+                .exec(deletionParser(deleteStream));
+    }
+
+    public void delete(Stream deleteStream, boolean mergeEventsWithParent, ApiCallback<Stream> callback) {
+        httpClient.deleteRequest(PATH, deleteStream.getId(), mergeEventsWithParent)
+                .enqueue(deletionParser(deleteStream), callback);
     }
 
     public Stream update(Stream streamToUpdate) throws IOException, ApiException {
+        return updateRequest(streamToUpdate).exec(indexingStreamParser);
+    }
+
+    public void update(Stream streamToUpdate, ApiCallback<Stream> callback) {
+        ApiRequest request;
+        try {
+            request = updateRequest(streamToUpdate);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+        request.enqueue(indexingStreamParser, callback);
+    }
+
+    private ApiRequest updateRequest(Stream streamToUpdate) throws IOException {
         Stream update = streamToUpdate.cloneMutableFields();
-        ApiResponse apiResponse = httpClient.updateRequest(PATH, streamToUpdate.getId(), update).exec();
-        Stream updatedStream = JsonConverter.retrieveStreamFromJson(apiResponse.getJsonBody());
-        return updatedStream;
+        return httpClient.updateRequest(PATH, streamToUpdate.getId(), update);
+    }
+
+    /**
+     * Returns the parser of the get calls with the filter, the same instance for equal filters
+     */
+    private ResponseParser<Map<String, Stream>> streamsParser(Filter filter) {
+        final Filter key = filter == null ? new Filter() : filter.copy();
+        synchronized (streamsParsers) {
+            ResponseParser<Map<String, Stream>> parser = streamsParsers.get(key);
+            if (parser == null) {
+                parser = new ResponseParser<Map<String, Stream>>() {
+                    @Override
+                    public Map<String, Stream> parse(ApiResponse apiResponse) throws IOException {
+                        Map<String, Stream> receivedStreams =
+                                JsonConverter.createStreamsTreeFromJson(apiResponse.getJsonNode());
+                        indexTree(key, receivedStreams.values());
+                        return receivedStreams;
+                    }
+                };
+                streamsParsers.put(key, parser);
+            }
+            return parser;
+        }
     }
 
+    private ResponseParser<Stream> deletionParser(final Stream deleteStream) {
+        return new ResponseParser<Stream>() {
+            @Override
+            public Stream parse(ApiResponse apiResponse) throws IOException {
+                JsonNode json = apiResponse.getJsonNode();
+                Stream receivedStream;
+                if (JsonConverter.hasStreamDeletionField(json)) {
+                    // stream was deleted
+                    receivedStream = deleteStream.setDeleted(true);
+                } else {
+                    // stream was trashed
+                    receivedStream = JsonConverter.retrieveStreamFromJson(json);
+                }
+                apply(receivedStream);
+                return receivedStream;
+            }
+        };
+    }
+
+    /**
+     * Applies a created, updated, trashed or deleted Stream returned by the API to the known tree
+     * and to the cached results. The scopes of both its previous and its new place in the tree
+     * are invalidated.
+     *
+     * @param stream
+     */
+    void apply(Stream stream) {
+        invalidate(stream.getId());
+        if (stream.isDeleted()) {
+            QueryCache currentCache = queryCache;
+            if (currentCache != null) {
+                // results of Filters naming a descendant are found while it is still known
+                for (String descendantId : getDescendantIds(stream.getId())) {
+                    currentCache.invalidateEvents(descendantId, null);
+                }
+            }
+            unindexStream(stream.getId());
+        } else {
+            indexStream(stream);
+        }
+        invalidate(stream.getId());
+        refreshCachedTree();
+    }
+
+    /**
+     * Invalidates the cached Streams results and the Events results including the Stream
+     */
+    private void invalidate(String streamId) {
+        QueryCache currentCache = queryCache;
+        if (currentCache != null) {
+            currentCache.invalidateStreams(streamId);
+        }
+    }
+
+    /**
+     * Stores the known Streams as the cached result of the last get of the whole structure, so
+     * that it is not fetched again after a modification. Called after the second invalidation of
+     * a modification: a concurrent modification either is included in the snapshot or changes the
+     * cache's generation before the result is stored.
+     */
+    private void refreshCachedTree() {
+        QueryCache currentCache = queryCache;
+        if (currentCache == null) {
+            return;
+        }
+        long generation = currentCache.getGeneration();
+        Filter loadedFilter;
+        StreamsSnapshot currentSnapshot;
+        synchronized (this) {
+            loadedFilter = treeFilter;
+            currentSnapshot = getSnapshot();
+        }
+        if (loadedFilter == null) {
+            return;
+        }
+        Filter.State state = loadedFilter.getState();
+        if (state == Filter.State.TRASHED || state != Filter.State.ALL && currentSnapshot.hasTrashedStreams()) {
+            // the API would not return the same Streams, the next get fetches them
+            return;
+        }
+        currentCache.putStreamsResult(loadedFilter, currentSnapshot.getRootStreams(), generation);
+    }
+
+    /**
+     * Returns the known root Streams. The map and the Streams are modified in place by the
+     * changes applied to the tree, see {@link #getSnapshot()} for a consistent view.
+     *
+     * @return
+     */
     public Map<String, Stream> getRootStreams() {
         return rootStreams;
     }
 
     /**
-     * fixes Streams' children properties based on parentIds
+     * Returns a copy of the known Streams tree at its current version. The copy is made once per
+     * version and shared by the readers of that version.
+     *
+     * @return
      */
-    private void recomputeRootStreamsTree() {
-        rootStreams.clear();
+    public synchronized StreamsSnapshot getSnapshot() {
+        if (snapshot == null || snapshot.getVersion() != version) {
+            snapshot = new StreamsSnapshot(version, rootStreams.values());
+        }
+        return snapshot;
+    }
 
-        String parentId = null;
-        // set root streams
-        for (Stream potentialRootStream : flatStreams.values()) {
-            // clear children fields
-            potentialRootStream.clearChildren();
-            parentId = potentialRootStream.getParentId();
-            if (parentId == null) {
-                rootStreams.put(potentialRootStream.getId(), potentialRootStream);
+    /**
+     * Returns the version of the known Streams tree, incremented by each get and each
+     * modification applied to it
+     *
+     * @return
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the known Stream with the given id, in constant time
+     *
+     * @param streamId
+     * @return the Stream, null if it is unknown
+     */
+    public Stream getStreamById(String streamId) {
+        return flatStreams.get(streamId);
+    }
+
+    /**
+     * Returns the known ancestors of a Stream, from its parent up to its root Stream
+     *
+     * @param streamId
+     * @return
+     */
+    public synchronized List<Stream> getAncestors(String streamId) {
+        List<Stream> ancestors = new ArrayList<>();
+        Stream stream = flatStreams.get(streamId);
+        while (stream != null && stream.getParentId() != null) {
+            stream = flatStreams.get(stream.getParentId());
+            if (stream != null) {
+                ancestors.add(stream);
             }
         }
+        return ancestors;
+    }
 
-        // assign children
-        for (Stream childStream : flatStreams.values()) {
-            parentId = childStream.getParentId();
-            if (parentId != null) {
-                if (flatStreams.containsKey(parentId)) {
-                    Stream parent = flatStreams.get(parentId);
-                    if (parent != null) {
-                        parent.addChildStream(childStream);
-                    }
+    /**
+     * Returns the known descendants of a Stream, breadth first
+     *
+     * @param streamId
+     * @return
+     */
+    public synchronized List<Stream> getDescendants(String streamId) {
+        List<Stream> descendants = new ArrayList<>();
+        Deque<String> pendingIds = new ArrayDeque<>();
+        pendingIds.add(streamId);
+        while (!pendingIds.isEmpty()) {
+            Set<String> children = childrenIds.get(pendingIds.poll());
+            if (children != null) {
+                for (String childId : children) {
+                    descendants.add(flatStreams.get(childId));
+                    pendingIds.add(childId);
+                }
+            }
+        }
+        return descendants;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the Stream is one of the Streams of the filter or one of their
+     * descendants. Known Streams are checked by walking up their ancestors, in time proportional
+     * to their depth instead of to the size of the Streams tree.
+     *
+     * @param filter
+     * @param streamId
+     * @return
+     */
+    public boolean hasInScope(Filter filter, String streamId) {
+        if (filter.getStreams() == null) {
+            return true;
+        }
+        if (!flatStreams.containsKey(streamId)) {
+            return filter.hasInScope(streamId);
+        }
+        Set<String> scopeIds = new HashSet<>();
+        for (Stream scopeStream : filter.getStreams()) {
+            scopeIds.add(scopeStream.getId());
+        }
+        synchronized (this) {
+            Stream stream = flatStreams.get(streamId);
+            while (stream != null) {
+                if (scopeIds.contains(stream.getId())) {
+                    return true;
+                }
+                stream = stream.getParentId() == null ? null : flatStreams.get(stream.getParentId());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the filter into a matcher whose scope includes all the known descendants of its
+     * Streams, even when the filter only holds their ids.
+     *
+     * @param filter
+     * @return
+     */
+    public synchronized FilterMatcher compile(Filter filter) {
+        if (filter.getStreams() == null) {
+            return filter.compile();
+        }
+        Set<Stream> knownStreams = new HashSet<>();
+        for (Stream stream : filter.getStreams()) {
+            Stream knownStream = flatStreams.get(stream.getId());
+            knownStreams.add(knownStream != null ? knownStream : stream);
+        }
+        return filter.copy().setStreamIds(knownStreams).compile();
+    }
+
+    /**
+     * Indexes a received Streams tree. Without parentId in the filter it is the whole structure
+     * and replaces the known Streams, otherwise it replaces the known children of parentId.
+     */
+    private synchronized void indexTree(Filter filter, Collection<Stream> streams) {
+        version++;
+        String parentId = filter == null ? null : filter.getParentId();
+        if (parentId == null) {
+            treeFilter = filter == null ? new Filter() : filter.copy();
+            flatStreams.clear();
+            childrenIds.clear();
+            rootStreams.clear();
+            for (Stream rootStream : streams) {
+                rootStreams.put(rootStream.getId(), rootStream);
+            }
+        } else {
+            Set<String> previousChildren = childrenIds.get(parentId);
+            if (previousChildren != null) {
+                for (String childId : new ArrayList<>(previousChildren)) {
+                    unindexStream(childId);
                 }
             }
+            Stream parent = flatStreams.get(parentId);
+            if (parent != null) {
+                for (Stream child : streams) {
+                    parent.addChildStream(child);
+                }
+            }
+        }
+        for (Stream stream : streams) {
+            indexSubtree(stream);
+        }
+    }
+
+    private void indexSubtree(Stream stream) {
+        flatStreams.put(stream.getId(), stream);
+        if (stream.getParentId() != null) {
+            addChildId(stream.getParentId(), stream.getId());
+        }
+        if (stream.getChildren() != null) {
+            for (Stream child : stream.getChildren()) {
+                indexSubtree(child);
+            }
+        }
+    }
+
+    /**
+     * Indexes a created, updated or trashed Stream, which keeps the children of its previous
+     * version and is moved under its new parent if it changed.
+     */
+    private synchronized void indexStream(Stream stream) {
+        version++;
+        Stream previous = flatStreams.get(stream.getId());
+        if (previous != null) {
+            detachFromParent(previous);
+            if (previous.getChildren() != null) {
+                stream.setChildren(previous.getChildren());
+            }
+        }
+        flatStreams.put(stream.getId(), stream);
+        String parentId = stream.getParentId();
+        if (parentId == null) {
+            rootStreams.put(stream.getId(), stream);
+        } else {
+            addChildId(parentId, stream.getId());
+            Stream parent = flatStreams.get(parentId);
+            if (parent != null) {
+                parent.addChildStream(stream);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the known descendants of the Stream
+     */
+    private synchronized List<String> getDescendantIds(String streamId) {
+        List<String> descendantIds = new ArrayList<>();
+        Deque<String> pendingIds = new ArrayDeque<>();
+        pendingIds.add(streamId);
+        while (!pendingIds.isEmpty()) {
+            Set<String> children = childrenIds.get(pendingIds.poll());
+            if (children != null) {
+                descendantIds.addAll(children);
+                pendingIds.addAll(children);
+            }
+        }
+        return descendantIds;
+    }
+
+    /**
+     * Removes a deleted Stream and its descendants from the indexes
+     */
+    private synchronized void unindexStream(String streamId) {
+        Stream stream = flatStreams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        version++;
+        detachFromParent(stream);
+        Deque<String> pendingIds = new ArrayDeque<>();
+        pendingIds.add(streamId);
+        while (!pendingIds.isEmpty()) {
+            String id = pendingIds.poll();
+            flatStreams.remove(id);
+            Set<String> children = childrenIds.remove(id);
+            if (children != null) {
+                pendingIds.addAll(children);
+            }
+        }
+    }
+
+    private void detachFromParent(Stream stream) {
+        String parentId = stream.getParentId();
+        if (parentId == null) {
+            rootStreams.remove(stream.getId());
+            return;
+        }
+        Set<String> siblings = childrenIds.get(parentId);
+        if (siblings != null) {
+            siblings.remove(stream.getId());
+            if (siblings.isEmpty()) {
+                childrenIds.remove(parentId);
+            }
+        }
+        Stream parent = flatStreams.get(parentId);
+        if (parent != null && parent.getChildrenMap() != null
+                && parent.getChildrenMap().containsKey(stream.getId())) {
+            parent.removeChildStream(parent.getChildrenMap().get(stream.getId()));
+            // removeChildStream clears the parentId of the removed instance
+            stream.setParentId(parentId);
+        }
+    }
+
+    private void addChildId(String parentId, String childId) {
+        Set<String> children = childrenIds.get(parentId);
+        if (children == null) {
+            children = new HashSet<>();
+            childrenIds.put(parentId, children);
         }
+        children.add(childId);
     }
 
 }
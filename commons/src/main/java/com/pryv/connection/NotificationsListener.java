@@ -0,0 +1,14 @@
+package com.pryv.connection;
+
+/**
+ * Receives the change signals of a {@link ConnectionNotifications}. Signals only tell that
+ * something changed, the changes themselves must be fetched, for example with a SyncSession.
+ */
+public interface NotificationsListener {
+
+    void onEventsChanged();
+
+    void onStreamsChanged();
+
+    void onAccessesChanged();
+}
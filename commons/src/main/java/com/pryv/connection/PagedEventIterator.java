@@ -0,0 +1,301 @@
+package com.pryv.connection;
+
+import com.pryv.api.ApiCallback;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Iterates over all the Events matching a Filter, page by page. Instead of skipping the Events
+ * already read, each page moves the time bound of the Filter to the time of the last Event
+ * received, and the Events already read at that time are told apart by their ids. Events created
+ * or deleted during the scan thus never shift the others. The next page is fetched while the
+ * current one is being read.
+ */
+public class PagedEventIterator implements Iterator<Event>, Closeable {
+
+    // fromTime of the pages when the Filter has none, the API defaulting it to 24h before toTime
+    private static final double MIN_TIME = -Double.MAX_VALUE;
+
+    private ConnectionEvents events;
+    private Filter filter;
+    private int pageSize;
+    private boolean ascending;
+
+    private List<Event> page = Collections.emptyList();
+    private int position = 0;
+    private PageRequest pendingPage;
+    private Double boundaryTime;
+    private Set<String> boundaryIds = new HashSet<>();
+    private int overlappingCount = 0;
+    private int pagesCount = 0;
+    private long returnedCount = 0;
+
+    /**
+     * Starts fetching the first page.
+     *
+     * @param events
+     * @param filter
+     *          its skip and limit are replaced by the pagination
+     * @param pageSize
+     *          the number of Events per request
+     */
+    PagedEventIterator(ConnectionEvents events, Filter filter, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("PagedEventIterator: page size must be positive");
+        }
+        this.events = events;
+        this.filter = filter.copy().setSkip(null).setLimit(null);
+        this.pageSize = pageSize;
+        this.ascending = Boolean.TRUE.equals(filter.getSortAscending());
+        pendingPage = fetchNextPage();
+    }
+
+    /**
+     * Returns the next Event, waiting for its page if needed.
+     *
+     * @return the next Event, null once all Events have been read
+     * @throws IOException
+     * @throws ApiException
+     */
+    public Event nextEvent() throws IOException, ApiException {
+        while (position >= page.size()) {
+            if (pendingPage == null) {
+                return null;
+            }
+            readPage();
+        }
+        returnedCount++;
+        return page.get(position++);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= page.size()) {
+            if (pendingPage == null) {
+                return false;
+            }
+            try {
+                readPage();
+            } catch (IOException | ApiException e) {
+                throw new IllegalStateException("PagedEventIterator: failed fetching events", e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Event next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        returnedCount++;
+        return page.get(position++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("PagedEventIterator is read-only");
+    }
+
+    /**
+     * Stops the iteration, the response of a page being fetched is discarded
+     */
+    @Override
+    public void close() {
+        pendingPage = null;
+        page = Collections.emptyList();
+        position = 0;
+    }
+
+    /**
+     * Returns the number of Events returned so far
+     *
+     * @return
+     */
+    public long getReturnedCount() {
+        return returnedCount;
+    }
+
+    /**
+     * Returns the number of pages received so far
+     *
+     * @return
+     */
+    public int getPagesCount() {
+        return pagesCount;
+    }
+
+    /**
+     * Returns the time reached by the pages received so far, null before the first page
+     *
+     * @return
+     */
+    public Double getBoundaryTime() {
+        return boundaryTime;
+    }
+
+    /**
+     * Returns the share of the Filter's time range covered by the pages received so far, between
+     * 0 and 1, or -1 if the Filter's time range is not bounded on both sides.
+     *
+     * @return
+     */
+    public double getProgress() {
+        if (pendingPage == null && pagesCount > 0) {
+            return 1;
+        }
+        Double fromTime = filter.getFromTime();
+        Double toTime = filter.getToTime();
+        if (fromTime == null || toTime == null) {
+            return -1;
+        }
+        if (boundaryTime == null || toTime <= fromTime) {
+            return 0;
+        }
+        double covered = ascending ? boundaryTime - fromTime : toTime - boundaryTime;
+        return Math.max(0, Math.min(1, covered / (toTime - fromTime)));
+    }
+
+    /**
+     * Waits for the pending page, drops the Events already read at the boundary and starts
+     * fetching the next page unless this one was the last. Events starting before the boundary
+     * come again when their period reaches it, and are dropped as well.
+     */
+    private void readPage() throws IOException, ApiException {
+        PageRequest request = pendingPage;
+        pendingPage = null;
+        List<Event> received = request.get();
+        pagesCount++;
+
+        List<Event> keptEvents = new ArrayList<>(received.size());
+        List<Event> newEvents = new ArrayList<>(received.size());
+        int overlapping = 0;
+        for (Event event : received) {
+            if (isBeforeBoundary(event)) {
+                overlapping++;
+            } else {
+                keptEvents.add(event);
+                if (!isBoundaryEvent(event)) {
+                    newEvents.add(event);
+                }
+            }
+        }
+        if (received.size() >= request.limit) {
+            // a page holding only overlapping Events keeps the boundary and raises the limit
+            if (!keptEvents.isEmpty()) {
+                Double lastTime = keptEvents.get(keptEvents.size() - 1).getTime();
+                if (!lastTime.equals(boundaryTime)) {
+                    boundaryTime = lastTime;
+                    boundaryIds = new HashSet<>();
+                }
+                for (Event event : keptEvents) {
+                    if (lastTime.equals(event.getTime())) {
+                        boundaryIds.add(event.getId());
+                    }
+                }
+            }
+            overlappingCount = overlapping;
+            pendingPage = fetchNextPage();
+        }
+        page = newEvents;
+        position = 0;
+    }
+
+    private boolean isBoundaryEvent(Event event) {
+        return boundaryTime != null && boundaryTime.equals(event.getTime())
+                && boundaryIds.contains(event.getId());
+    }
+
+    private boolean isBeforeBoundary(Event event) {
+        Double time = event.getTime();
+        if (boundaryTime == null || time == null) {
+            return false;
+        }
+        return ascending ? time < boundaryTime : time > boundaryTime;
+    }
+
+    /**
+     * Requests the Events from the boundary. The Events already read at the boundary and those
+     * overlapping it come again, so the limit is raised by their number.
+     */
+    private PageRequest fetchNextPage() {
+        Filter pageFilter = filter.copy();
+        if (pageFilter.getFromTime() == null) {
+            pageFilter.setFromTime(MIN_TIME);
+        }
+        if (boundaryTime != null) {
+            if (ascending) {
+                pageFilter.setFromTime(boundaryTime);
+            } else {
+                pageFilter.setToTime(boundaryTime);
+            }
+        }
+        PageRequest request = new PageRequest(pageSize + boundaryIds.size() + overlappingCount);
+        pageFilter.setLimit(request.limit);
+        events.get(pageFilter, request);
+        return request;
+    }
+
+    /**
+     * Holds the response to a page request until it is read
+     */
+    private static class PageRequest implements ApiCallback<List<Event>> {
+
+        private final int limit;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private List<Event> result;
+        private ApiException apiError;
+        private IOException failure;
+
+        PageRequest(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void onSuccess(List<Event> result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        @Override
+        public void onApiError(ApiException exception) {
+            this.apiError = exception;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException exception) {
+            this.failure = exception;
+            done.countDown();
+        }
+
+        List<Event> get() throws IOException, ApiException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("PagedEventIterator: interrupted while waiting for a page");
+            }
+            if (apiError != null) {
+                throw apiError;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+}
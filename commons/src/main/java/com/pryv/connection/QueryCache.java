@@ -0,0 +1,323 @@
+package com.pryv.connection;
+
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory cache of the results of Events and Streams get calls, keyed by their Filter. Entries
+ * expire after a time to live and the least recently used ones are evicted beyond a number of
+ * entries or an estimated size. Creations, updates and deletions made through the connection
+ * invalidate the entries whose scope includes the modified Stream.
+ * <p>
+ * A cache is shared by the ConnectionEvents and ConnectionStreams of a connection, see
+ * {@link com.pryv.Connection#setQueryCache(QueryCache)}. Cached results are copied, so callers
+ * may modify the lists and maps they receive, not the Events and Streams they contain.
+ */
+public class QueryCache {
+
+    private static final String EVENTS = "events";
+    private static final String STREAMS = "streams";
+
+    // rough sizes of the objects held by the cache, in bytes
+    private static final int ENTRY_BYTES = 256;
+    private static final int EVENT_BYTES = 384;
+    private static final int STREAM_BYTES = 320;
+
+    private int maxEntries;
+    private long maxBytes;
+    private long ttlNanos;
+    private ConnectionStreams streams;
+
+    // access-ordered: iteration starts with the least recently used entry
+    private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long generation = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+    private long invalidationCount = 0;
+
+    /**
+     * @param maxEntries
+     *          the maximum number of cached results
+     * @param maxBytes
+     *          the maximum estimated size of the cached results
+     * @param ttl
+     *          the time after which a cached result expires
+     * @param unit
+     */
+    public QueryCache(int maxEntries, long maxBytes, long ttl, TimeUnit unit) {
+        if (maxEntries < 1 || maxBytes < 1 || ttl < 1) {
+            throw new IllegalArgumentException("QueryCache: bounds must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Sets the Streams whose known hierarchy is used to find the entries including a modified
+     * Stream, as a Filter on a Stream includes its descendants.
+     *
+     * @param streams
+     */
+    public void setStreams(ConnectionStreams streams) {
+        this.streams = streams;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of entries removed because they expired or to respect the bounds
+     *
+     * @return
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of entries removed because of a modification
+     *
+     * @return
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the estimated size of the cached results, in bytes
+     *
+     * @return
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        invalidationCount += entries.size();
+        entries.clear();
+        bytes = 0;
+        generation++;
+    }
+
+    /**
+     * Returns the number of invalidations so far, to pass to the put methods: results fetched
+     * before an invalidation are not cached.
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized List<Event> getEventsResult(Filter filter) {
+        @SuppressWarnings("unchecked")
+        List<Event> events = (List<Event>) get(new Key(EVENTS, filter));
+        return events == null ? null : new ArrayList<>(events);
+    }
+
+    synchronized void putEventsResult(Filter filter, List<Event> events, long fetchGeneration) {
+        long size = ENTRY_BYTES;
+        for (Event event : events) {
+            size += EVENT_BYTES + estimate(event.getContent());
+        }
+        put(new Key(EVENTS, filter), new ArrayList<>(events), size, fetchGeneration);
+    }
+
+    synchronized Map<String, Stream> getStreamsResult(Filter filter) {
+        @SuppressWarnings("unchecked")
+        Map<String, Stream> rootStreams = (Map<String, Stream>) get(new Key(STREAMS, filter));
+        return rootStreams == null ? null : new HashMap<>(rootStreams);
+    }
+
+    synchronized void putStreamsResult(Filter filter, Map<String, Stream> rootStreams, long fetchGeneration) {
+        long size = ENTRY_BYTES;
+        List<Stream> pending = new ArrayList<>(rootStreams.values());
+        while (!pending.isEmpty()) {
+            Stream stream = pending.remove(pending.size() - 1);
+            size += STREAM_BYTES;
+            if (stream.getChildren() != null) {
+                pending.addAll(stream.getChildren());
+            }
+        }
+        put(new Key(STREAMS, filter), new HashMap<>(rootStreams), size, fetchGeneration);
+    }
+
+    /**
+     * Invalidates the Events results including the Stream, or holding the Event if it is not
+     * null, which may have been moved from another Stream.
+     *
+     * @param streamId
+     * @param eventId
+     */
+    void invalidateEvents(String streamId, String eventId) {
+        List<Key> keys;
+        synchronized (this) {
+            // results being fetched may predate the modification, they will not be cached
+            generation++;
+            keys = new ArrayList<>(entries.keySet());
+        }
+        // scope checks walk the Streams hierarchy, outside of the cache's lock
+        List<Key> invalidated = new ArrayList<>();
+        for (Key key : keys) {
+            if (EVENTS.equals(key.endpoint) && (streamId == null || hasInScope(key.filter, streamId))) {
+                invalidated.add(key);
+            }
+        }
+        synchronized (this) {
+            for (Key key : invalidated) {
+                remove(key);
+            }
+            if (eventId != null) {
+                Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Key, Entry> entry = iterator.next();
+                    if (EVENTS.equals(entry.getKey().endpoint) && holds(entry.getValue(), eventId)) {
+                        iterator.remove();
+                        bytes -= entry.getValue().bytes;
+                        invalidationCount++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates the Streams results and the Events results including the Stream
+     *
+     * @param streamId
+     */
+    void invalidateStreams(String streamId) {
+        synchronized (this) {
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> entry = iterator.next();
+                if (STREAMS.equals(entry.getKey().endpoint)) {
+                    iterator.remove();
+                    bytes -= entry.getValue().bytes;
+                    invalidationCount++;
+                }
+            }
+        }
+        invalidateEvents(streamId, null);
+    }
+
+    private boolean hasInScope(Filter filter, String streamId) {
+        ConnectionStreams knownStreams = streams;
+        return knownStreams != null ? knownStreams.hasInScope(filter, streamId) : filter.hasInScope(streamId);
+    }
+
+    private static boolean holds(Entry entry, String eventId) {
+        for (Object event : (List<?>) entry.value) {
+            if (eventId.equals(((Event) event).getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Object get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.created > ttlNanos) {
+            entries.remove(key);
+            bytes -= entry.bytes;
+            evictionCount++;
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    private void put(Key key, Object value, long size, long fetchGeneration) {
+        if (fetchGeneration != generation || size > maxBytes) {
+            // modified while fetched, or too big
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(value, size, System.nanoTime()));
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += size;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            Entry evicted = iterator.next();
+            iterator.remove();
+            bytes -= evicted.bytes;
+            evictionCount++;
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            bytes -= entry.bytes;
+            invalidationCount++;
+        }
+    }
+
+    private static long estimate(Object content) {
+        if (content instanceof String) {
+            return 2 * ((String) content).length();
+        }
+        return content == null ? 0 : 64;
+    }
+
+    private static class Key {
+        private final String endpoint;
+        private final Filter filter;
+
+        Key(String endpoint, Filter filter) {
+            this.endpoint = endpoint;
+            // Filters are mutable, the key keeps its own copy
+            this.filter = filter == null ? new Filter() : filter.copy();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return endpoint.equals(other.endpoint) && filter.equals(other.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * endpoint.hashCode() + filter.hashCode();
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long bytes;
+        private final long created;
+
+        Entry(Object value, long bytes, long created) {
+            this.value = value;
+            this.bytes = bytes;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.pryv.connection;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Splits time ranges into shards expected to hold the same number of Events, based on the
+ * number of Events previously received for each time range. Ranges never observed are assumed
+ * to have the average density of the observed ones.
+ */
+class ShardPlanner {
+
+    private static final int MAX_SEGMENTS = 256;
+
+    // observed time ranges by start time, never overlapping: {toTime, Events per second}
+    private TreeMap<Double, double[]> segments = new TreeMap<>();
+
+    /**
+     * Records the number of Events received for a time range, replacing the previous
+     * observations it overlaps.
+     *
+     * @param fromTime
+     * @param toTime
+     * @param eventsCount
+     */
+    synchronized void record(double fromTime, double toTime, int eventsCount) {
+        if (toTime <= fromTime) {
+            return;
+        }
+        NavigableMap<Double, double[]> before = segments.headMap(toTime, false).descendingMap();
+        Iterator<Map.Entry<Double, double[]>> iterator = before.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue()[0] <= fromTime) {
+                break;
+            }
+            iterator.remove();
+        }
+        segments.put(fromTime, new double[] {toTime, eventsCount / (toTime - fromTime)});
+        while (segments.size() > MAX_SEGMENTS) {
+            segments.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Returns the boundaries of at most shardsCount shards covering the time range, from
+     * fromTime to toTime included.
+     *
+     * @param fromTime
+     * @param toTime
+     * @param shardsCount
+     * @return
+     */
+    synchronized double[] split(double fromTime, double toTime, int shardsCount) {
+        // piecewise constant density between the breakpoints
+        List<Double> breakpoints = new ArrayList<>();
+        List<Double> densities = new ArrayList<>();
+        double defaultDensity = averageDensity();
+        double time = fromTime;
+        Map.Entry<Double, double[]> floor = segments.floorEntry(fromTime);
+        Iterator<Map.Entry<Double, double[]>> following = segments.tailMap(fromTime, false).entrySet().iterator();
+        Map.Entry<Double, double[]> segment = floor != null && floor.getValue()[0] > fromTime ? floor
+                : following.hasNext() ? following.next() : null;
+        while (time < toTime) {
+            breakpoints.add(time);
+            if (segment == null || segment.getKey() >= toTime) {
+                densities.add(defaultDensity);
+                time = toTime;
+            } else if (segment.getKey() > time) {
+                // gap before the next observed range
+                densities.add(defaultDensity);
+                time = segment.getKey();
+            } else {
+                densities.add(segment.getValue()[1]);
+                time = Math.min(segment.getValue()[0], toTime);
+                segment = following.hasNext() ? following.next() : null;
+            }
+        }
+        breakpoints.add(toTime);
+
+        double total = 0;
+        for (int i = 0; i < densities.size(); i++) {
+            total += weight(densities.get(i), defaultDensity) * (breakpoints.get(i + 1) - breakpoints.get(i));
+        }
+        List<Double> boundaries = new ArrayList<>();
+        boundaries.add(fromTime);
+        int interval = 0;
+        double cumulated = 0;
+        for (int shard = 1; shard < shardsCount; shard++) {
+            double target = total * shard / shardsCount;
+            while (interval < densities.size()) {
+                double start = breakpoints.get(interval);
+                double end = breakpoints.get(interval + 1);
+                double intervalWeight = weight(densities.get(interval), defaultDensity) * (end - start);
+                if (cumulated + intervalWeight >= target && intervalWeight > 0) {
+                    double boundary = start + (end - start) * (target - cumulated) / intervalWeight;
+                    if (boundary > boundaries.get(boundaries.size() - 1) && boundary < toTime) {
+                        boundaries.add(boundary);
+                    }
+                    break;
+                }
+                cumulated += intervalWeight;
+                interval++;
+            }
+        }
+        boundaries.add(toTime);
+
+        double[] result = new double[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    private double averageDensity() {
+        double events = 0;
+        double duration = 0;
+        for (Map.Entry<Double, double[]> segment : segments.entrySet()) {
+            double length = segment.getValue()[0] - segment.getKey();
+            events += segment.getValue()[1] * length;
+            duration += length;
+        }
+        return events > 0 ? events / duration : 1;
+    }
+
+    /**
+     * Ranges observed empty keep a small weight, Events may have been added since
+     */
+    private static double weight(double density, double defaultDensity) {
+        return Math.max(density, defaultDensity / 16);
+    }
+}
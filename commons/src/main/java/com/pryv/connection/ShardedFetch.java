@@ -0,0 +1,214 @@
+package com.pryv.connection;
+
+import com.pryv.api.ApiCallback;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Fetches the Events of a Filter's time range as several shorter time ranges requested at the
+ * same time, then merges their results by time. The shards are requested asynchronously, so they
+ * are limited by the connection's maximum of concurrent requests and parsed on its workers.
+ */
+class ShardedFetch {
+
+    private ConnectionEvents events;
+    private ShardPlanner planner;
+    private Filter filter;
+    private boolean ascending;
+    private double[] boundaries;
+    private Integer shardLimit;
+    private List<List<Event>> results;
+    private CountDownLatch done;
+    private ApiException apiError;
+    private IOException failure;
+
+    ShardedFetch(ConnectionEvents events, ShardPlanner planner, Filter filter, int shardsCount) {
+        if (filter.getFromTime() == null || filter.getToTime() == null) {
+            throw new IllegalArgumentException("ShardedFetch: the Filter must have a fromTime and a toTime");
+        }
+        if (shardsCount < 1) {
+            throw new IllegalArgumentException("ShardedFetch: shards count must be positive");
+        }
+        this.events = events;
+        this.planner = planner;
+        this.filter = filter;
+        this.ascending = Boolean.TRUE.equals(filter.getSortAscending());
+        this.boundaries = planner.split(filter.getFromTime(), filter.getToTime(), shardsCount);
+    }
+
+    /**
+     * Requests all shards, waits for them and returns their merged Events. The Filter's skip and
+     * limit apply to the merged Events.
+     *
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    List<Event> exec() throws IOException, ApiException {
+        int shardsCount = boundaries.length - 1;
+        Integer skip = filter.getSkip();
+        Integer limit = filter.getLimit();
+        // each shard may hold all the Events of the result
+        shardLimit = limit == null ? null : limit + (skip == null ? 0 : skip);
+
+        results = new ArrayList<>(Collections.<List<Event>>nCopies(shardsCount, null));
+        done = new CountDownLatch(shardsCount);
+        for (int i = 0; i < shardsCount; i++) {
+            Filter shardFilter = filter.copy()
+                    .setFromTime(boundaries[i])
+                    .setToTime(boundaries[i + 1])
+                    .setSkip(null)
+                    .setLimit(shardLimit);
+            events.get(shardFilter, new ShardCallback(i));
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ShardedFetch: interrupted while waiting for the shards");
+        }
+        synchronized (this) {
+            if (apiError != null) {
+                throw apiError;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        List<Event> merged = merge(results);
+        int from = skip == null ? 0 : Math.min(skip, merged.size());
+        int to = limit == null ? merged.size() : Math.min(from + limit, merged.size());
+        return from == 0 && to == merged.size() ? merged : new ArrayList<>(merged.subList(from, to));
+    }
+
+    /**
+     * Keeps the Events starting in the shard's own range, since the time bounds are inclusive
+     * and Events with a duration are returned by every shard their period overlaps, and records
+     * how many were received. A shard cut at the limit tells nothing of the density of its
+     * range, so it is not recorded.
+     */
+    private void onShardReceived(int shard, List<Event> received) {
+        double fromTime = boundaries[shard];
+        double toTime = boundaries[shard + 1];
+        boolean firstShard = shard == 0;
+        boolean lastShard = shard == boundaries.length - 2;
+        List<Event> shardEvents = received;
+        if (!firstShard || !lastShard) {
+            shardEvents = new ArrayList<>(received.size());
+            for (Event event : received) {
+                Double time = event.getTime();
+                if (time == null || (firstShard || time >= fromTime) && (lastShard || time < toTime)) {
+                    shardEvents.add(event);
+                }
+            }
+        }
+        if (shardLimit == null || received.size() < shardLimit) {
+            planner.record(fromTime, toTime, received.size());
+        }
+        results.set(shard, shardEvents);
+    }
+
+    /**
+     * Merges the shards' Events, each list being sorted, into a single list sorted by time.
+     * Events of the same time keep the order of their shards.
+     */
+    private List<Event> merge(List<List<Event>> shards) {
+        int size = 0;
+        for (List<Event> shard : shards) {
+            size += shard.size();
+        }
+        List<Event> merged = new ArrayList<>(size);
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, shards.size()), new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor c1, Cursor c2) {
+                int order = compareTimes(c1.head().getTime(), c2.head().getTime());
+                if (order == 0) {
+                    return c1.shard < c2.shard ? -1 : (c1.shard == c2.shard ? 0 : 1);
+                }
+                return ascending ? order : -order;
+            }
+        });
+        for (int i = 0; i < shards.size(); i++) {
+            if (!shards.get(i).isEmpty()) {
+                heads.add(new Cursor(i, shards.get(i)));
+            }
+        }
+        while (!heads.isEmpty()) {
+            Cursor cursor = heads.poll();
+            merged.add(cursor.head());
+            if (++cursor.position < cursor.events.size()) {
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    private static int compareTimes(Double t1, Double t2) {
+        double v1 = t1 == null ? 0 : t1;
+        double v2 = t2 == null ? 0 : t2;
+        return Double.compare(v1, v2);
+    }
+
+    private static class Cursor {
+        private final int shard;
+        private final List<Event> events;
+        private int position = 0;
+
+        Cursor(int shard, List<Event> events) {
+            this.shard = shard;
+            this.events = events;
+        }
+
+        Event head() {
+            return events.get(position);
+        }
+    }
+
+    private class ShardCallback implements ApiCallback<List<Event>> {
+
+        private final int shard;
+
+        ShardCallback(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void onSuccess(List<Event> result) {
+            synchronized (ShardedFetch.this) {
+                onShardReceived(shard, result);
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void onApiError(ApiException exception) {
+            synchronized (ShardedFetch.this) {
+                if (apiError == null && failure == null) {
+                    apiError = exception;
+                }
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException exception) {
+            synchronized (ShardedFetch.this) {
+                if (apiError == null && failure == null) {
+                    failure = exception;
+                }
+            }
+            done.countDown();
+        }
+    }
+}
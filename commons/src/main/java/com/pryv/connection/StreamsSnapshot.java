@@ -0,0 +1,78 @@
+package com.pryv.connection;
+
+import com.pryv.model.Stream;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Copy of the Streams tree known by a {@link ConnectionStreams} at a given version. It is not
+ * modified by later changes to the tree, so that readers see a consistent structure while
+ * mutations are applied. Its Streams must not be modified.
+ */
+public class StreamsSnapshot {
+
+    private final long version;
+    private final Map<String, Stream> rootStreams;
+    private final Map<String, Stream> flatStreams;
+    private final boolean trashedStreams;
+
+    StreamsSnapshot(long version, Collection<Stream> knownRootStreams) {
+        this.version = version;
+        Map<String, Stream> roots = new HashMap<>();
+        Map<String, Stream> flat = new HashMap<>();
+        boolean trashed = false;
+        Deque<Stream> pending = new ArrayDeque<>();
+        for (Stream rootStream : knownRootStreams) {
+            Stream copy = rootStream.copy();
+            roots.put(copy.getId(), copy);
+            pending.add(copy);
+        }
+        while (!pending.isEmpty()) {
+            Stream stream = pending.poll();
+            flat.put(stream.getId(), stream);
+            trashed |= stream.isTrashed();
+            if (stream.getChildren() != null) {
+                pending.addAll(stream.getChildren());
+            }
+        }
+        this.rootStreams = Collections.unmodifiableMap(roots);
+        this.flatStreams = Collections.unmodifiableMap(flat);
+        this.trashedStreams = trashed;
+    }
+
+    /**
+     * Returns the version of the tree, incremented by each change applied to it
+     *
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, Stream> getRootStreams() {
+        return rootStreams;
+    }
+
+    /**
+     * Returns the Stream with the given id, in constant time
+     *
+     * @param streamId
+     * @return the Stream, null if it is not in the tree
+     */
+    public Stream getStreamById(String streamId) {
+        return flatStreams.get(streamId);
+    }
+
+    public int size() {
+        return flatStreams.size();
+    }
+
+    boolean hasTrashedStreams() {
+        return trashedStreams;
+    }
+}
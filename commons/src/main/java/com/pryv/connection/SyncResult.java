@@ -0,0 +1,61 @@
+package com.pryv.connection;
+
+import com.pryv.model.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes applied to the local store by a synchronization of a SyncSession.
+ */
+public class SyncResult {
+
+    private List<Event> added = new ArrayList<>();
+    private List<Event> updated = new ArrayList<>();
+    private List<Event> removed = new ArrayList<>();
+    private double serverTime;
+
+    SyncResult(double serverTime) {
+        this.serverTime = serverTime;
+    }
+
+    /**
+     * Returns the Events that entered the scope: created, or moved into it
+     *
+     * @return
+     */
+    public List<Event> getAdded() {
+        return added;
+    }
+
+    /**
+     * Returns the Events of the scope that were modified
+     *
+     * @return
+     */
+    public List<Event> getUpdated() {
+        return updated;
+    }
+
+    /**
+     * Returns the Events that left the store: deleted, trashed or moved out of the scope
+     *
+     * @return
+     */
+    public List<Event> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Returns the server time the store is synchronized at
+     *
+     * @return
+     */
+    public double getServerTime() {
+        return serverTime;
+    }
+
+    public boolean hasChanges() {
+        return !added.isEmpty() || !updated.isEmpty() || !removed.isEmpty();
+    }
+}
@@ -0,0 +1,213 @@
+package com.pryv.connection;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.pryv.api.ApiResponse;
+import com.pryv.database.EventStore;
+import com.pryv.database.SQLiteEventsCache;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.FilterMatcher;
+import com.pryv.utils.JsonConverter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps a local EventStore in sync with the Events of a scope. The first synchronization fetches
+ * the whole scope, the following ones only fetch the Events modified or deleted since the server
+ * time of the previous one, so that each call costs in proportion to the changes.
+ * <p>
+ * Changes are fetched for all Streams and the scope is applied locally. Events in descendants of
+ * the scope's Streams are recognized through the Streams tree known to the connection and through
+ * the Events received by the full synchronization.
+ */
+public class SyncSession {
+
+    private ConnectionEvents events;
+    private Filter scope;
+    private FilterMatcher localScope;
+    // the scope's Streams and their known descendants
+    private FilterMatcher streamsScope;
+    // the Streams of the Events the API returned for the scope, so within it
+    private Set<String> scopeStreamIds = new HashSet<>();
+    private EventStore store;
+    private Double lastServerTime;
+
+    /**
+     * @param events
+     *          the ConnectionEvents used to fetch the changes
+     * @param scope
+     *          the Events to synchronize, paging and modification parameters are ignored
+     * @param store
+     *          the local store to keep up to date
+     */
+    public SyncSession(ConnectionEvents events, Filter scope, EventStore store) {
+        this(events, scope, store, null);
+    }
+
+    /**
+     * Resumes a session whose store was synchronized at lastServerTime
+     *
+     * @param events
+     * @param scope
+     * @param store
+     * @param lastServerTime
+     *          the server time of the last synchronization, null to start with a full one
+     */
+    public SyncSession(ConnectionEvents events, Filter scope, EventStore store, Double lastServerTime) {
+        this.events = events;
+        this.scope = scope.copy()
+                .setSkip(null)
+                .setLimit(null)
+                .setModifiedSince(null)
+                .setIncludeDeletions(null)
+                .setIncludeDeletionsSince(null);
+        this.store = store;
+        this.lastServerTime = lastServerTime;
+        // the Streams are checked separately, see inScopeStreams
+        Filter localFilter = this.scope.copy().setStreamIds(null);
+        if (localFilter.getState() == null) {
+            localFilter.setState(Filter.State.DEFAULT);
+        }
+        this.localScope = localFilter.compile();
+        this.streamsScope = compileStreamsScope();
+    }
+
+    /**
+     * Fetches the changes since the last synchronization and applies them to the store.
+     *
+     * @return the changes applied to the store
+     * @throws IOException
+     * @throws ApiException
+     */
+    public synchronized SyncResult sync() throws IOException, ApiException {
+        // the known Streams tree may have changed since the last synchronization
+        streamsScope = compileStreamsScope();
+        if (lastServerTime == null) {
+            ApiResponse apiResponse = events.fetch(createFullFilter());
+            List<Event> scopeEvents = JsonConverter.createEventsFromJson(apiResponse.getJsonNode());
+            return applyFull(scopeEvents, apiResponse.getServerTime());
+        }
+        // the delta is not restricted: Events whose Stream, time, tags, type or state changed
+        // must be fetched to be removed from the store, the scope is applied locally
+        ApiResponse apiResponse = events.fetch(SQLiteEventsCache.createDeltaFilter(lastServerTime));
+        JsonNode json = apiResponse.getJsonNode();
+        List<Event> changedEvents = JsonConverter.createEventsFromJson(json);
+        Set<String> deletedEventIds = JsonConverter.createEventDeletionsFromJson(json).keySet();
+        return applyChanges(changedEvents, deletedEventIds, apiResponse.getServerTime());
+    }
+
+    /**
+     * Replaces the content of the store with all the Events of the scope.
+     *
+     * @param scopeEvents
+     *          all the Events of the scope
+     * @param serverTime
+     *          the server time at which they were fetched
+     * @return
+     */
+    public synchronized SyncResult applyFull(List<Event> scopeEvents, double serverTime) {
+        SyncResult result = new SyncResult(serverTime);
+        Set<String> receivedIds = new HashSet<>();
+        for (Event event : scopeEvents) {
+            receivedIds.add(event.getId());
+            // fetched with the scope's Streams, the API included their descendants
+            scopeStreamIds.add(event.getStreamId());
+            applyEvent(event, true, result);
+        }
+        for (Event storedEvent : store.getAll()) {
+            if (!receivedIds.contains(storedEvent.getId())) {
+                store.remove(storedEvent.getId());
+                result.getRemoved().add(storedEvent);
+            }
+        }
+        lastServerTime = serverTime;
+        return result;
+    }
+
+    /**
+     * Applies changes of the scope to the store.
+     *
+     * @param changedEvents
+     *          the Events created, modified or trashed since the last synchronization
+     * @param deletedEventIds
+     *          the ids of the Events deleted since the last synchronization
+     * @param serverTime
+     *          the server time at which the changes were fetched
+     * @return
+     */
+    public synchronized SyncResult applyChanges(List<Event> changedEvents, Collection<String> deletedEventIds,
+                                                double serverTime) {
+        SyncResult result = new SyncResult(serverTime);
+        for (Event event : changedEvents) {
+            applyEvent(event, inScopeStreams(event.getStreamId()), result);
+        }
+        for (String deletedEventId : deletedEventIds) {
+            Event removedEvent = store.remove(deletedEventId);
+            if (removedEvent != null) {
+                result.getRemoved().add(removedEvent.setDeleted(true));
+            }
+        }
+        lastServerTime = serverTime;
+        return result;
+    }
+
+    private void applyEvent(Event event, boolean inScopeStreams, SyncResult result) {
+        boolean stored = store.get(event.getId()) != null;
+        if (inScopeStreams && localScope.match(event)) {
+            store.put(event);
+            if (stored) {
+                result.getUpdated().add(event);
+            } else {
+                result.getAdded().add(event);
+            }
+        } else if (stored) {
+            store.remove(event.getId());
+            result.getRemoved().add(event);
+        }
+    }
+
+    private Filter createFullFilter() {
+        Filter fullFilter = scope.copy();
+        if (fullFilter.getFromTime() == null && fullFilter.getToTime() == null) {
+            // an explicit time range keeps the API from applying its default limit
+            fullFilter.setFromTime(0.0);
+        }
+        return fullFilter;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the Stream is one of the scope's Streams or one of their
+     * descendants, known from the Streams tree or from the Events received for the scope
+     */
+    private boolean inScopeStreams(String streamId) {
+        return streamsScope.hasInScope(streamId) || scopeStreamIds.contains(streamId);
+    }
+
+    private FilterMatcher compileStreamsScope() {
+        Filter streamsFilter = new Filter().setStreamIds(scope.getStreams());
+        return events != null ? events.compile(streamsFilter) : streamsFilter.compile();
+    }
+
+    public Filter getScope() {
+        return scope;
+    }
+
+    public EventStore getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the server time of the last synchronization, to be saved along with a persisted
+     * store in order to resume the session later
+     *
+     * @return
+     */
+    public synchronized Double getLastServerTime() {
+        return lastServerTime;
+    }
+}
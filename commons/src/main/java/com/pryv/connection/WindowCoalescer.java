@@ -0,0 +1,203 @@
+package com.pryv.connection;
+
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.utils.JsonConverter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the Events get calls made within a short batching window whose Filters differ only by
+ * overlapping time ranges: a single call is sent for the union of their ranges and its result is
+ * split back to each caller. The first caller of a group waits for the batching window before
+ * sending the call, the others join it and wait for its result.
+ * <p>
+ * Callers of a group receive the same Event instances.
+ */
+class WindowCoalescer {
+
+    private ConnectionEvents events;
+    private long windowMillis;
+    // open groups, by Filter without time range
+    private Map<Filter, List<Group>> groups = new HashMap<>();
+
+    WindowCoalescer(ConnectionEvents events, long window, TimeUnit unit) {
+        if (window < 1) {
+            throw new IllegalArgumentException("WindowCoalescer: the batching window must be positive");
+        }
+        this.events = events;
+        this.windowMillis = Math.max(1, unit.toMillis(window));
+    }
+
+    /**
+     * Returns whether the Filter's result can be taken from a superset fetch: it must have a
+     * bounded time range, and neither skip, limit nor deletions.
+     *
+     * @param filter
+     * @return
+     */
+    static boolean accepts(Filter filter) {
+        return filter != null
+                && filter.getFromTime() != null
+                && filter.getToTime() != null
+                && filter.getSkip() == null
+                && filter.getLimit() == null
+                && !Boolean.TRUE.equals(filter.getIncludeDeletions())
+                && filter.getIncludeDeletionsSince() == null;
+    }
+
+    /**
+     * Fetches the Events matching the Filter, with the calls of the same group.
+     *
+     * @param filter
+     *          must be accepted
+     * @return
+     * @throws IOException
+     * @throws ApiException
+     */
+    List<Event> get(Filter filter) throws IOException, ApiException {
+        Filter query = filter.copy();
+        Filter key = query.copy().setFromTime(null).setToTime(null);
+        Group group = null;
+        boolean leader = false;
+        synchronized (this) {
+            List<Group> openGroups = groups.get(key);
+            if (openGroups == null) {
+                openGroups = new ArrayList<>();
+                groups.put(key, openGroups);
+            }
+            for (Group openGroup : openGroups) {
+                if (openGroup.overlaps(query)) {
+                    group = openGroup;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new Group(query);
+                openGroups.add(group);
+                leader = true;
+            }
+            group.add(query);
+        }
+        if (leader) {
+            send(key, group);
+        }
+        return group.await(query);
+    }
+
+    private void send(Filter key, Group group) throws InterruptedIOException {
+        try {
+            Thread.sleep(windowMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interruption = new InterruptedIOException("WindowCoalescer: interrupted while batching");
+            close(key, group);
+            group.complete(null, interruption);
+            throw interruption;
+        }
+        Filter superset = close(key, group);
+        try {
+            group.complete(JsonConverter.createEventsFromJson(events.fetch(superset).getJsonNode()), null);
+        } catch (ApiException | IOException e) {
+            group.complete(null, e);
+        } catch (RuntimeException e) {
+            group.complete(null, new IOException("WindowCoalescer: request failed", e));
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the group to later callers and returns its superset Filter
+     */
+    private synchronized Filter close(Filter key, Group group) {
+        List<Group> openGroups = groups.get(key);
+        openGroups.remove(group);
+        if (openGroups.isEmpty()) {
+            groups.remove(key);
+        }
+        return group.superset;
+    }
+
+    /**
+     * Callers sharing a superset fetch
+     */
+    private static class Group {
+
+        private Filter superset;
+        private int callersCount = 0;
+        private boolean completed = false;
+        private List<Event> events;
+        private Exception error;
+
+        Group(Filter filter) {
+            this.superset = filter.copy();
+        }
+
+        /**
+         * Called with the coalescer's lock held, while the group is open
+         */
+        boolean overlaps(Filter filter) {
+            return filter.getFromTime() < superset.getToTime() && superset.getFromTime() < filter.getToTime();
+        }
+
+        void add(Filter filter) {
+            superset.setFromTime(Math.min(superset.getFromTime(), filter.getFromTime()));
+            superset.setToTime(Math.max(superset.getToTime(), filter.getToTime()));
+            callersCount++;
+        }
+
+        synchronized void complete(List<Event> events, Exception error) {
+            this.events = events;
+            this.error = error;
+            completed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the superset fetch and returns its Events within the Filter's time range,
+         * with the API's rule: an Event with a duration matches if its period overlaps the range.
+         * The duration of running Events is unknown, they are split as instant Events. The other
+         * criteria are those of the superset, so they already hold.
+         */
+        synchronized List<Event> await(Filter filter) throws IOException, ApiException {
+            try {
+                while (!completed) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("WindowCoalescer: interrupted while waiting for a response");
+            }
+            if (error instanceof ApiException) {
+                throw (ApiException) error;
+            } else if (error != null) {
+                throw (IOException) error;
+            }
+            if (callersCount == 1) {
+                return events;
+            }
+            double from = filter.getFromTime();
+            double to = filter.getToTime();
+            List<Event> result = new ArrayList<>();
+            for (Event event : events) {
+                Double time = event.getTime();
+                if (time == null || time > to) {
+                    continue;
+                }
+                Double duration = event.getDuration();
+                double end = duration == null ? time : time + duration;
+                if (end >= from) {
+                    result.add(event);
+                }
+            }
+            return result;
+        }
+    }
+}
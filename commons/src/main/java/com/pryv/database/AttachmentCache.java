@@ -0,0 +1,247 @@
+package com.pryv.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * On-disk cache of attachment contents, evicting the least recently used files once their total
+ * size exceeds a maximum. Since attachments are immutable, a file is addressed by the hash of
+ * its Event and attachment ids. Files are written as ".part" files first, kept between runs to
+ * resume interrupted downloads, and only become visible once complete.
+ */
+public class AttachmentCache {
+
+    private static final String PART_SUFFIX = ".part";
+
+    private File directory;
+    private long maxBytes;
+    private long totalBytes = 0;
+    // sizes of the cached files by key, access-ordered: iteration starts with the least recently used
+    private LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private Set<String> lockedKeys = new HashSet<>();
+
+    /**
+     * Opens or creates the cache in the provided directory, reloading the files it contains
+     * in their order of last use.
+     *
+     * @param directory
+     * @param maxBytes
+     *          the maximum total size of the cached files
+     * @throws IOException
+     */
+    public AttachmentCache(File directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("AttachmentCache: max bytes must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("AttachmentCache: cannot create directory " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("AttachmentCache: cannot list directory " + directory);
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.isFile() && !file.getName().endsWith(PART_SUFFIX)) {
+                long length = file.length();
+                entries.put(file.getName(), length);
+                totalBytes += length;
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Returns the key addressing the content of an attachment
+     *
+     * @param eventId
+     * @param attachmentId
+     * @return
+     */
+    public static String key(String eventId, String attachmentId) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((eventId + "/" + attachmentId).getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // SHA-1 and UTF-8 are supported by every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the cached file of the key, marking it as the most recently used, or null if it is
+     * not cached.
+     *
+     * @param key
+     * @return
+     */
+    public synchronized File get(String key) {
+        Long length = entries.get(key);
+        if (length == null) {
+            return null;
+        }
+        File file = new File(directory, key);
+        if (!file.isFile()) {
+            // removed behind our back
+            entries.remove(key);
+            totalBytes -= length;
+            return null;
+        }
+        // keeps the order of use across runs
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Returns the file in which the content of the key is written before being committed. It may
+     * hold the beginning of the content from an interrupted download.
+     *
+     * @param key
+     * @return
+     */
+    public File getPartFile(String key) {
+        return new File(directory, key + PART_SUFFIX);
+    }
+
+    /**
+     * Moves the complete part file of the key into the cache and evicts the least recently used
+     * files over the maximum size. Contents bigger than the whole cache are not cached.
+     *
+     * @param key
+     * @return the cached file, or null if the content is bigger than the cache
+     * @throws IOException
+     */
+    public synchronized File commit(String key) throws IOException {
+        File part = getPartFile(key);
+        long length = part.length();
+        if (length > maxBytes) {
+            return null;
+        }
+        File file = new File(directory, key);
+        Long previous = entries.remove(key);
+        if (previous != null) {
+            totalBytes -= previous;
+        }
+        if (!part.renameTo(file)) {
+            file.delete();
+            if (!part.renameTo(file)) {
+                throw new IOException("AttachmentCache: cannot move " + part + " to " + file);
+            }
+        }
+        entries.put(key, length);
+        totalBytes += length;
+        evict();
+        return file;
+    }
+
+    /**
+     * Copies the source file into the cache under the key
+     *
+     * @param key
+     * @param source
+     * @return the cached file, or null if the content is bigger than the cache
+     * @throws IOException
+     */
+    public File put(String key, File source) throws IOException {
+        if (source.length() > maxBytes) {
+            return null;
+        }
+        File part = getPartFile(key);
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(part).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        return commit(key);
+    }
+
+    /**
+     * Waits until no other thread holds the key, then holds it. Used to download the content of
+     * a key only once at a time. Each call must be followed by {@link #release(String)}.
+     *
+     * @param key
+     * @throws InterruptedException
+     */
+    public synchronized void acquire(String key) throws InterruptedException {
+        while (lockedKeys.contains(key)) {
+            wait();
+        }
+        lockedKeys.add(key);
+    }
+
+    public synchronized void release(String key) {
+        lockedKeys.remove(key);
+        notifyAll();
+    }
+
+    /**
+     * Deletes all the cached files
+     */
+    public synchronized void clear() {
+        for (String key : entries.keySet()) {
+            new File(directory, key).delete();
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Deletes the least recently used files until the total size fits the maximum
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            totalBytes -= entry.getValue();
+            new File(directory, entry.getKey()).delete();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.pryv.database;
+
+import com.pryv.model.Event;
+
+import java.util.Collection;
+
+/**
+ * Local store of Events kept up to date by a SyncSession. Implementations may keep the Events in
+ * memory or persist them.
+ */
+public interface EventStore {
+
+    /**
+     * Returns the Event with the provided id, null if it is not stored
+     *
+     * @param id
+     * @return
+     */
+    Event get(String id);
+
+    /**
+     * Stores the Event, replacing any Event with the same id
+     *
+     * @param event
+     */
+    void put(Event event);
+
+    /**
+     * Removes the Event with the provided id
+     *
+     * @param id
+     * @return the removed Event, null if it was not stored
+     */
+    Event remove(String id);
+
+    /**
+     * Returns all the stored Events
+     *
+     * @return
+     */
+    Collection<Event> getAll();
+
+    /**
+     * Removes all the stored Events
+     */
+    void clear();
+}
@@ -0,0 +1,45 @@
+package com.pryv.database;
+
+import com.pryv.model.Event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * EventStore keeping the Events in memory, indexed by id.
+ */
+public class InMemoryEventStore implements EventStore {
+
+    private Map<String, Event> events = new ConcurrentHashMap<>();
+
+    @Override
+    public Event get(String id) {
+        return events.get(id);
+    }
+
+    @Override
+    public void put(Event event) {
+        events.put(event.getId(), event);
+    }
+
+    @Override
+    public Event remove(String id) {
+        return events.remove(id);
+    }
+
+    @Override
+    public Collection<Event> getAll() {
+        return new ArrayList<>(events.values());
+    }
+
+    @Override
+    public void clear() {
+        events.clear();
+    }
+
+    public int size() {
+        return events.size();
+    }
+}
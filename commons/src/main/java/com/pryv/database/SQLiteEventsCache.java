@@ -0,0 +1,465 @@
+package com.pryv.database;
+
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.FilterMatcher;
+import com.pryv.model.Stream;
+import com.pryv.utils.JsonConverter;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * On-disk cache of Events backed by SQLite. It holds the Events of a single scope - a set of
+ * Streams and a time range - as of the last server time it was synchronized at. Filters included
+ * in the scope can be answered locally once the changes since that time have been applied.
+ * Only Filters with an explicit fromTime and toTime are cached, since the API applies a default
+ * limit to the others.
+ */
+public class SQLiteEventsCache {
+
+    private static final String EVENTS_TABLE = "events";
+    private static final String SCOPE_TABLE = "scope";
+
+    private static final String ID_KEY = "id";
+    private static final String STREAM_ID_KEY = "streamId";
+    private static final String TIME_KEY = "time";
+    private static final String DURATION_KEY = "duration";
+    private static final String MODIFIED_KEY = "modified";
+    private static final String TRASHED_KEY = "trashed";
+    private static final String JSON_KEY = "json";
+    private static final String STREAM_IDS_KEY = "streamIds";
+    private static final String FROM_TIME_KEY = "fromTime";
+    private static final String TO_TIME_KEY = "toTime";
+    private static final String SERVER_TIME_KEY = "serverTime";
+
+    private Connection dbConnection;
+    private Filter scope;
+    private double serverTime;
+
+    /**
+     * Opens or creates the cache database at the provided path and reloads its scope.
+     *
+     * @param dbPath
+     *          path of the SQLite database file
+     * @throws SQLException
+     */
+    public SQLiteEventsCache(String dbPath) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("SQLiteEventsCache: SQLite JDBC driver not found", e);
+        }
+        dbConnection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+        createTables();
+        loadScope();
+    }
+
+    private void createTables() throws SQLException {
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + EVENTS_TABLE + " ("
+                    + ID_KEY + " TEXT PRIMARY KEY NOT NULL, "
+                    + STREAM_ID_KEY + " TEXT NOT NULL, "
+                    + TIME_KEY + " REAL, "
+                    + MODIFIED_KEY + " REAL, "
+                    + TRASHED_KEY + " INTEGER, "
+                    + JSON_KEY + " TEXT NOT NULL, "
+                    + DURATION_KEY + " REAL)");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS events_streamId ON "
+                    + EVENTS_TABLE + " (" + STREAM_ID_KEY + ")");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS events_time ON "
+                    + EVENTS_TABLE + " (" + TIME_KEY + ")");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS events_modified ON "
+                    + EVENTS_TABLE + " (" + MODIFIED_KEY + ")");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + SCOPE_TABLE + " ("
+                    + ID_KEY + " INTEGER PRIMARY KEY, "
+                    + STREAM_IDS_KEY + " TEXT, "
+                    + FROM_TIME_KEY + " REAL NOT NULL, "
+                    + TO_TIME_KEY + " REAL NOT NULL, "
+                    + SERVER_TIME_KEY + " REAL NOT NULL)");
+            if (!hasColumn(statement, EVENTS_TABLE, DURATION_KEY)) {
+                // Events cached without their duration are fetched again
+                statement.executeUpdate("ALTER TABLE " + EVENTS_TABLE + " ADD COLUMN " + DURATION_KEY + " REAL");
+                statement.executeUpdate("DELETE FROM " + EVENTS_TABLE);
+                statement.executeUpdate("DELETE FROM " + SCOPE_TABLE);
+            }
+        }
+    }
+
+    private static boolean hasColumn(Statement statement, String table, String column) throws SQLException {
+        try (ResultSet columns = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (columns.next()) {
+                if (column.equals(columns.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reloads the scope persisted by a previous session. Its Streams are restored without their
+     * children, so only Filters on the very same Streams are then recognized as included.
+     */
+    private void loadScope() throws SQLException {
+        try (Statement statement = dbConnection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT * FROM " + SCOPE_TABLE)) {
+            if (result.next()) {
+                Filter loadedScope = new Filter()
+                        .setFromTime(result.getDouble(FROM_TIME_KEY))
+                        .setToTime(result.getDouble(TO_TIME_KEY));
+                String streamIds = result.getString(STREAM_IDS_KEY);
+                if (streamIds != null) {
+                    for (String streamId : (String[]) JsonConverter.fromJson(streamIds, String[].class)) {
+                        loadedScope.addStream(new Stream(streamId, null));
+                    }
+                }
+                scope = loadedScope;
+                serverTime = result.getDouble(SERVER_TIME_KEY);
+            }
+        } catch (IOException e) {
+            throw new SQLException("SQLiteEventsCache: invalid stored scope", e);
+        }
+    }
+
+    /**
+     * Returns true if the Filter can be cached: it has an explicit time range and no paging
+     * or modification based criteria.
+     *
+     * @param filter
+     * @return
+     */
+    public static boolean isCacheable(Filter filter) {
+        return filter != null
+                && filter.getFromTime() != null
+                && filter.getToTime() != null
+                && filter.getSkip() == null
+                && filter.getLimit() == null
+                && filter.getModifiedSince() == null
+                && filter.getRunning() == null
+                && filter.getIncludeDeletions() == null
+                && filter.getIncludeDeletionsSince() == null;
+    }
+
+    /**
+     * Returns true if the Filter's Events are all held by the cache's scope, so that it can be
+     * answered locally once the cache is up to date.
+     *
+     * @param filter
+     * @return
+     */
+    public synchronized boolean covers(Filter filter) {
+        return scope != null
+                && isCacheable(filter)
+                && filter.getFromTime() >= scope.getFromTime()
+                && filter.getToTime() <= scope.getToTime()
+                && filter.isIncludedInScope(scope);
+    }
+
+    /**
+     * Returns the Filter to send to the API to fetch the changes since the last synchronization,
+     * including trashed and deleted Events. It is not restricted to the scope's time range and
+     * Streams: Events moved out of the scope must be fetched to be removed, the scope is applied
+     * locally by {@link #applyChanges(List, Collection, double)}.
+     *
+     * @return
+     */
+    public synchronized Filter createDeltaFilter() {
+        if (scope == null) {
+            return null;
+        }
+        return createDeltaFilter(serverTime);
+    }
+
+    /**
+     * Returns the Filter to send to the API to fetch all the changes since the provided server
+     * time, including trashed and deleted Events, whatever their Streams and time.
+     *
+     * @param sinceServerTime
+     *          the server time of the last synchronization
+     * @return
+     */
+    public static Filter createDeltaFilter(double sinceServerTime) {
+        // an explicit time range keeps the API from applying its default limit
+        return new Filter()
+                .setFromTime(0.0)
+                .setState(Filter.State.ALL)
+                .setModifiedSince(sinceServerTime)
+                .setIncludeDeletions(true)
+                .setIncludeDeletionsSince(sinceServerTime);
+    }
+
+    /**
+     * Returns the Filter to send to the API to fetch all the Events of a new scope, including
+     * trashed ones.
+     *
+     * @param newScope
+     * @return
+     */
+    public static Filter createScopeFilter(Filter newScope) {
+        Filter scopeFilter = newScope.copy().setState(Filter.State.ALL);
+        scopeFilter.setTags(null);
+        scopeFilter.setTypes(null);
+        scopeFilter.setSortAscending(null);
+        return scopeFilter;
+    }
+
+    /**
+     * Replaces the cached scope and its Events.
+     *
+     * @param newScope
+     * @param events
+     *          all the Events of the scope
+     * @param newServerTime
+     *          the server time of the response holding the Events
+     * @throws SQLException
+     */
+    public synchronized void replaceScope(Filter newScope, List<Event> events, double newServerTime)
+            throws SQLException {
+        boolean autoCommit = dbConnection.getAutoCommit();
+        dbConnection.setAutoCommit(false);
+        try {
+            try (Statement statement = dbConnection.createStatement()) {
+                statement.executeUpdate("DELETE FROM " + EVENTS_TABLE);
+                statement.executeUpdate("DELETE FROM " + SCOPE_TABLE);
+            }
+            insertEvents(events);
+            try (PreparedStatement statement = dbConnection.prepareStatement("INSERT INTO " + SCOPE_TABLE
+                    + " (" + ID_KEY + ", " + STREAM_IDS_KEY + ", " + FROM_TIME_KEY + ", " + TO_TIME_KEY + ", "
+                    + SERVER_TIME_KEY + ") VALUES (0, ?, ?, ?, ?)")) {
+                Set<String> streamIds = newScope.getStreamIds();
+                statement.setString(1, streamIds == null ? null : JsonConverter.toJson(streamIds));
+                statement.setDouble(2, newScope.getFromTime());
+                statement.setDouble(3, newScope.getToTime());
+                statement.setDouble(4, newServerTime);
+                statement.executeUpdate();
+            }
+            dbConnection.commit();
+            scope = new Filter()
+                    .setFromTime(newScope.getFromTime())
+                    .setToTime(newScope.getToTime())
+                    .setStreamIds(newScope.getStreams() == null ? null : new HashSet<>(newScope.getStreams()));
+            serverTime = newServerTime;
+        } catch (SQLException | IOException e) {
+            dbConnection.rollback();
+            throw e instanceof SQLException ? (SQLException) e
+                    : new SQLException("SQLiteEventsCache: failed storing scope", e);
+        } finally {
+            dbConnection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Applies the changes fetched with the delta Filter. Changed Events outside of the scope,
+     * including its Streams' descendants known through their children, are removed.
+     *
+     * @param changedEvents
+     *          the Events created, updated or trashed since the last synchronization
+     * @param deletedEventIds
+     *          the ids of the Events deleted since the last synchronization
+     * @param newServerTime
+     *          the server time of the response holding the changes
+     * @throws SQLException
+     */
+    public synchronized void applyChanges(List<Event> changedEvents, Collection<String> deletedEventIds,
+                                          double newServerTime) throws SQLException {
+        applyChanges(changedEvents, deletedEventIds, newServerTime, scope.compile());
+    }
+
+    /**
+     * Applies the changes fetched with the delta Filter, keeping the changed Events matched by
+     * the scope matcher and removing the others.
+     *
+     * @param changedEvents
+     *          the Events created, updated or trashed since the last synchronization
+     * @param deletedEventIds
+     *          the ids of the Events deleted since the last synchronization
+     * @param newServerTime
+     *          the server time of the response holding the changes
+     * @param scopeMatcher
+     *          the compiled scope, see {@link com.pryv.connection.ConnectionStreams#compile(Filter)}
+     *          to include all the known descendants of its Streams
+     * @throws SQLException
+     */
+    public synchronized void applyChanges(List<Event> changedEvents, Collection<String> deletedEventIds,
+                                          double newServerTime, FilterMatcher scopeMatcher) throws SQLException {
+        List<Event> scopeEvents = new ArrayList<>();
+        List<String> removedEventIds = new ArrayList<>(deletedEventIds);
+        for (Event event : changedEvents) {
+            if (scopeMatcher.match(event)) {
+                scopeEvents.add(event);
+            } else {
+                // moved out of the scope
+                removedEventIds.add(event.getId());
+            }
+        }
+        boolean autoCommit = dbConnection.getAutoCommit();
+        dbConnection.setAutoCommit(false);
+        try {
+            insertEvents(scopeEvents);
+            try (PreparedStatement statement = dbConnection.prepareStatement(
+                    "DELETE FROM " + EVENTS_TABLE + " WHERE " + ID_KEY + " = ?")) {
+                for (String removedEventId : removedEventIds) {
+                    statement.setString(1, removedEventId);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            try (PreparedStatement statement = dbConnection.prepareStatement(
+                    "UPDATE " + SCOPE_TABLE + " SET " + SERVER_TIME_KEY + " = ?")) {
+                statement.setDouble(1, newServerTime);
+                statement.executeUpdate();
+            }
+            dbConnection.commit();
+            serverTime = newServerTime;
+        } catch (SQLException e) {
+            dbConnection.rollback();
+            throw e;
+        } finally {
+            dbConnection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void insertEvents(List<Event> events) throws SQLException {
+        try (PreparedStatement statement = dbConnection.prepareStatement("INSERT OR REPLACE INTO " + EVENTS_TABLE
+                + " (" + ID_KEY + ", " + STREAM_ID_KEY + ", " + TIME_KEY + ", " + MODIFIED_KEY + ", "
+                + TRASHED_KEY + ", " + JSON_KEY + ", " + DURATION_KEY + ") VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            for (Event event : events) {
+                statement.setString(1, event.getId());
+                statement.setString(2, event.getStreamId());
+                setNullableDouble(statement, 3, event.getTime());
+                setNullableDouble(statement, 4, event.getModified());
+                statement.setInt(5, event.isTrashed() ? 1 : 0);
+                statement.setString(6, JsonConverter.toJson(event));
+                setNullableDouble(statement, 7, event.getDuration());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } catch (IOException e) {
+            throw new SQLException("SQLiteEventsCache: failed serializing event", e);
+        }
+    }
+
+    private static void setNullableDouble(PreparedStatement statement, int index, Double value)
+            throws SQLException {
+        if (value == null) {
+            statement.setNull(index, java.sql.Types.REAL);
+        } else {
+            statement.setDouble(index, value);
+        }
+    }
+
+    /**
+     * Answers the Filter from the cached Events, sorted and paged as the API does: by descending
+     * time unless sortAscending is set, non-trashed Events only unless a state is set. Only the
+     * descendants of the Filter's Streams known through their children are included.
+     *
+     * @param filter
+     *          a Filter covered by the cache
+     * @return
+     * @throws SQLException
+     */
+    public synchronized List<Event> query(Filter filter) throws SQLException {
+        return query(filter, filter.compile());
+    }
+
+    /**
+     * Answers the Filter from the cached Events, sorted and paged as the API does: by descending
+     * time unless sortAscending is set, non-trashed Events only unless a state is set. Events
+     * with a duration are included if their period overlaps the Filter's time range.
+     *
+     * @param filter
+     *          a Filter covered by the cache
+     * @param matcher
+     *          the compiled Filter, see {@link com.pryv.connection.ConnectionStreams#compile(Filter)}
+     *          to include all the known descendants of its Streams
+     * @return
+     * @throws SQLException
+     */
+    public synchronized List<Event> query(Filter filter, FilterMatcher matcher) throws SQLException {
+        Set<String> streamIds = matcher.getStreamIds();
+        StringBuilder sql = new StringBuilder("SELECT " + JSON_KEY + " FROM " + EVENTS_TABLE
+                + " WHERE " + TIME_KEY + " <= ? AND " + TIME_KEY + " + IFNULL(" + DURATION_KEY + ", 0) >= ?");
+        Filter.State state = filter.getState() == null ? Filter.State.DEFAULT : filter.getState();
+        if (state == Filter.State.DEFAULT) {
+            sql.append(" AND " + TRASHED_KEY + " = 0");
+        } else if (state == Filter.State.TRASHED) {
+            sql.append(" AND " + TRASHED_KEY + " = 1");
+        }
+        if (streamIds != null) {
+            sql.append(" AND " + STREAM_ID_KEY + " IN (");
+            for (int i = 0; i < streamIds.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+        }
+        boolean ascending = Boolean.TRUE.equals(filter.getSortAscending());
+        sql.append(" ORDER BY " + TIME_KEY + (ascending ? " ASC" : " DESC"));
+
+        int skip = filter.getSkip() == null ? 0 : filter.getSkip();
+        int limit = filter.getLimit() == null ? Integer.MAX_VALUE : filter.getLimit();
+
+        List<Event> events = new ArrayList<>();
+        try (PreparedStatement statement = dbConnection.prepareStatement(sql.toString())) {
+            int index = 1;
+            statement.setDouble(index++, filter.getToTime());
+            statement.setDouble(index++, filter.getFromTime());
+            if (streamIds != null) {
+                for (String streamId : streamIds) {
+                    statement.setString(index++, streamId);
+                }
+            }
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next() && events.size() < limit) {
+                    Event event = (Event) JsonConverter.fromJson(result.getString(1), Event.class);
+                    if (matcher.match(event)) {
+                        if (skip > 0) {
+                            skip--;
+                        } else {
+                            events.add(event);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException("SQLiteEventsCache: failed reading cached event", e);
+        }
+        return events;
+    }
+
+    public synchronized Filter getScope() {
+        return scope;
+    }
+
+    public synchronized double getServerTime() {
+        return serverTime;
+    }
+
+    /**
+     * Removes all cached Events and the scope.
+     *
+     * @throws SQLException
+     */
+    public synchronized void clear() throws SQLException {
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.executeUpdate("DELETE FROM " + EVENTS_TABLE);
+            statement.executeUpdate("DELETE FROM " + SCOPE_TABLE);
+        }
+        scope = null;
+        serverTime = 0;
+    }
+
+    public synchronized void close() throws SQLException {
+        dbConnection.close();
+    }
+}
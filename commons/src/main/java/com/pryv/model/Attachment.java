@@ -6,6 +6,10 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Attachment from Pryv API
@@ -25,6 +29,8 @@ public class Attachment {
 
   @JsonIgnore
   private File file;
+  @JsonIgnore
+  private Object data;
 
   /**
    * empty constructor
@@ -100,8 +106,72 @@ public class Attachment {
 
   public Attachment setFile(File file) {
     this.file = file;
+    this.data = null;
     this.size = file.length();
     return this;
   }
 
+  /**
+   * Returns the data to upload set by one of the setData methods: an InputStream, a ByteBuffer
+   * or a FileChannel, null if the data is a File or if there is none
+   *
+   * @return
+   */
+  public Object getData() {
+    return data;
+  }
+
+  /**
+   * Sets the data to upload, read once from the stream and closed when the Event is created
+   *
+   * @param stream
+   * @param size
+   *          the number of bytes of the stream, -1 if unknown
+   * @return
+   */
+  public Attachment setData(InputStream stream, long size) {
+    this.data = stream;
+    this.file = null;
+    this.size = size;
+    return this;
+  }
+
+  /**
+   * Sets the data to upload, the remaining bytes of the buffer. The buffer's position is left
+   * unchanged.
+   *
+   * @param buffer
+   * @return
+   */
+  public Attachment setData(ByteBuffer buffer) {
+    this.data = buffer;
+    this.file = null;
+    this.size = buffer.remaining();
+    return this;
+  }
+
+  /**
+   * Sets the data to upload, the bytes of the channel from its position when the Event is
+   * created. The channel's position is left unchanged.
+   *
+   * @param channel
+   * @return
+   * @throws IOException
+   */
+  public Attachment setData(FileChannel channel) throws IOException {
+    this.data = channel;
+    this.file = null;
+    this.size = channel.size() - channel.position();
+    return this;
+  }
+
+  /**
+   * Returns whether the attachment has a File or data to upload
+   *
+   * @return
+   */
+  public boolean hasContent() {
+    return file != null || data != null;
+  }
+
 }
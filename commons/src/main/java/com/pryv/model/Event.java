@@ -1,5 +1,6 @@
 package com.pryv.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
@@ -44,12 +45,35 @@ public class Event extends ApiResource {
   private boolean deleted;
 
   /**
-   * empty Event constructor
+   * empty Event constructor, a unique id is generated
    */
   public Event() {
     this.generateId();
   }
 
+  /**
+   * Event constructor leaving the id empty
+   *
+   * @param generateId
+   *          false to leave the id empty
+   */
+  private Event(boolean generateId) {
+    if (generateId) {
+      this.generateId();
+    }
+  }
+
+  /**
+   * Creates an empty Event without id, used by Jackson when binding Events whose id is read
+   * from the JSON, generating one for each would be wasted.
+   *
+   * @return
+   */
+  @JsonCreator
+  private static Event createWithoutId() {
+    return new Event(false);
+  }
+
   /**
    * Constructor for Event object with mandatory fields
    *
@@ -438,8 +462,7 @@ public class Event extends ApiResource {
   }
 
   public Event cloneMutableFields() {
-    return new Event()
-            .setId(null)
+    return new Event(false)
             .setStreamId(this.streamId)
             .setTime(this.time)
             .setType(this.type)
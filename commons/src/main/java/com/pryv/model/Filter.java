@@ -1,7 +1,9 @@
 package com.pryv.model;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Filter used in Events fetching. All its fields are optional. Either
@@ -101,94 +103,107 @@ public class Filter {
   }
 
   /**
-   * Verify if an Event matches this filter.
+   * Returns a copy of this Filter. Its Stream, tag and type sets are copied, not the Streams
+   * themselves.
+   *
+   * @return
+   */
+  public Filter copy() {
+    return new Filter(fromTime, toTime,
+      streams == null ? null : new HashSet<Stream>(streams),
+      tags == null ? null : new HashSet<String>(tags),
+      types == null ? null : new HashSet<String>(types),
+      running, sortAscending, skip, limit, state, modifiedSince, parentId, includeDeletions,
+      includeDeletionsSince);
+  }
+
+  /**
+   * Verify if an Event matches this filter. Only Events in the Filter's Streams themselves
+   * match, see {@link #compile()} to include their descendants.
    *
    * @param event
    *          the tested Event
    * @return
    */
   public Boolean match(Event event) {
-
-    // fromTime
-    Boolean fromTimeMatch = true;
-    if (fromTime != null) {
-      if (fromTime > event.getTime()) {
-        fromTimeMatch = false;
+    if (fromTime != null || toTime != null) {
+      Double time = event.getTime();
+      if (time == null
+          || fromTime != null && fromTime.doubleValue() > time.doubleValue()
+          || toTime != null && toTime.doubleValue() < time.doubleValue()) {
+        return false;
       }
     }
-
-    // toTime
-    Boolean toTimeMatch = true;
-    if (toTime != null) {
-      if (toTime < event.getTime()) {
-        toTimeMatch = false;
-      }
+    if (streams != null && !containsStreamId(event.getStreamId())) {
+      return false;
     }
-
-    // streamIds
-    Boolean streamIdMatch = true;
-    if (streams != null) {
-      streamIdMatch = false;
-      for (Stream stream : streams) {
-        if ((stream.getId()).equals(event.getStreamId())) {
-          streamIdMatch = true;
-        }
-      }
+    if (tags != null && event.getTags() != null && !containsAnyTag(event.getTags())) {
+      return false;
     }
-
-    // tags
-    Boolean tagMatch = true;
-    if (tags != null) {
-      if (event.getTags() != null) {
-        Set<String> intersectSets = new HashSet<String>(tags);
-        intersectSets.retainAll(event.getTags());
-        if (intersectSets.size() == 0) {
-          tagMatch = false;
-        }
-      }
+    if (types != null && event.getType() != null && !types.contains(event.getType())) {
+      return false;
     }
-
-    // types
-    Boolean typesMatch = true;
-    if (types != null) {
-      if (event.getType() != null) {
-        if (!types.contains(event.getType())) {
-          typesMatch = false;
-        }
+    if (state == State.DEFAULT && event.isTrashed()
+        || state == State.TRASHED && !event.isTrashed()) {
+      return false;
+    }
+    if (modifiedSince != null) {
+      Double modified = event.getModified();
+      if (modified == null || modifiedSince.doubleValue() > modified.doubleValue()) {
+        return false;
       }
     }
+    return true;
+  }
 
-    // running
-    Boolean runningMatch = true;
-
-    // State
-    Boolean stateMatch = true;
-    if (state != null) {
-      if (event.isTrashed()
-        && state.equals(State.DEFAULT)
-          || !event.isTrashed()
-          && state.equals(State.TRASHED)) {
-        stateMatch = false;
-
+  private boolean containsStreamId(String streamId) {
+    for (Stream stream : streams) {
+      if (stream.getId().equals(streamId)) {
+        return true;
       }
     }
+    return false;
+  }
 
-    // modifiedSince
-    Boolean modifiedSinceMatch = true;
-    if (modifiedSince != null) {
-      if (modifiedSince > event.getModified()) {
-        modifiedSinceMatch = false;
+  private boolean containsAnyTag(Set<String> eventTags) {
+    for (String tag : eventTags) {
+      if (tags.contains(tag)) {
+        return true;
       }
     }
+    return false;
+  }
+
+  /**
+   * Returns the Events matching the compiled Filter, see {@link #compile()}. Unlike
+   * {@link #match(Event)}, Events in descendants of the Filter's Streams match. Large lists are
+   * filtered in parallel.
+   *
+   * @param events
+   * @return the matching Events, in their original order
+   */
+  public List<Event> filterWithDescendants(List<Event> events) {
+    return compile().filter(events);
+  }
 
-    return fromTimeMatch
-      && toTimeMatch
-        && streamIdMatch
-        && tagMatch
-        && typesMatch
-        && runningMatch
-        && stateMatch
-        && modifiedSinceMatch;
+  /**
+   * Returns the Events matching the compiled Filter, see {@link #compile()}. Unlike
+   * {@link #match(Event)}, Events in descendants of the Filter's Streams match.
+   *
+   * @param events
+   * @return the matching Events, in their original order
+   */
+  public List<Event> filterWithDescendants(Iterable<Event> events) {
+    return compile().filter(events);
+  }
+
+  /**
+   * Compiles the Filter into an immutable matcher, to use when testing many Events against it.
+   *
+   * @return
+   */
+  public FilterMatcher compile() {
+    return new FilterMatcher(this);
   }
 
   /**
@@ -231,7 +246,8 @@ public class Filter {
   }
 
   /**
-   * format Filter as URL parameters for online requests
+   * format Filter as URL parameters for online requests. The form is canonical: stream ids, tags
+   * and types are sorted, so equal Filters give the same parameters.
    *
    * @return
    */
@@ -244,17 +260,17 @@ public class Filter {
       sb.append("&" + TO_TIME_URL_KEY + "=" + toTime);
     }
     if (streams != null) {
-      for (Stream stream : streams) {
-        sb.append("&" + STREAMS_URL_KEY + "=" + stream.getId());
+      for (String streamId : new TreeSet<String>(getStreamIds())) {
+        sb.append("&" + STREAMS_URL_KEY + "=" + streamId);
       }
     }
     if (tags != null) {
-      for (String string : tags) {
+      for (String string : new TreeSet<String>(tags)) {
         sb.append("&" + TAGS_URL_KEY + "=" + string);
       }
     }
     if (types != null) {
-      for (String string : types) {
+      for (String string : new TreeSet<String>(types)) {
         sb.append("&" + TYPES_URL_KEY + "=" + string);
       }
     }
@@ -288,6 +304,45 @@ public class Filter {
     return sb.toString();
   }
 
+  /**
+   * Filters are equal when they select the same Events: their Streams are compared by id and
+   * the order of their sets does not matter. As Filters are mutable, a Filter must not be
+   * modified while it is used as a key.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Filter)) {
+      return false;
+    }
+    Filter other = (Filter) o;
+    return equal(fromTime, other.fromTime)
+        && equal(toTime, other.toTime)
+        && equal(getStreamIds(), other.getStreamIds())
+        && equal(tags, other.tags)
+        && equal(types, other.types)
+        && equal(running, other.running)
+        && equal(sortAscending, other.sortAscending)
+        && equal(skip, other.skip)
+        && equal(limit, other.limit)
+        && state == other.state
+        && equal(modifiedSince, other.modifiedSince)
+        && equal(parentId, other.parentId)
+        && equal(includeDeletions, other.includeDeletions)
+        && equal(includeDeletionsSince, other.includeDeletionsSince);
+  }
+
+  @Override
+  public int hashCode() {
+    return toUrlParameters().hashCode();
+  }
+
+  private static boolean equal(Object o1, Object o2) {
+    return o1 == null ? o2 == null : o1.equals(o2);
+  }
+
   /**
    * check if this filter is included in the scope passed in argument. If scope.streams is null,
    * we consider that the scope is the whole Pryv data.
@@ -298,18 +353,14 @@ public class Filter {
   public boolean isIncludedInScope(Filter scope) {
     if (scope.streams == null) {
       return true;
+    } else if (this.streams == null) {
+      // this filter targets all streams, which a restricted scope cannot include
+      return false;
     } else {
-      // test for each scope streamId if it is or its child is
+      // test for each streamId if it is a scope stream or one of their descendants
+      FilterMatcher scopeMatcher = scope.compile();
       for (Stream stream : this.streams) {
-        boolean isStreamOrParentFound = false;
-        for (Stream scopeStream : scope.streams) {
-          if (scopeStream.getId().equals(stream.getId())) {
-            isStreamOrParentFound = true;
-          } else if (scopeStream.hasChild(stream.getId())) {
-            isStreamOrParentFound = true;
-          }
-        }
-        if (!isStreamOrParentFound) {
+        if (!scopeMatcher.hasInScope(stream.getId())) {
           return false;
         }
       }
@@ -0,0 +1,218 @@
+package com.pryv.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Immutable matcher compiled from a {@link Filter}, used to test many Events against the same
+ * Filter. The Streams of the Filter are expanded once into the set of their ids and the ids of
+ * all their known descendants (through their children), so that each check on the Stream of an
+ * Event is a single hash lookup. Matching allocates nothing, and being immutable a matcher can
+ * be used from many threads at once. Later changes to the Filter or to its Streams do not affect
+ * the matcher.
+ */
+public final class FilterMatcher {
+
+  /**
+   * size from which lists are filtered in parallel
+   */
+  public static final int PARALLEL_THRESHOLD = 10000;
+  private static final int SEQUENTIAL_THRESHOLD = 2048;
+  private static ForkJoinPool forkJoinPool;
+
+  private final boolean hasFromTime;
+  private final double fromTime;
+  private final boolean hasToTime;
+  private final double toTime;
+  private final Set<String> streamIds;
+  private final Set<String> tags;
+  private final Set<String> types;
+  private final Filter.State state;
+  private final boolean hasModifiedSince;
+  private final double modifiedSince;
+
+  FilterMatcher(Filter filter) {
+    hasFromTime = filter.getFromTime() != null;
+    fromTime = hasFromTime ? filter.getFromTime() : 0;
+    hasToTime = filter.getToTime() != null;
+    toTime = hasToTime ? filter.getToTime() : 0;
+    if (filter.getStreams() != null) {
+      Set<String> expandedIds = new HashSet<String>();
+      for (Stream stream : filter.getStreams()) {
+        collectDescendantIds(stream, expandedIds);
+      }
+      streamIds = Collections.unmodifiableSet(expandedIds);
+    } else {
+      streamIds = null;
+    }
+    tags = filter.getTags() == null ? null : Collections.unmodifiableSet(new HashSet<String>(filter.getTags()));
+    types = filter.getTypes() == null ? null : Collections.unmodifiableSet(new HashSet<String>(filter.getTypes()));
+    state = filter.getState();
+    hasModifiedSince = filter.getModifiedSince() != null;
+    modifiedSince = hasModifiedSince ? filter.getModifiedSince() : 0;
+  }
+
+  private static void collectDescendantIds(Stream stream, Set<String> streamIds) {
+    if (streamIds.add(stream.getId()) && stream.getChildren() != null) {
+      for (Stream child : stream.getChildren()) {
+        collectDescendantIds(child, streamIds);
+      }
+    }
+  }
+
+  /**
+   * Returns <tt>true</tt> if the Event matches the compiled Filter. Same rules as
+   * {@link Filter#match(Event)}, except that Events in descendants of the Filter's Streams
+   * match and that Events with a duration match if their period overlaps the time range, as
+   * they do in the API, and that Events missing a time or modified field do not match a Filter
+   * restricting it.
+   *
+   * @param event
+   * @return
+   */
+  public boolean match(Event event) {
+    if (hasFromTime || hasToTime) {
+      Double time = event.getTime();
+      if (time == null || hasToTime && toTime < time) {
+        return false;
+      }
+      if (hasFromTime) {
+        Double duration = event.getDuration();
+        if (fromTime > (duration == null ? time : time + duration)) {
+          return false;
+        }
+      }
+    }
+    if (streamIds != null && !streamIds.contains(event.getStreamId())) {
+      return false;
+    }
+    if (tags != null && event.getTags() != null && !containsAny(tags, event.getTags())) {
+      return false;
+    }
+    if (types != null && event.getType() != null && !types.contains(event.getType())) {
+      return false;
+    }
+    if (state == Filter.State.DEFAULT && event.isTrashed()
+        || state == Filter.State.TRASHED && !event.isTrashed()) {
+      return false;
+    }
+    if (hasModifiedSince) {
+      Double modified = event.getModified();
+      if (modified == null || modifiedSince > modified) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the matching Events. Lists of at least {@link #PARALLEL_THRESHOLD} Events
+   * supporting fast random access are split and filtered in parallel.
+   *
+   * @param events
+   * @return the matching Events, in their original order
+   */
+  public List<Event> filter(List<Event> events) {
+    if (events.size() < PARALLEL_THRESHOLD || !(events instanceof RandomAccess)) {
+      return filter((Iterable<Event>) events);
+    }
+    return getForkJoinPool().invoke(new FilterTask(events, 0, events.size()));
+  }
+
+  /**
+   * Returns the matching Events, tested one after the other.
+   *
+   * @param events
+   * @return the matching Events, in their original order
+   */
+  public List<Event> filter(Iterable<Event> events) {
+    List<Event> matchingEvents = new ArrayList<Event>();
+    for (Event event : events) {
+      if (match(event)) {
+        matchingEvents.add(event);
+      }
+    }
+    return matchingEvents;
+  }
+
+  private static synchronized ForkJoinPool getForkJoinPool() {
+    if (forkJoinPool == null) {
+      forkJoinPool = new ForkJoinPool();
+    }
+    return forkJoinPool;
+  }
+
+  /**
+   * Filters a range of a list, splitting it in halves until it is small enough
+   */
+  private class FilterTask extends RecursiveTask<List<Event>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Event> events;
+    private final int from;
+    private final int to;
+
+    FilterTask(List<Event> events, int from, int to) {
+      this.events = events;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<Event> compute() {
+      if (to - from <= SEQUENTIAL_THRESHOLD) {
+        List<Event> matchingEvents = new ArrayList<Event>();
+        for (int i = from; i < to; i++) {
+          Event event = events.get(i);
+          if (match(event)) {
+            matchingEvents.add(event);
+          }
+        }
+        return matchingEvents;
+      }
+      int middle = (from + to) >>> 1;
+      FilterTask second = new FilterTask(events, middle, to);
+      second.fork();
+      List<Event> matchingEvents = new FilterTask(events, from, middle).compute();
+      matchingEvents.addAll(second.join());
+      return matchingEvents;
+    }
+  }
+
+  private static boolean containsAny(Set<String> set, Set<String> candidates) {
+    for (String candidate : candidates) {
+      if (set.contains(candidate)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns <tt>true</tt> if the Stream is one of the Filter's Streams or one of their
+   * descendants, or if the Filter has no Streams.
+   *
+   * @param streamId
+   * @return
+   */
+  public boolean hasInScope(String streamId) {
+    return streamIds == null || streamIds.contains(streamId);
+  }
+
+  /**
+   * Returns the ids of the Filter's Streams and of their descendants, null if the Filter has
+   * no Streams.
+   *
+   * @return
+   */
+  public Set<String> getStreamIds() {
+    return streamIds;
+  }
+}
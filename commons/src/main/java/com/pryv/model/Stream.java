@@ -162,13 +162,14 @@ public class Stream extends ApiResource {
     if (this.id.equals(streamId)) {
       return true;
     }
-    boolean res = false;
     if (children != null) {
       for (Stream child : children) {
-        res = child.hasChild(streamId);
+        if (child.hasChild(streamId)) {
+          return true;
+        }
       }
     }
-    return res;
+    return false;
   }
 
   /**
@@ -358,6 +359,35 @@ public class Stream extends ApiResource {
     return this;
   }
 
+  /**
+   * Returns a copy of this Stream and of its descendants. Their client data maps are copied,
+   * not the values they hold.
+   *
+   * @return
+   */
+  public Stream copy() {
+    Set<Stream> childrenCopies = null;
+    if (children != null) {
+      childrenCopies = new HashSet<Stream>();
+      for (Stream child : children) {
+        childrenCopies.add(child.copy());
+      }
+    }
+    return new Stream()
+            .setId(this.id)
+            .setName(this.name)
+            .setParentId(this.parentId)
+            .setSingleActivity(this.singleActivity)
+            .setClientData(this.clientData == null ? null : new HashMap<String, Object>(this.clientData))
+            .setChildren(childrenCopies)
+            .setTrashed(this.trashed)
+            .setDeleted(this.deleted)
+            .setCreated(this.created)
+            .setCreatedBy(this.createdBy)
+            .setModified(this.modified)
+            .setModifiedBy(this.modifiedBy);
+  }
+
   public Stream cloneMutableFields() {
     return new Stream()
             .setId(null)
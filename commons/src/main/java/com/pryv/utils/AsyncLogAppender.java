@@ -0,0 +1,111 @@
+package com.pryv.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appender handing messages to a bounded ring buffer drained by a background thread into
+ * another appender, so that logging never blocks on I/O. When the buffer is full, new messages
+ * are dropped and counted instead of waiting.
+ */
+public class AsyncLogAppender implements LogAppender {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private final LogAppender delegate;
+  private final BlockingQueue<Entry> buffer;
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final Thread worker;
+  private volatile boolean closed;
+
+  /**
+   * @param delegate
+   *          the appender writing the messages, called from the background thread only
+   */
+  public AsyncLogAppender(LogAppender delegate) {
+    this(delegate, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param delegate
+   *          the appender writing the messages, called from the background thread only
+   * @param capacity
+   *          the number of messages the buffer holds
+   */
+  public AsyncLogAppender(LogAppender delegate, int capacity) {
+    this.delegate = delegate;
+    this.buffer = new ArrayBlockingQueue<>(capacity);
+    worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, "pryv-logger");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  @Override
+  public void append(Logger.Level level, String threadName, String message) {
+    if (closed || !buffer.offer(new Entry(level, threadName, message))) {
+      droppedCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of messages dropped because the buffer was full or the appender closed
+   *
+   * @return
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Stops accepting messages and waits for the buffered ones to be written
+   *
+   * @throws InterruptedException
+   */
+  public void close() throws InterruptedException {
+    closed = true;
+    worker.interrupt();
+    worker.join();
+  }
+
+  private void drain() {
+    while (true) {
+      Entry entry;
+      try {
+        entry = buffer.take();
+      } catch (InterruptedException e) {
+        // closed: write what is left
+        while ((entry = buffer.poll()) != null) {
+          write(entry);
+        }
+        return;
+      }
+      write(entry);
+    }
+  }
+
+  private void write(Entry entry) {
+    try {
+      delegate.append(entry.level, entry.threadName, entry.message);
+    } catch (RuntimeException e) {
+      droppedCount.incrementAndGet();
+    }
+  }
+
+  private static class Entry {
+    private final Logger.Level level;
+    private final String threadName;
+    private final String message;
+
+    Entry(Logger.Level level, String threadName, String message) {
+      this.level = level;
+      this.threadName = threadName;
+      this.message = message;
+    }
+  }
+}
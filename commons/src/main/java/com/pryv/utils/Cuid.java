@@ -1,23 +1,32 @@
 package com.pryv.utils;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Generates collision-resistant unique ids.
+ * Generates collision-resistant unique ids. Thread-safe and lock-free: the counter is atomic and
+ * each thread uses its own random generator.
  */
 public class Cuid {
     private static final int BASE = 36;
     private static final int BLOCK_SIZE = 4;
     private static final int DISCRETE_VALUES = (int) Math.pow(BASE, BLOCK_SIZE);
-    private static final String LETTER = "c";
+    private static final char LETTER = 'c';
+    private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+    // letter, timestamp (at most 13 digits in base 36), counter, fingerprint, 2 random blocks
+    private static final int MAX_LENGTH = 1 + 13 + 4 * BLOCK_SIZE;
 
     private static final String FINGERPRINT;
+    private static final char[] FINGERPRINT_CHARS;
 
     static {
         FINGERPRINT = getFingerprint();
+        FINGERPRINT_CHARS = FINGERPRINT.toCharArray();
     }
 
-    private static int counter = 0;
+    private static final AtomicInteger counter = new AtomicInteger();
 
     public static String getFingerprint() {
         long hostId = Thread.currentThread().getId();
@@ -40,25 +49,71 @@ public class Cuid {
         return (padded).substring(padded.length() - size);
     }
 
-    private static String getRandomBlock() {
-        return pad(Integer.toString((int) (Math.random() * DISCRETE_VALUES), BASE), BLOCK_SIZE);
-    }
-
-    private static int safeCounter() {
-        counter = counter < DISCRETE_VALUES ? counter : 0;
-        return counter++;
-    }
-
     /**
      * Generates collision-resistant unique ids.
      *
      * @return a collision-resistant unique id
      */
     public static String createCuid() {
-        String timestamp = Long.toString(new Date().getTime(), BASE);
-        String counter = pad(Integer.toString(safeCounter(), BASE), BLOCK_SIZE);
-        String random = getRandomBlock() + getRandomBlock();
+        return createCuid(System.currentTimeMillis(), counter.getAndIncrement(), ThreadLocalRandom.current());
+    }
 
-        return LETTER + timestamp + counter + FINGERPRINT + random;
+    /**
+     * Generates many collision-resistant unique ids at once, reading the clock and reserving
+     * counter values only once.
+     *
+     * @param n
+     *          the number of ids to generate
+     * @return
+     */
+    public static List<String> createCuids(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cuid: the number of ids must not be negative");
+        }
+        long timestamp = System.currentTimeMillis();
+        int firstCount = counter.getAndAdd(n);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> cuids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            cuids.add(createCuid(timestamp, firstCount + i, random));
+        }
+        return cuids;
+    }
+
+    private static String createCuid(long timestamp, int count, ThreadLocalRandom random) {
+        char[] buffer = new char[MAX_LENGTH];
+        int position = 0;
+        buffer[position++] = LETTER;
+        position = writeTimestamp(timestamp, buffer, position);
+        // the counter wraps around after DISCRETE_VALUES ids, overflow included
+        position = writeBlock((count & Integer.MAX_VALUE) % DISCRETE_VALUES, buffer, position);
+        System.arraycopy(FINGERPRINT_CHARS, 0, buffer, position, FINGERPRINT_CHARS.length);
+        position += FINGERPRINT_CHARS.length;
+        position = writeBlock(random.nextInt(DISCRETE_VALUES), buffer, position);
+        position = writeBlock(random.nextInt(DISCRETE_VALUES), buffer, position);
+        return new String(buffer, 0, position);
+    }
+
+    private static int writeTimestamp(long timestamp, char[] buffer, int position) {
+        int length = 1;
+        for (long rest = timestamp / BASE; rest > 0; rest /= BASE) {
+            length++;
+        }
+        for (int i = position + length - 1; i >= position; i--) {
+            buffer[i] = DIGITS[(int) (timestamp % BASE)];
+            timestamp /= BASE;
+        }
+        return position + length;
+    }
+
+    /**
+     * Writes the value in base 36, left-padded with zeros to BLOCK_SIZE digits
+     */
+    private static int writeBlock(int value, char[] buffer, int position) {
+        for (int i = position + BLOCK_SIZE - 1; i >= position; i--) {
+            buffer[i] = DIGITS[value % BASE];
+            value /= BASE;
+        }
+        return position + BLOCK_SIZE;
     }
-}
\ No newline at end of file
+}
@@ -1,19 +1,28 @@
 package com.pryv.utils;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pryv.exceptions.ApiException;
+import com.pryv.model.Access;
 import com.pryv.model.ApiResource;
 import com.pryv.model.Attachment;
 import com.pryv.model.Event;
+import com.pryv.model.Permission;
 import com.pryv.model.Stream;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +35,7 @@ public class JsonConverter {
 
   private static ObjectMapper jsonMapper = new ObjectMapper();
   private static Logger logger = Logger.getInstance();
+  private static volatile boolean codecsEnabled = true;
 
   private final static String EVENT_KEY = "event";
   private final static String EVENTS_KEY = "events";
@@ -33,10 +43,13 @@ public class JsonConverter {
   private final static String STREAMS_KEY = "streams";
 
   private final static String STREAM_DELETIONS_KEY = "streamDeletions";
+  private final static String EVENT_DELETIONS_KEY = "eventDeletions";
   private final static String DELETED_KEY = "deleted";
 
   private final static String STOPPED_ID_KEY = "stoppedId";
 
+  private final static String RESULTS_KEY = "results";
+
   private final static String META_KEY = "meta";
   private final static String SERVER_TIME_KEY = "serverTime";
 
@@ -44,6 +57,21 @@ public class JsonConverter {
   private final static String EVENT_DELETION_KEY = "eventDeletion";
   private final static String ID_KEY = "id";
 
+  /**
+   * Sets whether Events, Streams, Accesses, Permissions and Attachments are converted with the
+   * streaming {@link ResourceCodec} (the default) or with the reflective ObjectMapper bindings.
+   * Both give the same results, the ObjectMapper being slower.
+   *
+   * @param enabled
+   */
+  public static void setCodecsEnabled(boolean enabled) {
+    codecsEnabled = enabled;
+  }
+
+  public static boolean isCodecsEnabled() {
+    return codecsEnabled;
+  }
+
   /**
    * Deserialize JSON into an object
    *
@@ -57,6 +85,18 @@ public class JsonConverter {
    * @throws IOException
    */
   public static <T> Object fromJson(String jsonSource, Class<T> type) throws IOException {
+    if (codecsEnabled && hasCodec(type)) {
+      JsonParser parser = jsonMapper.getFactory().createParser(jsonSource);
+      try {
+        return readResource(parser, type);
+      } catch (JsonProcessingException e) {
+        // values the codec does not handle are left to the ObjectMapper
+        logger.debug("JsonConverter: codec failed reading {}, using the ObjectMapper: {}",
+            type.getSimpleName(), e.getMessage());
+      } finally {
+        parser.close();
+      }
+    }
     return jsonMapper.readValue(jsonSource, type);
   }
 
@@ -69,9 +109,130 @@ public class JsonConverter {
    * @throws JsonProcessingException
    */
   public static String toJson(Object source) throws JsonProcessingException {
+    if (codecsEnabled && source != null && hasCodec(source.getClass())) {
+      StringWriter writer = new StringWriter();
+      try {
+        JsonGenerator generator = jsonMapper.getFactory().createGenerator(writer);
+        writeResource(generator, source);
+        generator.close();
+        return writer.toString();
+      } catch (IOException e) {
+        // writing to memory only fails on unserializable values
+        throw e instanceof JsonProcessingException ? (JsonProcessingException) e
+            : new JsonMappingException("JsonConverter: failed writing JSON", e);
+      }
+    }
     return jsonMapper.writeValueAsString(source);
   }
 
+  /**
+   * Reads an Event from the parser, positioned on its START_OBJECT token
+   *
+   * @param parser
+   *          a parser created by {@link #createParser(InputStream)}
+   * @return
+   * @throws IOException
+   */
+  public static Event readEvent(JsonParser parser) throws IOException {
+    if (codecsEnabled) {
+      return ResourceCodec.readEvent(parser);
+    }
+    return parser.readValueAs(Event.class);
+  }
+
+  /**
+   * Creates a streaming generator writing JSON in UTF-8 to the provided OutputStream. Closing the
+   * generator flushes it but leaves the OutputStream open.
+   *
+   * @param target
+   * @return
+   * @throws IOException
+   */
+  public static JsonGenerator createGenerator(OutputStream target) throws IOException {
+    JsonGenerator generator = jsonMapper.getFactory().createGenerator(target, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    return generator;
+  }
+
+  /**
+   * Writes the value to the generator, as {@link #toJson(Object)} would serialize it. Resources
+   * nested in maps and collections are written by their codec.
+   *
+   * @param generator
+   *          a generator created by {@link #createGenerator(OutputStream)}
+   * @param value
+   * @throws IOException
+   */
+  public static void writeValue(JsonGenerator generator, Object value) throws IOException {
+    if (codecsEnabled) {
+      if (value != null && hasCodec(value.getClass())) {
+        writeResource(generator, value);
+        return;
+      }
+      if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+        generator.writeStartObject();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          generator.writeFieldName((String) entry.getKey());
+          writeValue(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+        return;
+      }
+      if (value instanceof Collection) {
+        generator.writeStartArray();
+        for (Object element : (Collection<?>) value) {
+          writeValue(generator, element);
+        }
+        generator.writeEndArray();
+        return;
+      }
+    }
+    generator.writeObject(value);
+  }
+
+  private static boolean hasStringKeys(Map<?, ?> map) {
+    for (Object key : map.keySet()) {
+      if (!(key instanceof String)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasCodec(Class<?> type) {
+    return type == Event.class || type == Stream.class || type == Access.class
+        || type == Permission.class || type == Attachment.class;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T readResource(JsonParser parser, Class<T> type) throws IOException {
+    if (type == Event.class) {
+      return (T) ResourceCodec.readEvent(parser);
+    } else if (type == Stream.class) {
+      return (T) ResourceCodec.readStream(parser);
+    } else if (type == Access.class) {
+      return (T) ResourceCodec.readAccess(parser);
+    } else if (type == Permission.class) {
+      return (T) ResourceCodec.readPermission(parser);
+    } else {
+      return (T) ResourceCodec.readAttachment(parser);
+    }
+  }
+
+  private static void writeResource(JsonGenerator generator, Object source) throws IOException {
+    if (source instanceof Event) {
+      ResourceCodec.writeEvent(generator, (Event) source);
+    } else if (source instanceof Stream) {
+      ResourceCodec.writeStream(generator, (Stream) source);
+    } else if (source instanceof Access) {
+      ResourceCodec.writeAccess(generator, (Access) source);
+    } else if (source instanceof Permission) {
+      ResourceCodec.writePermission(generator, (Permission) source);
+    } else {
+      ResourceCodec.writeAttachment(generator, (Attachment) source);
+    }
+  }
+
   /**
    * Converts the json in String format into a JsonNode for field-by-field
    * deserialization
@@ -86,6 +247,32 @@ public class JsonConverter {
     return jsonMapper.readTree(source);
   }
 
+  /**
+   * Creates a streaming parser reading the JSON from the provided InputStream. The parser is
+   * bound to the converter's ObjectMapper, so that resources can be read directly from it.
+   *
+   * @param source
+   *          the JSON source, closed along with the parser
+   * @return
+   * @throws IOException
+   */
+  public static JsonParser createParser(InputStream source) throws IOException {
+    return jsonMapper.getFactory().createParser(source);
+  }
+
+  /**
+   * Reads the JSON from the provided InputStream into a JsonNode in a single pass, without
+   * buffering it in a String first
+   *
+   * @param source
+   *          the JSON source, not closed
+   * @return the root node, null if the source is empty
+   * @throws IOException
+   */
+  public static JsonNode toJsonNode(InputStream source) throws IOException {
+    return jsonMapper.readTree(source);
+  }
+
   /**
    * Retrieves the serverTime field from a response from the API
    *
@@ -96,8 +283,19 @@ public class JsonConverter {
    * @throws IOException
    */
   public static double retrieveServerTime(String jsonResponse) throws IOException {
-    double serverTime = toJsonNode(jsonResponse).get(META_KEY).get(SERVER_TIME_KEY).doubleValue();
-    logger.log("JsonConverter: retrieved time: " + serverTime);
+    return retrieveServerTime(toJsonNode(jsonResponse));
+  }
+
+  /**
+   * Retrieves the serverTime field from an already parsed response from the API
+   *
+   * @param response
+   *          the response containing a field "meta"
+   * @return
+   */
+  public static double retrieveServerTime(JsonNode response) {
+    double serverTime = response.get(META_KEY).get(SERVER_TIME_KEY).doubleValue();
+    logger.debug("JsonConverter: retrieved time: {}", serverTime);
     return serverTime;
   }
 
@@ -110,7 +308,18 @@ public class JsonConverter {
    * @throws IOException
    */
   public static ApiException retrieveApiError(String jsonResponse) throws IOException {
-    JsonNode error = toJsonNode(jsonResponse).get("error");
+    return retrieveApiError(toJsonNode(jsonResponse));
+  }
+
+  /**
+   * Retrieves the error field from an already parsed erroneous response from the API
+   *
+   * @param response
+   *          the response containing a field "error"
+   * @return
+   */
+  public static ApiException retrieveApiError(JsonNode response) {
+    JsonNode error = response.get("error");
     JsonNode msg = error.get("message");
     JsonNode i = error.get(ID_KEY);
     JsonNode d = error.get("data");
@@ -138,8 +347,12 @@ public class JsonConverter {
    * @throws IOException
    */
   public static String retrieveDeletedStreamId(String json) throws IOException {
-    String deletedStreamId = toJsonNode(json).get(STREAM_DELETION_KEY).get(ID_KEY).textValue();
-    logger.log("JsonConverter: retrieved stream deletion id: " + deletedStreamId);
+    return retrieveDeletedStreamId(toJsonNode(json));
+  }
+
+  public static String retrieveDeletedStreamId(JsonNode response) {
+    String deletedStreamId = response.get(STREAM_DELETION_KEY).get(ID_KEY).textValue();
+    logger.debug("JsonConverter: retrieved stream deletion id: {}", deletedStreamId);
     return deletedStreamId;
   }
 
@@ -153,13 +366,17 @@ public class JsonConverter {
    * @throws IOException
    */
   public static String retrieveDeleteEventId(String json) throws IOException {
-    String deletedEventId = toJsonNode(json).get(EVENT_DELETION_KEY).get(ID_KEY).textValue();
-    logger.log("JsonConverter: retrieved event deletion id: " + deletedEventId);
+    return retrieveDeleteEventId(toJsonNode(json));
+  }
+
+  public static String retrieveDeleteEventId(JsonNode response) {
+    String deletedEventId = response.get(EVENT_DELETION_KEY).get(ID_KEY).textValue();
+    logger.debug("JsonConverter: retrieved event deletion id: {}", deletedEventId);
     return deletedEventId;
   }
 
   /**
-   * verify if the JSON has a "eventDeletion" field
+   * verify if the JSON has a "eventDeletion" field at root level
    *
    * @param json
    *          the JSON response body
@@ -168,15 +385,15 @@ public class JsonConverter {
    * @throws IOException
    */
   public static Boolean hasEventDeletionField(String json) throws IOException {
-    if (toJsonNode(json).findValue(EVENT_DELETION_KEY) != null) {
-      return true;
-    } else {
-      return false;
-    }
+    return hasEventDeletionField(toJsonNode(json));
+  }
+
+  public static boolean hasEventDeletionField(JsonNode response) {
+    return response.has(EVENT_DELETION_KEY);
   }
 
   /**
-   * verify if the JSON has a "streamDeletion" field
+   * verify if the JSON has a "streamDeletion" field at root level
    *
    * @param json
    *          the JSON response body
@@ -185,11 +402,11 @@ public class JsonConverter {
    * @throws IOException
    */
   public static Boolean hasStreamDeletionField(String json) throws IOException {
-    if (toJsonNode(json).findValue(STREAM_DELETION_KEY) != null) {
-      return true;
-    } else {
-      return false;
-    }
+    return hasStreamDeletionField(toJsonNode(json));
+  }
+
+  public static boolean hasStreamDeletionField(JsonNode response) {
+    return response.has(STREAM_DELETION_KEY);
   }
 
   /**
@@ -202,8 +419,11 @@ public class JsonConverter {
    * @throws IOException
    */
   public static Event retrieveEventFromJson(String jsonSource) throws IOException {
-    JsonNode eventNode = toJsonNode(jsonSource).get(EVENT_KEY);
-    return jsonMapper.treeToValue(eventNode, Event.class);
+    return retrieveEventFromJson(toJsonNode(jsonSource));
+  }
+
+  public static Event retrieveEventFromJson(JsonNode response) throws JsonProcessingException {
+    return fromJsonNode(response.get(EVENT_KEY), Event.class);
   }
 
   /**
@@ -216,10 +436,14 @@ public class JsonConverter {
    * @throws IOException
    */
   public static String retrieveStoppedIdFromJson(String jsonSource) throws IOException {
-    JsonNode stoppedIdNode = toJsonNode(jsonSource).get(STOPPED_ID_KEY);
+    return retrieveStoppedIdFromJson(toJsonNode(jsonSource));
+  }
+
+  public static String retrieveStoppedIdFromJson(JsonNode response) {
+    JsonNode stoppedIdNode = response.get(STOPPED_ID_KEY);
     if (stoppedIdNode != null) {
       String stoppedId = stoppedIdNode.textValue();
-      logger.log("JsonConverter: retrieved stoppedId: " + stoppedId);
+      logger.debug("JsonConverter: retrieved stoppedId: {}", stoppedId);
       return stoppedId;
     } else {
       return null;
@@ -236,17 +460,28 @@ public class JsonConverter {
    * @throws IOException
    */
   public static List<Event> createEventsFromJson(String jsonEventsArray) throws IOException {
+    return createEventsFromJson(toJsonNode(jsonEventsArray));
+  }
 
-    JsonNode arrNode = toJsonNode(jsonEventsArray).get(EVENTS_KEY);
+  /**
+   * Deserialize an already parsed response containing the field "events" into a
+   * {@code List<Event>}
+   *
+   * @param response
+   * @return
+   * @throws JsonProcessingException
+   */
+  public static List<Event> createEventsFromJson(JsonNode response) throws JsonProcessingException {
+    JsonNode arrNode = response.get(EVENTS_KEY);
 
     List<Event> newEvents = new ArrayList<>();
     if (arrNode != null) {
       if (arrNode.isArray()) {
-        logger.log("JsonConverter: number of received events: " + arrNode.size());
+        logger.debug("JsonConverter: number of received events: {}", arrNode.size());
         for (final JsonNode objNode : arrNode) {
-          Event eventToAdd = jsonMapper.treeToValue(objNode, Event.class);
+          Event eventToAdd = fromJsonNode(objNode, Event.class);
           newEvents.add(eventToAdd);
-          logger.log("JsonConverter: event created: id = " + eventToAdd.getId());
+          logger.debug("JsonConverter: event created: id = {}", eventToAdd.getId());
         }
       }
     }
@@ -264,8 +499,11 @@ public class JsonConverter {
    * @throws IOException
    */
   public static Stream retrieveStreamFromJson(String jsonSource) throws IOException {
-    JsonNode eventNode = toJsonNode(jsonSource).get(STREAM_KEY);
-    return jsonMapper.treeToValue(eventNode, Stream.class);
+    return retrieveStreamFromJson(toJsonNode(jsonSource));
+  }
+
+  public static Stream retrieveStreamFromJson(JsonNode response) throws JsonProcessingException {
+    return fromJsonNode(response.get(STREAM_KEY), Stream.class);
   }
 
   /**
@@ -277,14 +515,18 @@ public class JsonConverter {
    * @throws IOException
    */
   public static Map<String, Stream> createStreamsTreeFromJson(String jsonStreamsArray) throws IOException {
-    JsonNode arrNode = toJsonNode(jsonStreamsArray).get(STREAMS_KEY);
+    return createStreamsTreeFromJson(toJsonNode(jsonStreamsArray));
+  }
+
+  public static Map<String, Stream> createStreamsTreeFromJson(JsonNode response) throws JsonProcessingException {
+    JsonNode arrNode = response.get(STREAMS_KEY);
     Map<String, Stream> newStreams = new HashMap<String, Stream>();
     if (arrNode!=null && arrNode.isArray()) {
-      logger.log("JsonConverter: number of received root streams: " + arrNode.size());
+      logger.debug("JsonConverter: number of received root streams: {}", arrNode.size());
       for (final JsonNode objNode : arrNode) {
-        Stream streamToAdd = jsonMapper.treeToValue(objNode, Stream.class);
+        Stream streamToAdd = fromJsonNode(objNode, Stream.class);
         newStreams.put(streamToAdd.getId(), streamToAdd);
-        logger.log("JsonConverter: stream created: id = " + streamToAdd.getId());
+        logger.debug("JsonConverter: stream created: id = {}", streamToAdd.getId());
       }
     }
 
@@ -301,21 +543,53 @@ public class JsonConverter {
    */
   public static Map<String, Double> createStreamDeletionsTreeFromJson(String jsonStreamDeletionsArray)
           throws IOException {
-    JsonNode arrNode = toJsonNode(jsonStreamDeletionsArray).get(STREAM_DELETIONS_KEY);
+    return createStreamDeletionsTreeFromJson(toJsonNode(jsonStreamDeletionsArray));
+  }
+
+  public static Map<String, Double> createStreamDeletionsTreeFromJson(JsonNode response) {
+    JsonNode arrNode = response.get(STREAM_DELETIONS_KEY);
     Map<String, Double> deletedStreams = new HashMap<String, Double>();
     if (arrNode!=null && arrNode.isArray()) {
-      logger.log("JsonConverter: number of received deleted streams: " + arrNode.size());
+      logger.debug("JsonConverter: number of received deleted streams: {}", arrNode.size());
       for (final JsonNode objNode : arrNode) {
         String streamId = objNode.get(ID_KEY).textValue();
         Double deletionTime = objNode.get(DELETED_KEY).asDouble();
         deletedStreams.put(streamId, deletionTime);
-        logger.log("JsonConverter: stream deleted: id = " + streamId);
+        logger.debug("JsonConverter: stream deleted: id = {}", streamId);
       }
     }
 
     return deletedStreams;
   }
 
+  /**
+   * Deserialize a JSON containing the field "eventDeletions" into a {@code Map<String,
+   * Double>} with Event id as key and deletion time as value
+   *
+   * @param jsonEventDeletionsArray
+   * @return
+   * @throws IOException
+   */
+  public static Map<String, Double> createEventDeletionsFromJson(String jsonEventDeletionsArray)
+          throws IOException {
+    return createEventDeletionsFromJson(toJsonNode(jsonEventDeletionsArray));
+  }
+
+  public static Map<String, Double> createEventDeletionsFromJson(JsonNode response) {
+    JsonNode arrNode = response.get(EVENT_DELETIONS_KEY);
+    Map<String, Double> deletedEvents = new HashMap<String, Double>();
+    if (arrNode!=null && arrNode.isArray()) {
+      logger.debug("JsonConverter: number of received deleted events: {}", arrNode.size());
+      for (final JsonNode objNode : arrNode) {
+        String eventId = objNode.get(ID_KEY).textValue();
+        JsonNode deletionTime = objNode.get(DELETED_KEY);
+        deletedEvents.put(eventId, deletionTime == null ? null : deletionTime.asDouble());
+      }
+    }
+
+    return deletedEvents;
+  }
+
   /**
    * Deserializes an array of Attachments into a Set of attachments
    *
@@ -336,12 +610,64 @@ public class JsonConverter {
     }
   }
 
+  /**
+   * Retrieves the results of a batch call, one JSON node per method call in the order they
+   * were sent
+   *
+   * @param jsonResponse
+   *          the JSON response body containing a field "results"
+   * @return
+   * @throws IOException
+   */
+  public static List<JsonNode> retrieveBatchResultsFromJson(String jsonResponse) throws IOException {
+    return retrieveBatchResultsFromJson(toJsonNode(jsonResponse));
+  }
+
+  public static List<JsonNode> retrieveBatchResultsFromJson(JsonNode response) {
+    JsonNode arrNode = response.get(RESULTS_KEY);
+    List<JsonNode> results = new ArrayList<>();
+    if (arrNode != null && arrNode.isArray()) {
+      for (final JsonNode objNode : arrNode) {
+        results.add(objNode);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Deserializes an already parsed JSON node into an object
+   *
+   * @param node
+   *          the JSON node
+   * @param type
+   *          the class into which the node will be deserialized
+   * @return
+   * @throws JsonProcessingException
+   */
+  public static <T> T fromJsonNode(JsonNode node, Class<T> type) throws JsonProcessingException {
+    if (codecsEnabled && node != null && hasCodec(type)) {
+      try {
+        return readResource(node.traverse(jsonMapper), type);
+      } catch (IOException e) {
+        // values the codec does not handle are left to the ObjectMapper, reading a tree does
+        // not fail on I/O
+        logger.debug("JsonConverter: codec failed reading {}, using the ObjectMapper: {}",
+            type.getSimpleName(), e.getMessage());
+      }
+    }
+    return jsonMapper.treeToValue(node, type);
+  }
+
   public static <T extends ApiResource> List<T> retrieveResourcesFromJson(String jsonResourcesArray, String resourceKey, Class<T> resource) throws IOException {
-    JsonNode arrNode = toJsonNode(jsonResourcesArray).get(resourceKey);
+    return retrieveResourcesFromJson(toJsonNode(jsonResourcesArray), resourceKey, resource);
+  }
+
+  public static <T extends ApiResource> List<T> retrieveResourcesFromJson(JsonNode response, String resourceKey, Class<T> resource) throws JsonProcessingException {
+    JsonNode arrNode = response.get(resourceKey);
     List<T> newResources = new ArrayList<>();
     if (arrNode != null && arrNode.isArray()) {
       for (final JsonNode objNode : arrNode) {
-        T newResource = jsonMapper.treeToValue(objNode, resource);
+        T newResource = fromJsonNode(objNode, resource);
         newResources.add(newResource);
       }
     }
@@ -349,13 +675,19 @@ public class JsonConverter {
   }
 
   public static <T extends ApiResource> T retrieveResourceFromJson(String jsonResource, String resourceKey, Class<T> resource) throws IOException {
-    JsonNode eventNode = toJsonNode(jsonResource).get(resourceKey);
-    return jsonMapper.treeToValue(eventNode, resource);
+    return retrieveResourceFromJson(toJsonNode(jsonResource), resourceKey, resource);
+  }
+
+  public static <T extends ApiResource> T retrieveResourceFromJson(JsonNode response, String resourceKey, Class<T> resource) throws JsonProcessingException {
+    return fromJsonNode(response.get(resourceKey), resource);
   }
 
   public static String retrieveDeletedResourceId(String jsonResponse, String resourceKey) throws IOException {
-    String deletedResourceId = toJsonNode(jsonResponse).get(resourceKey).get(ID_KEY).textValue();
-    return deletedResourceId;
+    return retrieveDeletedResourceId(toJsonNode(jsonResponse), resourceKey);
+  }
+
+  public static String retrieveDeletedResourceId(JsonNode response, String resourceKey) {
+    return response.get(resourceKey).get(ID_KEY).textValue();
   }
 
 }
@@ -0,0 +1,17 @@
+package com.pryv.utils;
+
+/**
+ * Destination of the messages of the {@link Logger}.
+ */
+public interface LogAppender {
+
+  /**
+   * Writes a formatted message
+   *
+   * @param level
+   * @param threadName
+   *          the name of the thread which logged the message
+   * @param message
+   */
+  void append(Logger.Level level, String threadName, String message);
+}
@@ -1,18 +1,40 @@
 package com.pryv.utils;
 
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 
 /**
- * Logger
+ * Leveled Logger. Messages below the current level cost a single comparison: parameterized
+ * messages are only formatted, and {@link Message} suppliers only called, when their level is
+ * enabled. Messages are written by a {@link LogAppender}, synchronously to System.out by default
+ * or through an {@link AsyncLogAppender} to keep I/O off the calling threads.
  */
 public class Logger {
 
-  private static Logger logger;
-  private PrintStream stream;
+  /**
+   * Logging levels, by increasing severity. OFF disables logging.
+   */
+  public enum Level {
+    DEBUG, INFO, WARN, ERROR, OFF
+  }
+
+  /**
+   * Builds a message lazily, only called when its level is enabled
+   */
+  public interface Message {
+    String get();
+  }
+
+  public static final Level DEFAULT_LEVEL = Level.INFO;
+
+  private static final Logger logger = new Logger();
+
+  private volatile Level level = DEFAULT_LEVEL;
+  private volatile LogAppender appender;
 
   public Logger() {
-    stream = System.out;
+    appender = new StreamLogAppender(System.out);
   }
 
   /**
@@ -21,39 +43,217 @@ public class Logger {
    * @return
    */
   public static Logger getInstance() {
-    if (logger == null) {
-      logger = new Logger();
-    }
     return logger;
   }
 
   /**
-   * writes message in the defined PrintStream (system.out by default)
+   * Sets the minimum level of the messages to write
+   *
+   * @param level
+   */
+  public void setLevel(Level level) {
+    this.level = level;
+  }
+
+  public Level getLevel() {
+    return level;
+  }
+
+  /**
+   * Returns whether messages of the level are written
+   *
+   * @param messageLevel
+   * @return
+   */
+  public boolean isEnabled(Level messageLevel) {
+    return messageLevel != Level.OFF && messageLevel.compareTo(level) >= 0;
+  }
+
+  public boolean isDebugEnabled() {
+    return isEnabled(Level.DEBUG);
+  }
+
+  /**
+   * Assigns the appender writing the messages
+   *
+   * @param appender
+   */
+  public void setAppender(LogAppender appender) {
+    this.appender = appender;
+  }
+
+  public LogAppender getAppender() {
+    return appender;
+  }
+
+  /**
+   * writes message at the INFO level
    *
    * @param message
    */
   public void log(String message) {
-    stream.println(message + " - Thread:" + Thread.currentThread().getName());
+    log(Level.INFO, message);
+  }
+
+  /**
+   * writes message if its level is enabled
+   *
+   * @param messageLevel
+   * @param message
+   */
+  public void log(Level messageLevel, String message) {
+    if (isEnabled(messageLevel)) {
+      appender.append(messageLevel, Thread.currentThread().getName(), message);
+    }
+  }
+
+  /**
+   * writes the message built by the supplier if its level is enabled
+   *
+   * @param messageLevel
+   * @param message
+   */
+  public void log(Level messageLevel, Message message) {
+    if (isEnabled(messageLevel)) {
+      appender.append(messageLevel, Thread.currentThread().getName(), message.get());
+    }
+  }
+
+  /**
+   * writes the message if its level is enabled, replacing each "{}" of the format with the next
+   * argument
+   *
+   * @param messageLevel
+   * @param format
+   * @param arguments
+   */
+  public void log(Level messageLevel, String format, Object... arguments) {
+    if (isEnabled(messageLevel)) {
+      appender.append(messageLevel, Thread.currentThread().getName(), format(format, arguments));
+    }
+  }
+
+  /**
+   * writes the message followed by the stack trace of the throwable if its level is enabled
+   *
+   * @param messageLevel
+   * @param message
+   * @param throwable
+   */
+  public void log(Level messageLevel, String message, Throwable throwable) {
+    if (isEnabled(messageLevel)) {
+      StringWriter writer = new StringWriter();
+      writer.append(message).append(System.lineSeparator());
+      throwable.printStackTrace(new PrintWriter(writer, true));
+      appender.append(messageLevel, Thread.currentThread().getName(), writer.toString());
+    }
+  }
+
+  public void debug(String message) {
+    log(Level.DEBUG, message);
+  }
+
+  public void debug(String format, Object argument) {
+    if (isEnabled(Level.DEBUG)) {
+      log(Level.DEBUG, format, argument);
+    }
+  }
+
+  public void debug(String format, Object argument1, Object argument2) {
+    if (isEnabled(Level.DEBUG)) {
+      log(Level.DEBUG, format, argument1, argument2);
+    }
+  }
+
+  public void info(String message) {
+    log(Level.INFO, message);
+  }
+
+  public void info(String format, Object argument) {
+    if (isEnabled(Level.INFO)) {
+      log(Level.INFO, format, argument);
+    }
+  }
+
+  public void info(String format, Object argument1, Object argument2) {
+    if (isEnabled(Level.INFO)) {
+      log(Level.INFO, format, argument1, argument2);
+    }
+  }
+
+  public void warn(String message) {
+    log(Level.WARN, message);
+  }
+
+  public void warn(String format, Object argument) {
+    if (isEnabled(Level.WARN)) {
+      log(Level.WARN, format, argument);
+    }
+  }
+
+  public void warn(String message, Throwable throwable) {
+    log(Level.WARN, message, throwable);
+  }
+
+  public void warn(String format, Object argument1, Object argument2) {
+    if (isEnabled(Level.WARN)) {
+      log(Level.WARN, format, argument1, argument2);
+    }
+  }
+
+  public void error(String message) {
+    log(Level.ERROR, message);
+  }
+
+  public void error(String format, Object argument) {
+    if (isEnabled(Level.ERROR)) {
+      log(Level.ERROR, format, argument);
+    }
+  }
+
+  public void error(String message, Throwable throwable) {
+    log(Level.ERROR, message, throwable);
+  }
+
+  public void error(String format, Object argument1, Object argument2) {
+    if (isEnabled(Level.ERROR)) {
+      log(Level.ERROR, format, argument1, argument2);
+    }
   }
 
   /**
-   * Assigns a custom OutputStream
+   * Replaces each "{}" of the format with the next argument, extra placeholders are kept
+   */
+  static String format(String format, Object... arguments) {
+    if (arguments == null || arguments.length == 0) {
+      return format;
+    }
+    StringBuilder sb = new StringBuilder(format.length() + 16 * arguments.length);
+    int start = 0;
+    for (Object argument : arguments) {
+      int placeholder = format.indexOf("{}", start);
+      if (placeholder < 0) {
+        break;
+      }
+      sb.append(format, start, placeholder).append(argument);
+      start = placeholder + 2;
+    }
+    return sb.append(format, start, format.length()).toString();
+  }
+
+  /**
+   * Assigns a custom OutputStream, written synchronously
    *
    * @param outputStream
    */
   public synchronized void setOutputStream(OutputStream outputStream) {
-    stream = new PrintStream(outputStream);
+    appender = new StreamLogAppender(outputStream);
   }
 
   /**
    * turn off logging
    */
   public void turnOff() {
-    stream = new PrintStream(new OutputStream() {
-      @Override
-      public void write(int b) {
-        // do nothing
-      }
-    });
+    level = Level.OFF;
   }
 }
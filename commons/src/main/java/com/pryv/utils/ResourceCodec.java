@@ -0,0 +1,768 @@
+package com.pryv.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.pryv.model.Access;
+import com.pryv.model.Attachment;
+import com.pryv.model.Event;
+import com.pryv.model.Permission;
+import com.pryv.model.Stream;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hand-written streaming codecs for the API resources, reading from a JsonParser and writing to a
+ * JsonGenerator field by field, without reflection nor intermediate trees. They produce the same
+ * objects and the same JSON as the ObjectMapper bindings of the resources: same fields in the same
+ * order, null fields omitted, unknown fields ignored (but for Permission) and untyped values
+ * (content, clientData) read as LinkedHashMap, ArrayList, String, Boolean, Integer, Long,
+ * BigInteger or Double. Values the codecs do not handle raise a JsonMappingException, upon which
+ * {@link JsonConverter} falls back to the ObjectMapper.
+ */
+public final class ResourceCodec {
+
+  private ResourceCodec() {
+  }
+
+  /**
+   * Reads an Event, the parser being positioned on its START_OBJECT token, or on the token
+   * before it. The parser is left on the END_OBJECT token of the Event.
+   *
+   * @param parser
+   * @return the Event, null if the value is null
+   * @throws IOException
+   */
+  public static Event readEvent(JsonParser parser) throws IOException {
+    if (startObject(parser, Event.class)) {
+      return null;
+    }
+    // the full constructor leaves the id empty instead of generating one
+    Event event = new Event(null, null, null, null, null, null, null, null, null, null, false, false,
+        null, null, null, null);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "id":
+          event.setId(readString(parser));
+          break;
+        case "streamId":
+          event.setStreamId(readString(parser));
+          break;
+        case "time":
+          event.setTime(readDouble(parser));
+          break;
+        case "type":
+          event.setType(readString(parser));
+          break;
+        case "created":
+          event.setCreated(readDouble(parser));
+          break;
+        case "createdBy":
+          event.setCreatedBy(readString(parser));
+          break;
+        case "modified":
+          event.setModified(readDouble(parser));
+          break;
+        case "modifiedBy":
+          event.setModifiedBy(readString(parser));
+          break;
+        case "duration":
+          event.setDuration(readDouble(parser));
+          break;
+        case "content":
+          event.setContent(readUntyped(parser));
+          break;
+        case "tags":
+          event.setTags(readStringSet(parser));
+          break;
+        case "description":
+          event.setDescription(readString(parser));
+          break;
+        case "attachments":
+          event.setAttachments(readAttachments(parser));
+          break;
+        case "clientData":
+          event.setClientData(readUntypedMap(parser));
+          break;
+        case "trashed":
+          event.setTrashed(readBoolean(parser));
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return event;
+  }
+
+  /**
+   * Writes the Event as a JSON object
+   *
+   * @param generator
+   * @param event
+   * @throws IOException
+   */
+  public static void writeEvent(JsonGenerator generator, Event event) throws IOException {
+    if (event == null) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartObject();
+    writeString(generator, "id", event.getId());
+    writeString(generator, "streamId", event.getStreamId());
+    writeDouble(generator, "time", event.getTime());
+    writeString(generator, "type", event.getType());
+    writeDouble(generator, "created", event.getCreated());
+    writeString(generator, "createdBy", event.getCreatedBy());
+    writeDouble(generator, "modified", event.getModified());
+    writeString(generator, "modifiedBy", event.getModifiedBy());
+    writeDouble(generator, "duration", event.getDuration());
+    if (event.getContent() != null) {
+      generator.writeFieldName("content");
+      writeUntyped(generator, event.getContent());
+    }
+    if (event.getTags() != null) {
+      generator.writeFieldName("tags");
+      writeUntyped(generator, event.getTags());
+    }
+    writeString(generator, "description", event.getDescription());
+    if (event.getAttachments() != null) {
+      generator.writeArrayFieldStart("attachments");
+      for (Attachment attachment : event.getAttachments()) {
+        writeAttachment(generator, attachment);
+      }
+      generator.writeEndArray();
+    }
+    if (event.getClientData() != null) {
+      generator.writeFieldName("clientData");
+      writeUntyped(generator, event.getClientData());
+    }
+    generator.writeBooleanField("trashed", event.isTrashed());
+    generator.writeEndObject();
+  }
+
+  /**
+   * Reads a Stream and its children, the parser being positioned on its START_OBJECT token, or
+   * on the token before it.
+   *
+   * @param parser
+   * @return the Stream, null if the value is null
+   * @throws IOException
+   */
+  public static Stream readStream(JsonParser parser) throws IOException {
+    if (startObject(parser, Stream.class)) {
+      return null;
+    }
+    Stream stream = new Stream();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "id":
+          stream.setId(readString(parser));
+          break;
+        case "name":
+          stream.setName(readString(parser));
+          break;
+        case "created":
+          stream.setCreated(readDouble(parser));
+          break;
+        case "createdBy":
+          stream.setCreatedBy(readString(parser));
+          break;
+        case "modified":
+          stream.setModified(readDouble(parser));
+          break;
+        case "modifiedBy":
+          stream.setModifiedBy(readString(parser));
+          break;
+        case "trashed":
+          stream.setTrashed(readBoolean(parser));
+          break;
+        case "children":
+          stream.setChildren(readChildren(parser));
+          break;
+        case "parentId":
+          stream.setParentId(readString(parser));
+          break;
+        case "singleActivity":
+          stream.setSingleActivity(readNullableBoolean(parser));
+          break;
+        case "clientData":
+          stream.setClientData(readUntypedMap(parser));
+          break;
+        case "clientDataFromAString":
+          // bound by the ObjectMapper through its setter
+          stream.setClientDataFromAString(readString(parser));
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return stream;
+  }
+
+  /**
+   * Writes the Stream and its children as a JSON object
+   *
+   * @param generator
+   * @param stream
+   * @throws IOException
+   */
+  public static void writeStream(JsonGenerator generator, Stream stream) throws IOException {
+    if (stream == null) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartObject();
+    writeString(generator, "id", stream.getId());
+    writeString(generator, "name", stream.getName());
+    writeDouble(generator, "created", stream.getCreated());
+    writeString(generator, "createdBy", stream.getCreatedBy());
+    writeDouble(generator, "modified", stream.getModified());
+    writeString(generator, "modifiedBy", stream.getModifiedBy());
+    generator.writeBooleanField("trashed", stream.isTrashed());
+    if (stream.getChildren() != null) {
+      generator.writeArrayFieldStart("children");
+      for (Stream child : stream.getChildren()) {
+        writeStream(generator, child);
+      }
+      generator.writeEndArray();
+    }
+    writeString(generator, "parentId", stream.getParentId());
+    if (stream.isSingleActivity() != null) {
+      generator.writeBooleanField("singleActivity", stream.isSingleActivity());
+    }
+    if (stream.getClientData() != null) {
+      generator.writeFieldName("clientData");
+      writeUntyped(generator, stream.getClientData());
+    }
+    generator.writeEndObject();
+  }
+
+  /**
+   * Reads an Access and its permissions, the parser being positioned on its START_OBJECT
+   * token, or on the token before it.
+   *
+   * @param parser
+   * @return the Access, null if the value is null
+   * @throws IOException
+   */
+  public static Access readAccess(JsonParser parser) throws IOException {
+    if (startObject(parser, Access.class)) {
+      return null;
+    }
+    Access access = new Access();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "id":
+          access.setId(readString(parser));
+          break;
+        case "token":
+          access.setToken(readString(parser));
+          break;
+        case "name":
+          access.setName(readString(parser));
+          break;
+        case "permissions":
+          access.setPermissions(readPermissions(parser));
+          break;
+        case "created":
+          access.setCreated(readDouble(parser));
+          break;
+        case "createdBy":
+          access.setCreatedBy(readString(parser));
+          break;
+        case "modified":
+          access.setModified(readDouble(parser));
+          break;
+        case "modifiedBy":
+          access.setModifiedBy(readString(parser));
+          break;
+        case "type":
+          access.setType(readString(parser));
+          break;
+        case "deviceName":
+          access.setDeviceName(readString(parser));
+          break;
+        case "lastUsed":
+          access.setLastUsed(readDouble(parser));
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return access;
+  }
+
+  /**
+   * Writes the Access and its permissions as a JSON object
+   *
+   * @param generator
+   * @param access
+   * @throws IOException
+   */
+  public static void writeAccess(JsonGenerator generator, Access access) throws IOException {
+    if (access == null) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartObject();
+    writeString(generator, "id", access.getId());
+    writeString(generator, "token", access.getToken());
+    writeString(generator, "name", access.getName());
+    if (access.getPermissions() != null) {
+      generator.writeArrayFieldStart("permissions");
+      for (Permission permission : access.getPermissions()) {
+        writePermission(generator, permission);
+      }
+      generator.writeEndArray();
+    }
+    writeDouble(generator, "created", access.getCreated());
+    writeString(generator, "createdBy", access.getCreatedBy());
+    writeDouble(generator, "modified", access.getModified());
+    writeString(generator, "modifiedBy", access.getModifiedBy());
+    writeString(generator, "type", access.getType());
+    writeString(generator, "deviceName", access.getDeviceName());
+    writeDouble(generator, "lastUsed", access.getLastUsed());
+    generator.writeEndObject();
+  }
+
+  /**
+   * Reads a Permission, the parser being positioned on its START_OBJECT token, or on the token
+   * before it. As with the ObjectMapper, unknown fields are rejected.
+   *
+   * @param parser
+   * @return the Permission, null if the value is null
+   * @throws IOException
+   */
+  public static Permission readPermission(JsonParser parser) throws IOException {
+    if (startObject(parser, Permission.class)) {
+      return null;
+    }
+    String streamId = null;
+    Permission.Level level = null;
+    String defaultName = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "streamId":
+          streamId = readString(parser);
+          break;
+        case "level":
+          level = readLevel(parser);
+          break;
+        case "defaultName":
+          defaultName = readString(parser);
+          break;
+        default:
+          throw new JsonMappingException("Unrecognized field \"" + field + "\" of Permission",
+              parser.getCurrentLocation());
+      }
+    }
+    return new Permission(streamId, level, defaultName);
+  }
+
+  /**
+   * Writes the Permission as a JSON object
+   *
+   * @param generator
+   * @param permission
+   * @throws IOException
+   */
+  public static void writePermission(JsonGenerator generator, Permission permission)
+      throws IOException {
+    if (permission == null) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartObject();
+    writeString(generator, "streamId", permission.getStreamId());
+    if (permission.getLevel() != null) {
+      generator.writeStringField("level", permission.getLevel().name());
+    }
+    writeString(generator, "defaultName", permission.getDefaultName());
+    generator.writeEndObject();
+  }
+
+  /**
+   * Reads an Attachment, the parser being positioned on its START_OBJECT token, or on the token
+   * before it.
+   *
+   * @param parser
+   * @return the Attachment, null if the value is null
+   * @throws IOException
+   */
+  public static Attachment readAttachment(JsonParser parser) throws IOException {
+    if (startObject(parser, Attachment.class)) {
+      return null;
+    }
+    Attachment attachment = new Attachment();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      switch (field) {
+        case "id":
+          attachment.setId(readString(parser));
+          break;
+        case "fileName":
+          attachment.setFileName(readString(parser));
+          break;
+        case "type":
+          attachment.setType(readString(parser));
+          break;
+        case "size":
+          attachment.setSize(readLong(parser));
+          break;
+        case "readToken":
+          attachment.setReadToken(readString(parser));
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return attachment;
+  }
+
+  /**
+   * Writes the Attachment as a JSON object
+   *
+   * @param generator
+   * @param attachment
+   * @throws IOException
+   */
+  public static void writeAttachment(JsonGenerator generator, Attachment attachment)
+      throws IOException {
+    if (attachment == null) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartObject();
+    writeString(generator, "id", attachment.getId());
+    writeString(generator, "fileName", attachment.getFileName());
+    writeString(generator, "type", attachment.getType());
+    generator.writeNumberField("size", attachment.getSize());
+    writeString(generator, "readToken", attachment.getReadToken());
+    generator.writeEndObject();
+  }
+
+  /**
+   * Moves the parser to the START_OBJECT token of a resource
+   *
+   * @return true if the value is null
+   */
+  private static boolean startObject(JsonParser parser, Class<?> type) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == null || token == JsonToken.FIELD_NAME) {
+      token = parser.nextToken();
+    }
+    if (token == JsonToken.VALUE_NULL) {
+      return true;
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw mismatch(parser, type);
+    }
+    return false;
+  }
+
+  private static Set<Attachment> readAttachments(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expectArray(parser, Set.class);
+    Set<Attachment> attachments = new HashSet<Attachment>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      attachments.add(readAttachment(parser));
+    }
+    return attachments;
+  }
+
+  private static Set<Stream> readChildren(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expectArray(parser, Set.class);
+    Set<Stream> children = new HashSet<Stream>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      children.add(readStream(parser));
+    }
+    return children;
+  }
+
+  private static ArrayList<Permission> readPermissions(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expectArray(parser, ArrayList.class);
+    ArrayList<Permission> permissions = new ArrayList<Permission>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      permissions.add(readPermission(parser));
+    }
+    return permissions;
+  }
+
+  private static Set<String> readStringSet(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    expectArray(parser, Set.class);
+    Set<String> strings = new HashSet<String>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      strings.add(readString(parser));
+    }
+    return strings;
+  }
+
+  private static void expectArray(JsonParser parser, Class<?> type) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      throw mismatch(parser, type);
+    }
+  }
+
+  private static String readString(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.VALUE_STRING) {
+      return parser.getText();
+    }
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token.isScalarValue() && token != JsonToken.VALUE_EMBEDDED_OBJECT) {
+      return parser.getText();
+    }
+    throw mismatch(parser, String.class);
+  }
+
+  private static Double readDouble(JsonParser parser) throws IOException {
+    switch (parser.getCurrentToken()) {
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        return parser.getDoubleValue();
+      case VALUE_NULL:
+        return null;
+      case VALUE_STRING:
+        String text = parser.getText().trim();
+        if (text.length() == 0) {
+          return null;
+        }
+        try {
+          return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+          throw mismatch(parser, Double.class);
+        }
+      default:
+        throw mismatch(parser, Double.class);
+    }
+  }
+
+  private static long readLong(JsonParser parser) throws IOException {
+    switch (parser.getCurrentToken()) {
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        return parser.getLongValue();
+      case VALUE_NULL:
+        return 0L;
+      case VALUE_STRING:
+        String text = parser.getText().trim();
+        if (text.length() == 0) {
+          return 0L;
+        }
+        try {
+          return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+          throw mismatch(parser, Long.TYPE);
+        }
+      default:
+        throw mismatch(parser, Long.TYPE);
+    }
+  }
+
+  private static boolean readBoolean(JsonParser parser) throws IOException {
+    Boolean value = readNullableBoolean(parser);
+    return value != null && value;
+  }
+
+  private static Boolean readNullableBoolean(JsonParser parser) throws IOException {
+    switch (parser.getCurrentToken()) {
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return null;
+      case VALUE_NUMBER_INT:
+        return parser.getIntValue() != 0;
+      case VALUE_STRING:
+        String text = parser.getText().trim();
+        if ("true".equals(text)) {
+          return Boolean.TRUE;
+        }
+        if ("false".equals(text)) {
+          return Boolean.FALSE;
+        }
+        if (text.length() == 0) {
+          return null;
+        }
+        throw mismatch(parser, Boolean.class);
+      default:
+        throw mismatch(parser, Boolean.class);
+    }
+  }
+
+  private static Permission.Level readLevel(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token == JsonToken.VALUE_STRING) {
+      try {
+        return Permission.Level.valueOf(parser.getText());
+      } catch (IllegalArgumentException e) {
+        // rejected below
+      }
+    }
+    throw mismatch(parser, Permission.Level.class);
+  }
+
+  private static Map<String, Object> readUntypedMap(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw mismatch(parser, Map.class);
+    }
+    return readObject(parser);
+  }
+
+  /**
+   * Reads any JSON value the way the ObjectMapper binds it to Object
+   */
+  private static Object readUntyped(JsonParser parser) throws IOException {
+    switch (parser.getCurrentToken()) {
+      case START_OBJECT:
+        return readObject(parser);
+      case START_ARRAY:
+        List<Object> values = new ArrayList<Object>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          values.add(readUntyped(parser));
+        }
+        return values;
+      case VALUE_STRING:
+        return parser.getText();
+      case VALUE_NUMBER_INT:
+        return parser.getNumberValue();
+      case VALUE_NUMBER_FLOAT:
+        return parser.getDoubleValue();
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_EMBEDDED_OBJECT:
+        return parser.getEmbeddedObject();
+      case VALUE_NULL:
+        return null;
+      default:
+        throw mismatch(parser, Object.class);
+    }
+  }
+
+  private static Map<String, Object> readObject(JsonParser parser) throws IOException {
+    Map<String, Object> values = new LinkedHashMap<String, Object>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      values.put(field, readUntyped(parser));
+    }
+    return values;
+  }
+
+  private static void writeString(JsonGenerator generator, String field, String value)
+      throws IOException {
+    if (value != null) {
+      generator.writeStringField(field, value);
+    }
+  }
+
+  private static void writeDouble(JsonGenerator generator, String field, Double value)
+      throws IOException {
+    if (value != null) {
+      generator.writeNumberField(field, value);
+    }
+  }
+
+  /**
+   * Writes any value the way the ObjectMapper serializes it, types other than JSON-like maps,
+   * collections, strings, numbers and booleans are handed to the generator's codec.
+   */
+  private static void writeUntyped(JsonGenerator generator, Object value) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      generator.writeNumber(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      generator.writeNumber((Long) value);
+    } else if (value instanceof Double) {
+      generator.writeNumber((Double) value);
+    } else if (value instanceof Float) {
+      generator.writeNumber((Float) value);
+    } else if (value instanceof BigInteger) {
+      generator.writeNumber((BigInteger) value);
+    } else if (value instanceof BigDecimal) {
+      generator.writeNumber((BigDecimal) value);
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean((Boolean) value);
+    } else if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+      generator.writeStartObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        generator.writeFieldName((String) entry.getKey());
+        writeUntyped(generator, entry.getValue());
+      }
+      generator.writeEndObject();
+    } else if (value instanceof Collection) {
+      generator.writeStartArray();
+      for (Object element : (Collection<?>) value) {
+        writeUntyped(generator, element);
+      }
+      generator.writeEndArray();
+    } else if (value instanceof Object[]) {
+      generator.writeStartArray();
+      for (Object element : (Object[]) value) {
+        writeUntyped(generator, element);
+      }
+      generator.writeEndArray();
+    } else {
+      generator.writeObject(value);
+    }
+  }
+
+  private static boolean hasStringKeys(Map<?, ?> map) {
+    for (Object key : map.keySet()) {
+      if (!(key instanceof String)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static JsonMappingException mismatch(JsonParser parser, Class<?> type) {
+    return new JsonMappingException("Can not read " + type.getSimpleName() + " out of "
+        + parser.getCurrentToken() + " token", parser.getCurrentLocation());
+  }
+}
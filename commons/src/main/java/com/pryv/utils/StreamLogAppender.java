@@ -0,0 +1,25 @@
+package com.pryv.utils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Appender printing messages synchronously to a PrintStream.
+ */
+public class StreamLogAppender implements LogAppender {
+
+  private final PrintStream stream;
+
+  public StreamLogAppender(PrintStream stream) {
+    this.stream = stream;
+  }
+
+  public StreamLogAppender(OutputStream outputStream) {
+    this(new PrintStream(outputStream));
+  }
+
+  @Override
+  public void append(Logger.Level level, String threadName, String message) {
+    stream.println(level + " " + message + " - Thread:" + threadName);
+  }
+}
@@ -0,0 +1,96 @@
+package com.pryv.acceptance;
+
+import com.pryv.Connection;
+import com.pryv.connection.Batch;
+import com.pryv.connection.BatchCall;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Stream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import resources.TestCredentials;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+
+    private static Stream testSupportStream;
+
+    private static Connection connection;
+
+    @BeforeClass
+    public static void setUp() throws IOException, ApiException {
+        connection = new Connection(TestCredentials.USERNAME, TestCredentials.TOKEN, TestCredentials.DOMAIN);
+
+        testSupportStream = new Stream("batchTestStreamID", "javaLibBatchTestSupportStream");
+        Stream createdStream = connection.streams.create(testSupportStream);
+        assertNotNull(createdStream.getId());
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException, ApiException {
+        connection.streams.delete(testSupportStream, false);
+        connection.streams.delete(testSupportStream, false);
+    }
+
+    @Test
+    public void testCreateUpdateAndDeleteEventsInChunks() throws IOException, ApiException {
+        Batch batch = connection.batch().setChunkSize(2);
+        List<BatchCall<Event>> createCalls = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Event newEvent = new Event()
+                    .setStreamId(testSupportStream.getId())
+                    .setType("count/generic")
+                    .setContent(i);
+            createCalls.add(batch.createEvent(newEvent));
+        }
+        assertEquals(5, batch.size());
+
+        List<BatchCall<?>> executedCalls = batch.exec();
+        assertEquals(5, executedCalls.size());
+        assertEquals(0, batch.size());
+
+        for (BatchCall<Event> createCall : createCalls) {
+            assertTrue(createCall.isSuccessful());
+            assertNotNull(createCall.getResult().getCreated());
+        }
+
+        Event createdEvent = createCalls.get(0).get();
+        createdEvent.setContent(42);
+        BatchCall<Event> updateCall = batch.updateEvent(createdEvent);
+        BatchCall<Event> trashCall = batch.deleteEvent(createCalls.get(1).get());
+        batch.exec();
+
+        assertEquals(42, updateCall.get().getContent());
+        assertTrue(trashCall.get().isTrashed());
+    }
+
+    @Test
+    public void testFailingCallHoldsItsOwnError() throws IOException, ApiException {
+        Batch batch = connection.batch();
+        BatchCall<Event> invalidCall = batch.createEvent(new Event()
+                .setStreamId("unknownStreamId")
+                .setType("note/txt")
+                .setContent("no stream"));
+        BatchCall<Event> validCall = batch.createEvent(new Event()
+                .setStreamId(testSupportStream.getId())
+                .setType("note/txt")
+                .setContent("valid"));
+        batch.exec();
+
+        assertFalse(invalidCall.isSuccessful());
+        assertNotNull(invalidCall.getError());
+        assertNotNull(invalidCall.getError().getId());
+        assertTrue(validCall.isSuccessful());
+    }
+}
@@ -1,6 +1,7 @@
 package com.pryv.acceptance;
 
 import com.pryv.Connection;
+import com.pryv.api.ApiCallback;
 import com.pryv.exceptions.ApiException;
 import com.pryv.model.Attachment;
 import com.pryv.model.Event;
@@ -14,6 +15,9 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import resources.TestCredentials;
 
@@ -113,6 +117,35 @@ public class ConnectionEventsTest {
         assertTrue(retrievedEvents.size() > 0);
     }
 
+    @Test
+    public void testGetEventsAsynchronouslyMustReturnEventsOnAWorkerThread() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<List<Event>> result = new AtomicReference<>();
+        final AtomicReference<String> callbackThread = new AtomicReference<>();
+        connection.events.get(new Filter(), new ApiCallback<List<Event>>() {
+            @Override
+            public void onSuccess(List<Event> events) {
+                result.set(events);
+                callbackThread.set(Thread.currentThread().getName());
+                latch.countDown();
+            }
+
+            @Override
+            public void onApiError(ApiException exception) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException exception) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertNotNull(result.get());
+        assertTrue(result.get().size() > 0);
+        assertTrue(callbackThread.get().startsWith("pryv-worker-"));
+    }
+
     // TODO add includeDeletions in Filter
     @Test
     public void testGetEventsMustReturnDeletedEventsWhenIncludeDeletionsIsSet() {
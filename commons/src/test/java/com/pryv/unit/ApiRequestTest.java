@@ -0,0 +1,141 @@
+package com.pryv.unit;
+
+import com.pryv.api.ApiCallback;
+import com.pryv.api.ApiResponse;
+import com.pryv.api.BlockingCall;
+import com.pryv.api.HttpClient;
+import com.pryv.api.ResponseParser;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test the reading of API responses against a local HTTP server
+ */
+public class ApiRequestTest {
+
+  private static final String META = "\"meta\":{\"serverTime\":1000}";
+
+  private MockWebServer server;
+  private HttpClient httpClient;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    httpClient = new HttpClient(server.url("/").toString(), "?auth=token");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testResponseIsReadOnce() throws Exception {
+    server.enqueue(new MockResponse().setBody("{\"events\":[{\"id\":\"a\"}]," + META + "}"));
+    ApiResponse response = httpClient.getRequest("events", null).exec();
+    assertEquals(1000, response.getServerTime(), 0);
+    assertEquals(200, response.getStatus());
+    assertTrue(response.has("events"));
+    assertEquals("a", response.getJsonNode().get("events").get(0).get("id").textValue());
+    assertEquals("{\"events\":[{\"id\":\"a\"}]," + META + "}", response.getJsonBody());
+  }
+
+  @Test
+  public void testErrorResponseIsThrown() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(400)
+        .setBody("{\"error\":{\"id\":\"invalid-parameters-format\",\"message\":\"bad\"}," + META + "}"));
+    try {
+      httpClient.getRequest("events", null).exec();
+      fail("an ApiException should have been thrown");
+    } catch (ApiException e) {
+      assertEquals("invalid-parameters-format", e.getId());
+      assertEquals("bad", e.getMsg());
+    }
+  }
+
+  @Test
+  public void testErrorResponseWithoutErrorField() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(503).setBody("{}"));
+    try {
+      httpClient.getRequest("events", null).exec();
+      fail("an ApiException should have been thrown");
+    } catch (ApiException e) {
+      assertNull(e.getId());
+      assertTrue(e.getMsg().contains("503"));
+    }
+  }
+
+  @Test
+  public void testDeletionMarkerIsOnlyLookedUpAtRootLevel() throws Exception {
+    ConnectionEvents events = new ConnectionEvents(httpClient);
+    // an Event whose content happens to hold an "eventDeletion" field is only trashed
+    server.enqueue(new MockResponse().setBody("{\"event\":{\"id\":\"a\",\"trashed\":true," +
+        "\"content\":{\"eventDeletion\":{\"id\":\"a\"}}}," + META + "}"));
+    Event trashed = events.delete(new Event().setId("a"));
+    assertTrue(trashed.isTrashed());
+    assertFalse(trashed.isDeleted());
+
+    server.enqueue(new MockResponse().setBody("{\"eventDeletion\":{\"id\":\"a\"}," + META + "}"));
+    Event deleted = events.delete(trashed);
+    assertTrue(deleted.isDeleted());
+  }
+
+  @Test
+  public void testRuntimeExceptionsAreReportedAsFailures() throws Exception {
+    server.enqueue(new MockResponse().setBody("{" + META + "}"));
+    final BlockingQueue<IOException> failures = new LinkedBlockingQueue<IOException>();
+    ApiCallback<Object> callback = new ApiCallback<Object>() {
+      @Override
+      public void onSuccess(Object result) {
+      }
+
+      @Override
+      public void onApiError(ApiException exception) {
+      }
+
+      @Override
+      public void onFailure(IOException exception) {
+        failures.add(exception);
+      }
+    };
+    ResponseParser<Object> parser = new ResponseParser<Object>() {
+      @Override
+      public Object parse(ApiResponse apiResponse) {
+        throw new IllegalStateException("parser failure");
+      }
+    };
+    httpClient.getRequest("events", null).enqueue(parser, callback);
+    assertTrue(failures.poll(5, TimeUnit.SECONDS).getCause() instanceof IllegalStateException);
+    server.enqueue(new MockResponse().setBody("{" + META + "}"));
+    httpClient.setCoalescingEnabled(true);
+    httpClient.getRequest("events", null).enqueue(parser, callback);
+    assertTrue(failures.poll(5, TimeUnit.SECONDS).getCause() instanceof IllegalStateException);
+    httpClient.getAsyncDispatcher().run(new BlockingCall<Object>() {
+      @Override
+      public Object call() {
+        throw new IllegalStateException("call failure");
+      }
+    }, callback);
+    assertTrue(failures.poll(5, TimeUnit.SECONDS).getCause() instanceof IllegalStateException);
+  }
+}
@@ -0,0 +1,220 @@
+package com.pryv.unit;
+
+import com.pryv.api.ApiCallback;
+import com.pryv.api.HttpClient;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.database.AttachmentCache;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Attachment;
+import com.pryv.model.Event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test the download of attachments against a local HTTP server
+ */
+public class AttachmentDownloadTest {
+
+  private MockWebServer server;
+  private ConnectionEvents events;
+  private File directory;
+  private File target;
+  private File part;
+  private Event event = new Event().setId("ev");
+  private Attachment attachment = new Attachment("at", "hello.txt", "text/plain", 11, "rt");
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    events = new ConnectionEvents(new HttpClient(server.url("/").toString(), "?auth=token"));
+    directory = File.createTempFile("attachments", "");
+    directory.delete();
+    target = File.createTempFile("attachment", ".txt");
+    part = new File(target.getPath() + ".part");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+    target.delete();
+    part.delete();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testInterruptedDownloadsAreResumed() throws Exception {
+    write(part, "hello ");
+    server.enqueue(new MockResponse().setResponseCode(206).setBody("world"));
+
+    events.downloadAttachment(event, attachment, target);
+
+    RecordedRequest request = server.takeRequest();
+    assertEquals("/events/ev/at?auth=token", request.getPath());
+    assertEquals("bytes=6-", request.getHeader("Range"));
+    assertEquals("hello world", read(target));
+    assertFalse(part.exists());
+  }
+
+  @Test
+  public void testExistingTargetsAreReplaced() throws Exception {
+    events.setAttachmentCache(new AttachmentCache(directory, 1024));
+    write(target, "hello ");
+    server.enqueue(new MockResponse().setBody("hello world"));
+
+    events.downloadAttachment(event, attachment, target);
+
+    assertNull(server.takeRequest().getHeader("Range"));
+    assertEquals("hello world", read(target));
+    assertEquals("hello world", read(events.getAttachmentCache().get(AttachmentCache.key("ev", "at"))));
+
+    // a file of the attachment's size is not trusted either
+    events.setAttachmentCache(null);
+    write(target, "01234567890");
+    server.enqueue(new MockResponse().setBody("hello world"));
+    events.downloadAttachment(event, attachment, target);
+    assertEquals("hello world", read(target));
+  }
+
+  @Test
+  public void testIncompleteDownloadsAreNotCached() throws Exception {
+    events.setAttachmentCache(new AttachmentCache(directory, 1024));
+    server.enqueue(new MockResponse().setBody("hello"));
+
+    try {
+      events.downloadAttachment(event, attachment, target);
+      fail("the content is shorter than the attachment");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, events.getAttachmentCache().size());
+    assertFalse(events.getAttachmentCache().getPartFile(AttachmentCache.key("ev", "at")).exists());
+  }
+
+  @Test
+  public void testIgnoredRangesRestartTheDownload() throws Exception {
+    write(part, "hello ");
+    server.enqueue(new MockResponse().setBody("hello world"));
+
+    events.downloadAttachment(event, attachment, target);
+
+    assertEquals("bytes=6-", server.takeRequest().getHeader("Range"));
+    assertEquals("hello world", read(target));
+  }
+
+  @Test
+  public void testCachedAttachmentsAreReadFromDisk() throws Exception {
+    events.setAttachmentCache(new AttachmentCache(directory, 1024));
+    server.enqueue(new MockResponse().setBody("hello world"));
+
+    for (int i = 0; i < 3; i++) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      assertEquals(11, events.downloadAttachment(event, attachment, Channels.newChannel(output)));
+      assertEquals("hello world", output.toString("UTF-8"));
+    }
+    target.delete();
+    events.downloadAttachment(event, attachment, target);
+    assertEquals("hello world", read(target));
+    assertEquals(1, server.getRequestCount());
+    assertEquals(11, events.getAttachmentCache().getTotalBytes());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedAttachmentsAreEvicted() throws Exception {
+    AttachmentCache cache = new AttachmentCache(directory, 10);
+    write(target, "1234");
+    cache.put("a", target);
+    cache.put("b", target);
+    assertNotNull(cache.get("a"));
+    cache.put("c", target);
+
+    assertNull(cache.get("b"));
+    assertEquals(8, cache.getTotalBytes());
+    write(target, "12345678901");
+    assertNull("contents bigger than the cache are not cached", cache.put("d", target));
+
+    AttachmentCache reopened = new AttachmentCache(directory, 10);
+    assertEquals(2, reopened.size());
+    assertEquals("1234", read(reopened.get("a")));
+    assertEquals("1234", read(reopened.get("c")));
+  }
+
+  @Test
+  public void testAsynchronousDownloads() throws Exception {
+    server.enqueue(new MockResponse().setBody("hello world"));
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<File> result = new AtomicReference<File>();
+    target.delete();
+
+    events.downloadAttachment(event, attachment, target, new ApiCallback<File>() {
+      @Override
+      public void onSuccess(File file) {
+        result.set(file);
+        latch.countDown();
+      }
+
+      @Override
+      public void onApiError(ApiException exception) {
+        latch.countDown();
+      }
+
+      @Override
+      public void onFailure(IOException exception) {
+        latch.countDown();
+      }
+    });
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+    assertEquals(target, result.get());
+    assertEquals("hello world", read(target));
+  }
+
+  private static void write(File file, String content) throws IOException {
+    FileOutputStream output = new FileOutputStream(file);
+    output.write(content.getBytes(StandardCharsets.UTF_8));
+    output.close();
+  }
+
+  private static String read(File file) throws IOException {
+    InputStream input = new FileInputStream(file);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[64];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      output.write(buffer, 0, read);
+    }
+    input.close();
+    return output.toString("UTF-8");
+  }
+}
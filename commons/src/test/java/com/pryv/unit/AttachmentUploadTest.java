@@ -0,0 +1,130 @@
+package com.pryv.unit;
+
+import com.pryv.api.AttachmentRequestBody;
+import com.pryv.api.HttpClient;
+import com.pryv.api.UploadProgressListener;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.model.Attachment;
+import com.pryv.model.Event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test the upload of attachments against a local HTTP server
+ */
+public class AttachmentUploadTest {
+
+  private MockWebServer server;
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    file = File.createTempFile("attachment", ".txt");
+    FileOutputStream output = new FileOutputStream(file);
+    output.write("skip:file content".getBytes(StandardCharsets.UTF_8));
+    output.close();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+    file.delete();
+  }
+
+  @Test
+  public void testAllAttachmentsAreUploadedInOneRequest() throws Exception {
+    server.enqueue(new MockResponse().setBody("{\"event\":{\"id\":\"ev\",\"attachments\":[]},"
+        + "\"meta\":{\"serverTime\":1}}"));
+    ConnectionEvents events = new ConnectionEvents(new HttpClient(server.url("/").toString(), "?auth=token"));
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(16);
+    direct.put("direct buffer".getBytes(StandardCharsets.UTF_8)).flip();
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    FileChannel channel = randomAccessFile.getChannel().position(5);
+    Event event = new Event("diary", "picture/attached", null)
+        .addAttachment(new Attachment().setFile(file).setType("text/plain"))
+        .addAttachment(new Attachment().setFileName("stream.bin").setType("application/octet-stream")
+            .setData(new ByteArrayInputStream("stream data".getBytes(StandardCharsets.UTF_8)), -1))
+        .addAttachment(new Attachment().setFileName("buffer.txt").setData(direct))
+        .addAttachment(new Attachment().setFileName("channel.txt").setData(channel));
+
+    final AtomicLong progress = new AtomicLong();
+    events.create(event, new UploadProgressListener() {
+      @Override
+      public void onProgress(long bytesWritten, long contentLength) {
+        progress.set(bytesWritten);
+      }
+    });
+    assertEquals(0, direct.position());
+    assertEquals(5, channel.position());
+    randomAccessFile.close();
+
+    RecordedRequest request = server.takeRequest();
+    String body = request.getBody().readUtf8();
+    assertTrue(request.getHeader("Content-Type").startsWith("multipart/form-data"));
+    assertEquals(request.getBodySize(), progress.get());
+    assertNull(event.getAttachments());
+    assertTrue(body.contains("name=\"event\""));
+    assertTrue(body.contains("filename=\"" + file.getName() + "\"\r\nContent-Type: text/plain"));
+    assertTrue(body.contains("skip:file content"));
+    assertTrue(body.contains("filename=\"stream.bin\"\r\nContent-Type: application/octet-stream"));
+    assertTrue(body.contains("stream data"));
+    assertTrue(body.contains("filename=\"buffer.txt\""));
+    assertTrue(body.contains("direct buffer"));
+    assertTrue(body.contains("filename=\"channel.txt\"\r\nContent-Length: 12\r\n\r\nfile content\r\n"));
+  }
+
+  @Test
+  public void testBuffersCanBeWrittenAgainButNotStreams() throws IOException {
+    AttachmentRequestBody buffer = new AttachmentRequestBody(new Attachment()
+        .setData(ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8))));
+    assertEquals("abc", write(buffer));
+    assertEquals("abc", write(buffer));
+    assertEquals(3, buffer.contentLength());
+
+    AttachmentRequestBody stream = new AttachmentRequestBody(new Attachment()
+        .setData(new ByteArrayInputStream(new byte[] {'a'}), 1));
+    assertEquals("a", write(stream));
+    try {
+      write(stream);
+      fail("a stream cannot be uploaded twice");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAttachmentWithoutContentIsRejected() {
+    new AttachmentRequestBody(new Attachment().setFileName("missing.txt"));
+  }
+
+  private String write(AttachmentRequestBody body) throws IOException {
+    Buffer buffer = new Buffer();
+    body.writeTo(buffer);
+    return buffer.readUtf8();
+  }
+}
@@ -0,0 +1,234 @@
+package com.pryv.unit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pryv.api.HttpClient;
+import com.pryv.connection.Batch;
+import com.pryv.connection.BatchCall;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.connection.ConnectionStreams;
+import com.pryv.connection.QueryCache;
+import com.pryv.connection.StreamsSnapshot;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test batch calls against a local HTTP server answering each method call with
+ * its params
+ */
+public class BatchTest {
+
+  private static final String META = "\"meta\":{\"serverTime\":1}";
+
+  private ObjectMapper mapper = new ObjectMapper();
+  private MockWebServer server;
+  private ConnectionEvents events;
+  private ConnectionStreams streams;
+  private AtomicInteger eventsRequests = new AtomicInteger();
+  private AtomicInteger batchRequests = new AtomicInteger();
+  private volatile int failingBatchRequest = 0;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        String path = request.getPath();
+        if (path.startsWith("/streams")) {
+          return new MockResponse().setBody("{\"streams\":[{\"id\":\"root\",\"name\":\"root\",\"children\":["
+              + "{\"id\":\"child\",\"name\":\"child\",\"parentId\":\"root\"}]}]," + META + "}");
+        }
+        if (path.startsWith("/events")) {
+          eventsRequests.incrementAndGet();
+          return new MockResponse().setBody("{\"events\":[]," + META + "}");
+        }
+        if (batchRequests.incrementAndGet() == failingBatchRequest) {
+          return new MockResponse().setResponseCode(503).setBody("{}");
+        }
+        try {
+          return new MockResponse().setBody(answer(mapper.readTree(request.getBody().readUtf8())));
+        } catch (IOException e) {
+          return new MockResponse().setResponseCode(400);
+        }
+      }
+    });
+    server.start();
+    HttpClient client = new HttpClient(server.url("/").toString(), "?auth=token");
+    events = new ConnectionEvents(client);
+    streams = new ConnectionStreams(client);
+    events.setStreams(streams);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testCallsAreSentInChunksAndHoldTheirOwnResult() throws Exception {
+    Batch batch = new Batch(new HttpClient(server.url("/").toString(), "?auth=token")).setChunkSize(2);
+    List<BatchCall<Event>> createCalls = new ArrayList<BatchCall<Event>>();
+    for (int i = 0; i < 4; i++) {
+      createCalls.add(batch.createEvent(new Event().setStreamId("s").setType("count/generic").setContent(i)));
+    }
+    BatchCall<Event> failingCall = batch.updateEvent(new Event().setId("unknown").setStreamId("s"));
+    assertEquals(5, batch.size());
+
+    List<BatchCall<?>> executedCalls = batch.exec();
+
+    assertEquals(3, server.getRequestCount());
+    assertEquals(5, executedCalls.size());
+    assertEquals(0, batch.size());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(createCalls.get(i).isSuccessful());
+      assertEquals(i, createCalls.get(i).get().getContent());
+    }
+    assertTrue(failingCall.isExecuted());
+    assertFalse(failingCall.isSuccessful());
+    assertEquals("unknown-resource", failingCall.getError().getId());
+    try {
+      failingCall.get();
+      fail("the call's error should have been thrown");
+    } catch (ApiException e) {
+      assertEquals("unknown-resource", e.getId());
+    }
+  }
+
+  @Test
+  public void testFailedChunksAreNotSentAgain() throws Exception {
+    failingBatchRequest = 2;
+    Batch batch = new Batch(new HttpClient(server.url("/").toString(), "?auth=token")).setChunkSize(2);
+    List<BatchCall<Event>> createCalls = new ArrayList<BatchCall<Event>>();
+    for (int i = 0; i < 5; i++) {
+      createCalls.add(batch.createEvent(new Event().setStreamId("s").setType("count/generic").setContent(i)));
+    }
+
+    try {
+      batch.exec();
+      fail("the second chunk should have failed");
+    } catch (ApiException e) {
+      // expected
+    }
+    assertTrue(createCalls.get(1).isSuccessful());
+    assertFalse(createCalls.get(2).isExecuted());
+    assertFalse(createCalls.get(3).isExecuted());
+    assertEquals(1, batch.size());
+
+    assertEquals(1, batch.exec().size());
+    assertTrue(createCalls.get(4).isSuccessful());
+    assertEquals(3, server.getRequestCount());
+  }
+
+  @Test
+  public void testWritesInvalidateTheCachedResults() throws Exception {
+    QueryCache cache = new QueryCache(10, 1 << 20, 1, TimeUnit.MINUTES);
+    cache.setStreams(streams);
+    events.setQueryCache(cache);
+    streams.setQueryCache(cache);
+    streams.get(null);
+    Filter childFilter = new Filter().addStream(new Stream("child", null));
+    events.get(childFilter);
+    events.get(new Filter().addStream(new Stream("other", null)));
+    assertEquals(3, cache.size());
+
+    Batch batch = new Batch(new HttpClient(server.url("/").toString(), "?auth=token"), events, streams);
+    batch.createEvent(new Event("child", "note/txt", "new"));
+    batch.exec();
+    assertEquals(2, cache.size());
+    events.get(childFilter);
+    assertEquals(3, eventsRequests.get());
+  }
+
+  @Test
+  public void testStreamDeletionsInvalidateTheResultsOfTheirDescendants() throws Exception {
+    QueryCache cache = new QueryCache(10, 1 << 20, 1, TimeUnit.MINUTES);
+    cache.setStreams(streams);
+    events.setQueryCache(cache);
+    streams.setQueryCache(cache);
+    streams.get(null);
+    events.get(new Filter().addStream(new Stream("child", null)));
+    events.get(new Filter().addStream(new Stream("other", null)));
+    assertEquals(3, cache.size());
+
+    Batch batch = new Batch(new HttpClient(server.url("/").toString(), "?auth=token"), events, streams);
+    batch.deleteStream(new Stream("root", null), false);
+    batch.exec();
+    assertNull(streams.getSnapshot().getStreamById("child"));
+    assertEquals(2, cache.size());
+    events.get(new Filter().addStream(new Stream("child", null)));
+    assertEquals(3, eventsRequests.get());
+  }
+
+  @Test
+  public void testStreamChangesAreAppliedToTheTree() throws Exception {
+    streams.get(null);
+    assertEquals(1, streams.getVersion());
+
+    Batch batch = new Batch(new HttpClient(server.url("/").toString(), "?auth=token"), events, streams);
+    batch.createStream(new Stream("new", "new").setParentId("root"));
+    batch.updateStream(new Stream("child", "renamed").setParentId("root"));
+    batch.exec();
+    StreamsSnapshot snapshot = streams.getSnapshot();
+    assertEquals(3, snapshot.getVersion());
+    assertEquals(3, snapshot.size());
+    assertEquals("renamed", snapshot.getStreamById("child").getName());
+    assertEquals(2, snapshot.getStreamById("root").getChildren().size());
+
+    batch.deleteStream(new Stream("child", null), false);
+    batch.deleteStream(new Stream("unknown", null), false);
+    batch.exec();
+    assertEquals(4, streams.getVersion());
+    assertNull(streams.getSnapshot().getStreamById("child"));
+  }
+
+  /**
+   * Answers each method call with the resource it sent, or with an error for the id "unknown"
+   */
+  private String answer(JsonNode methodCalls) {
+    ObjectNode response = mapper.createObjectNode();
+    ArrayNode results = response.putArray("results");
+    for (JsonNode methodCall : methodCalls) {
+      String[] method = methodCall.get("method").textValue().split("\\.");
+      String key = method[0].substring(0, method[0].length() - 1);
+      JsonNode params = methodCall.get("params");
+      ObjectNode result = results.addObject();
+      if (params.has("id") && "unknown".equals(params.get("id").textValue())) {
+        result.putObject("error").put("id", "unknown-resource").put("message", "unknown " + key);
+      } else if ("create".equals(method[1])) {
+        result.set(key, params);
+      } else if ("update".equals(method[1])) {
+        ((ObjectNode) result.putObject(key).setAll((ObjectNode) params.get("update"))).set("id", params.get("id"));
+      } else {
+        result.putObject(key + "Deletion").set("id", params.get("id"));
+      }
+    }
+    response.putObject("meta").put("serverTime", 1);
+    return response.toString();
+  }
+}
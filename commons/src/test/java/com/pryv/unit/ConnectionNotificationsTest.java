@@ -0,0 +1,204 @@
+package com.pryv.unit;
+
+import com.jayway.awaitility.Awaitility;
+import com.pryv.api.PryvHttpEngine;
+import com.pryv.connection.ConnectionNotifications;
+import com.pryv.connection.NotificationsListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.ws.WebSocket;
+import okhttp3.ws.WebSocketListener;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test the socket.io notifications against a local websocket server
+ */
+public class ConnectionNotificationsTest {
+
+  private static final String NAMESPACE = "/username";
+  private static final String HANDSHAKE = "0{\"sid\":\"sid\",\"pingInterval\":25000,\"pingTimeout\":60000}";
+
+  private MockWebServer server;
+  private BlockingQueue<WebSocket> serverSockets;
+  private BlockingQueue<String> receivedPackets;
+  private ConnectionNotifications notifications;
+  private AtomicInteger eventsChanged;
+  private AtomicInteger streamsChanged;
+  private AtomicInteger accessesChanged;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    serverSockets = new LinkedBlockingQueue<>();
+    receivedPackets = new LinkedBlockingQueue<>();
+    server.enqueue(socketResponse());
+    server.enqueue(socketResponse());
+    server.start();
+
+    String url = server.url("/socket.io/").toString() + "?EIO=3&transport=websocket&auth=token";
+    notifications = new ConnectionNotifications(url, NAMESPACE, PryvHttpEngine.getDefault().getClient());
+    notifications.setDebounceDelay(200);
+    notifications.setReconnectDelays(50, 100);
+    eventsChanged = new AtomicInteger();
+    streamsChanged = new AtomicInteger();
+    accessesChanged = new AtomicInteger();
+    notifications.addListener(new NotificationsListener() {
+      @Override
+      public void onEventsChanged() {
+        eventsChanged.incrementAndGet();
+      }
+
+      @Override
+      public void onStreamsChanged() {
+        streamsChanged.incrementAndGet();
+      }
+
+      @Override
+      public void onAccessesChanged() {
+        accessesChanged.incrementAndGet();
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    notifications.stop();
+    server.shutdown();
+  }
+
+  @Test
+  public void testSignalsAreCoalesced() throws Exception {
+    notifications.start();
+    WebSocket socket = connect();
+
+    send(socket, "42" + NAMESPACE + ",[\"eventsChanged\"]");
+    send(socket, "42" + NAMESPACE + ",[\"eventsChanged\"]");
+    send(socket, "42" + NAMESPACE + ",[\"streamsChanged\"]");
+    send(socket, "42" + NAMESPACE + ",[\"eventsChanged\"]");
+    send(socket, "42/other,[\"accessesChanged\"]");
+
+    Awaitility.await().until(counted(eventsChanged));
+    Thread.sleep(300);
+    assertEquals(1, eventsChanged.get());
+    assertEquals(1, streamsChanged.get());
+    assertEquals(0, accessesChanged.get());
+  }
+
+  @Test
+  public void testSlowListenersDoNotDelayTheSocket() throws Exception {
+    final CountDownLatch called = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+    notifications.addListener(new NotificationsListener() {
+      @Override
+      public void onEventsChanged() {
+        called.countDown();
+        try {
+          released.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      @Override
+      public void onStreamsChanged() {
+      }
+
+      @Override
+      public void onAccessesChanged() {
+      }
+    });
+    notifications.start();
+    WebSocket socket = connect();
+    send(socket, "42" + NAMESPACE + ",[\"eventsChanged\"]");
+    assertTrue(called.await(5, TimeUnit.SECONDS));
+
+    // pings are answered while the listener runs
+    send(socket, "2");
+    assertEquals("3", receivedPackets.poll(5, TimeUnit.SECONDS));
+    released.countDown();
+  }
+
+  @Test
+  public void testReconnectsAndSignalsMissedChanges() throws Exception {
+    notifications.start();
+    WebSocket socket = connect();
+    send(socket, "41" + NAMESPACE);
+
+    connect();
+    Awaitility.await().until(counted(eventsChanged));
+    assertEquals(1, streamsChanged.get());
+    assertEquals(1, accessesChanged.get());
+  }
+
+  private WebSocket connect() throws Exception {
+    WebSocket socket = serverSockets.poll(5, TimeUnit.SECONDS);
+    send(socket, HANDSHAKE);
+    assertEquals("40" + NAMESPACE, receivedPackets.poll(5, TimeUnit.SECONDS));
+    send(socket, "40" + NAMESPACE);
+    Awaitility.await().until(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return notifications.isConnected();
+      }
+    });
+    return socket;
+  }
+
+  private void send(WebSocket socket, String packet) throws IOException {
+    socket.sendMessage(RequestBody.create(WebSocket.TEXT, packet));
+  }
+
+  private Callable<Boolean> counted(final AtomicInteger counter) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return counter.get() > 0;
+      }
+    };
+  }
+
+  private MockResponse socketResponse() {
+    return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+      @Override
+      public void onOpen(WebSocket webSocket, Response response) {
+        serverSockets.add(webSocket);
+      }
+
+      @Override
+      public void onMessage(ResponseBody message) throws IOException {
+        receivedPackets.add(message.string());
+      }
+
+      @Override
+      public void onFailure(IOException e, Response response) {
+      }
+
+      @Override
+      public void onPong(Buffer payload) {
+      }
+
+      @Override
+      public void onClose(int code, String reason) {
+      }
+    });
+  }
+}
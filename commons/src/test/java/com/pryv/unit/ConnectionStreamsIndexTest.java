@@ -0,0 +1,166 @@
+package com.pryv.unit;
+
+import com.pryv.api.HttpClient;
+import com.pryv.connection.ConnectionStreams;
+import com.pryv.connection.QueryCache;
+import com.pryv.connection.StreamsSnapshot;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test the flat Streams index maintained by ConnectionStreams
+ */
+public class ConnectionStreamsIndexTest {
+
+  private static final String META = "\"meta\":{\"serverTime\":1000}";
+
+  private MockWebServer server;
+  private ConnectionStreams streams;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new MockWebServer();
+    server.start();
+    streams = new ConnectionStreams(new HttpClient(server.url("/").toString(), "?auth=token"));
+
+    enqueueTree();
+    streams.get(null);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testGetIndexesWholeTree() {
+    assertEquals("grandchild", streams.getStreamById("grandchild").getId());
+    assertEquals(2, streams.getRootStreams().size());
+
+    List<Stream> ancestors = streams.getAncestors("grandchild");
+    assertEquals(2, ancestors.size());
+    assertEquals("child", ancestors.get(0).getId());
+    assertEquals("root", ancestors.get(1).getId());
+
+    List<Stream> descendants = streams.getDescendants("root");
+    assertEquals(2, descendants.size());
+    assertEquals("child", descendants.get(0).getId());
+    assertEquals("grandchild", descendants.get(1).getId());
+
+    Filter filter = new Filter().addStream(new Stream("child", null));
+    assertTrue(streams.hasInScope(filter, "grandchild"));
+    assertFalse(streams.hasInScope(filter, "root"));
+    assertFalse(streams.hasInScope(filter, "other"));
+  }
+
+  @Test
+  public void testMutationsUpdateIndex() throws Exception {
+    enqueue("{\"stream\":{\"id\":\"new\",\"name\":\"new\",\"parentId\":\"other\"}," + META + "}");
+    streams.create(new Stream("new", "new").setParentId("other"));
+    assertEquals("other", streams.getAncestors("new").get(0).getId());
+    assertEquals(1, streams.getStreamById("other").getChildren().size());
+
+    // moving child under other carries its descendants along
+    enqueue("{\"stream\":{\"id\":\"child\",\"name\":\"child\",\"parentId\":\"other\"}," + META + "}");
+    streams.update(new Stream("child", "child").setParentId("other"));
+    assertEquals(0, streams.getDescendants("root").size());
+    assertNull(streams.getStreamById("root").getChildren());
+    assertEquals(3, streams.getDescendants("other").size());
+    assertEquals("other", streams.getAncestors("grandchild").get(1).getId());
+
+    enqueue("{\"streamDeletion\":{\"id\":\"child\"}," + META + "}");
+    streams.delete(streams.getStreamById("child"), false);
+    assertNull(streams.getStreamById("child"));
+    assertNull(streams.getStreamById("grandchild"));
+    assertEquals(1, streams.getDescendants("other").size());
+  }
+
+  @Test
+  public void testGetWithParentIdReplacesChildren() throws Exception {
+    enqueue("{\"streams\":[{\"id\":\"child2\",\"name\":\"child2\",\"parentId\":\"root\"}]," + META + "}");
+    streams.get(new Filter().setParentId("root"));
+    assertNull(streams.getStreamById("child"));
+    assertNull(streams.getStreamById("grandchild"));
+    assertEquals("root", streams.getAncestors("child2").get(0).getId());
+    assertEquals(2, streams.getRootStreams().size());
+  }
+
+  @Test
+  public void testSnapshotsAreVersionedCopies() throws Exception {
+    StreamsSnapshot snapshot = streams.getSnapshot();
+    assertSame(snapshot, streams.getSnapshot());
+    assertEquals(4, snapshot.size());
+    long version = snapshot.getVersion();
+
+    enqueue("{\"stream\":{\"id\":\"child\",\"name\":\"moved\",\"parentId\":\"other\"}," + META + "}");
+    streams.update(new Stream("child", "moved").setParentId("other"));
+    StreamsSnapshot updated = streams.getSnapshot();
+    assertEquals(version + 1, updated.getVersion());
+    assertEquals("other", updated.getStreamById("child").getParentId());
+    assertEquals("child", updated.getStreamById("grandchild").getParentId());
+    assertEquals("moved", updated.getRootStreams().get("other").getChildrenMap().get("child").getName());
+
+    // the previous snapshot is unchanged
+    assertEquals("child", snapshot.getStreamById("child").getName());
+    assertEquals("root", snapshot.getStreamById("child").getParentId());
+    assertTrue(snapshot.getRootStreams().get("root").hasChild("grandchild"));
+    assertNotSame(snapshot.getStreamById("other"), streams.getStreamById("other"));
+  }
+
+  @Test
+  public void testWritesRefreshTheCachedTree() throws Exception {
+    streams.setQueryCache(new QueryCache(10, 1 << 20, 1, TimeUnit.MINUTES));
+    enqueueTree();
+    streams.get(null);
+
+    enqueue("{\"stream\":{\"id\":\"new\",\"name\":\"new\",\"parentId\":\"root\"}," + META + "}");
+    streams.create(new Stream("new", "new").setParentId("root"));
+    enqueue("{\"streamDeletion\":{\"id\":\"other\"}," + META + "}");
+    streams.delete(new Stream("other", "other"), true);
+    int requestsCount = server.getRequestCount();
+
+    Map<String, Stream> rootStreams = streams.get(null);
+    assertEquals(requestsCount, server.getRequestCount());
+    assertEquals(1, rootStreams.size());
+    assertTrue(rootStreams.get("root").getChildrenMap().containsKey("new"));
+
+    // trashed Streams are not returned by default, the next get fetches the tree
+    enqueue("{\"stream\":{\"id\":\"new\",\"name\":\"new\",\"parentId\":\"root\",\"trashed\":true},"
+        + META + "}");
+    streams.delete(new Stream("new", "new"), false);
+    enqueueTree();
+    assertEquals(2, streams.get(null).size());
+    assertEquals(requestsCount + 2, server.getRequestCount());
+  }
+
+  private void enqueueTree() {
+    enqueue("{\"streams\":[" +
+            "{\"id\":\"root\",\"name\":\"root\",\"children\":[" +
+            "{\"id\":\"child\",\"name\":\"child\",\"parentId\":\"root\",\"children\":[" +
+            "{\"id\":\"grandchild\",\"name\":\"grandchild\",\"parentId\":\"child\"}]}]}," +
+            "{\"id\":\"other\",\"name\":\"other\"}]," + META + "}");
+  }
+
+  private void enqueue(String body) {
+    server.enqueue(new MockResponse().setBody(body));
+  }
+}
@@ -0,0 +1,91 @@
+package com.pryv.unit;
+
+import com.pryv.utils.Cuid;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test the format and uniqueness of generated ids
+ */
+public class CuidTest {
+
+  private static final String CUID_REGEX = "^c[a-z0-9]{24}$";
+  private static final int THREADS = 8;
+  private static final int IDS_PER_THREAD = 100000;
+
+  @Test
+  public void testFormat() {
+    assertTrue(Cuid.createCuid().matches(CUID_REGEX));
+    for (String cuid : Cuid.createCuids(10)) {
+      assertTrue(cuid.matches(CUID_REGEX));
+    }
+  }
+
+  @Test
+  public void testBulkIdsAreUnique() {
+    List<String> cuids = Cuid.createCuids(50000);
+    assertEquals(50000, cuids.size());
+    assertEquals(50000, new HashSet<String>(cuids).size());
+  }
+
+  @Test
+  public void testNegativeCountsAreRejected() {
+    try {
+      Cuid.createCuids(-5);
+      fail("a negative count should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertTrue(Cuid.createCuids(0).isEmpty());
+  }
+
+  @Test
+  public void testIdsAreUniqueUnderConcurrentLoad() throws Exception {
+    final Set<String> cuids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    Future<?>[] futures = new Future<?>[THREADS];
+    for (int t = 0; t < THREADS; t++) {
+      final boolean bulk = t % 2 == 0;
+      futures[t] = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws InterruptedException {
+          start.await();
+          if (bulk) {
+            for (int i = 0; i < IDS_PER_THREAD; i += 100) {
+              cuids.addAll(Cuid.createCuids(100));
+            }
+          } else {
+            for (int i = 0; i < IDS_PER_THREAD; i++) {
+              cuids.add(Cuid.createCuid());
+            }
+          }
+          return null;
+        }
+      });
+    }
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    assertEquals(THREADS * IDS_PER_THREAD, cuids.size());
+  }
+}
@@ -0,0 +1,76 @@
+package com.pryv.unit;
+
+import com.pryv.api.EventIterator;
+import com.pryv.model.Event;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test the streamed reading of events.get responses
+ */
+public class EventIteratorTest {
+
+    private static final String EVENTS_RESPONSE = "{\"events\":["
+            + "{\"id\":\"first\",\"streamId\":\"s1\",\"type\":\"note/txt\",\"content\":\"a\",\"time\":10.5},"
+            + "{\"id\":\"second\",\"streamId\":\"s2\",\"type\":\"mass/kg\",\"content\":70,\"time\":11,"
+            + "\"tags\":[\"t\"],\"clientData\":{\"nested\":{\"key\":[1,2]}}}"
+            + "],\"eventDeletions\":[{\"id\":\"gone\",\"deleted\":5}],"
+            + "\"meta\":{\"apiVersion\":\"1.0\",\"serverTime\":1234.5}}";
+
+    @Test
+    public void testIteratorReadsEventsAndServerTime() throws IOException {
+        EventIterator iterator = new EventIterator(toStream(EVENTS_RESPONSE));
+
+        assertTrue(iterator.hasNext());
+        Event first = iterator.next();
+        assertEquals("first", first.getId());
+        assertEquals("s1", first.getStreamId());
+        assertEquals(new Double(10.5), first.getTime());
+
+        Event second = iterator.next();
+        assertEquals("second", second.getId());
+        assertEquals(70, second.getContent());
+        assertTrue(second.getTags().contains("t"));
+
+        assertFalse(iterator.hasNext());
+        assertTrue(iterator.isFinished());
+        assertEquals(1234.5, iterator.getServerTime(), 0.0);
+    }
+
+    @Test
+    public void testMetaBeforeEvents() throws IOException {
+        EventIterator iterator = new EventIterator(toStream(
+                "{\"meta\":{\"serverTime\":42},\"events\":[{\"id\":\"only\"}]}"));
+        assertEquals("only", iterator.nextEvent().getId());
+        assertNull(iterator.nextEvent());
+        assertEquals(42, iterator.getServerTime(), 0.0);
+    }
+
+    @Test
+    public void testEmptyEvents() throws IOException {
+        EventIterator iterator = new EventIterator(toStream("{\"events\":[],\"meta\":{\"serverTime\":1}}"));
+        assertFalse(iterator.hasNext());
+        assertEquals(1, iterator.getServerTime(), 0.0);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testNextAfterEndThrows() throws IOException {
+        EventIterator iterator = new EventIterator(toStream("{\"events\":[]}"));
+        iterator.next();
+    }
+
+    private InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,11 +3,13 @@ package com.pryv.unit;
 import com.pryv.model.Attachment;
 import com.pryv.model.Event;
 import com.pryv.util.TestUtils;
+import com.pryv.utils.JsonConverter;
 
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -82,6 +84,18 @@ public class EventTest {
     assertEquals(CONTENT, event.getContent());
   }
 
+  @Test
+  public void testDeserializationDoesNotGenerateId() throws IOException {
+    Event event = (Event) JsonConverter.fromJson("{\"streamId\":\"" + STREAM_ID + "\",\"type\":\"" + TYPE
+            + "\",\"content\":\"" + CONTENT + "\"}", Event.class);
+    assertNull(event.getId());
+    assertEquals(STREAM_ID, event.getStreamId());
+    assertEquals(CONTENT, event.getContent());
+
+    event = (Event) JsonConverter.fromJson("{\"id\":\"" + ID + "\"}", Event.class);
+    assertEquals(ID, event.getId());
+  }
+
   @Test
   public void testFullConstructor() {
     TestUtils.checkEvent(testEvent, testEvent);
@@ -3,11 +3,14 @@ package com.pryv.unit;
 import com.pryv.model.Event;
 import com.pryv.model.Filter;
 import com.pryv.model.Filter.State;
+import com.pryv.model.FilterMatcher;
 import com.pryv.model.Stream;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -141,4 +144,80 @@ public class FilterTest {
     assertTrue(testFilter.isIncludedInScope(scope));
   }
 
+  @Test
+  public void testCompiledMatcher() {
+    Stream grandChild = new Stream("grandChildId", "grandChildName");
+    Stream child = new Stream("childId", "childName")
+            .addChildStream(grandChild);
+    Stream parent = new Stream("parentId", "parentName")
+            .addChildStream(child);
+    Filter filter = new Filter()
+            .addStream(child)
+            .setFromTime(100.0)
+            .setToTime(200.0)
+            .addTag("tag")
+            .addType("note/txt")
+            .setState(State.DEFAULT);
+    FilterMatcher matcher = filter.compile();
+
+    Event event = new Event()
+            .setStreamId(grandChild.getId())
+            .setType("note/txt")
+            .setTime(150.0)
+            .addTag("tag");
+    assertTrue(matcher.match(event));
+    assertTrue(matcher.hasInScope(grandChild.getId()));
+    assertFalse(matcher.hasInScope(parent.getId()));
+    assertEquals(2, matcher.getStreamIds().size());
+
+    assertFalse(matcher.match(event.setStreamId(parent.getId())));
+    assertFalse(matcher.match(event.setStreamId(child.getId()).setTime(250.0)));
+    assertFalse(matcher.match(event.setTime(150.0).setType("mass/kg")));
+    assertFalse(matcher.match(event.setType("note/txt").setTrashed(true)));
+    assertTrue(matcher.match(event.setTrashed(false)));
+
+    // the matcher is not affected by later changes of the filter
+    filter.addType("mass/kg");
+    assertFalse(matcher.match(event.setType("mass/kg")));
+  }
+
+  @Test
+  public void testFilterListInParallel() {
+    List<Event> events = new ArrayList<Event>();
+    for (int i = 0; i < 3 * FilterMatcher.PARALLEL_THRESHOLD; i++) {
+      events.add(new Event()
+              .setStreamId(i % 3 == 0 ? "streamId" : "otherStreamId")
+              .setTime((double) i));
+    }
+    Filter filter = new Filter()
+            .addStream(new Stream("streamId", null))
+            .setFromTime(100.0);
+
+    List<Event> matchingEvents = filter.filterWithDescendants(events);
+    assertEquals(matchingEvents, filter.filterWithDescendants((Iterable<Event>) events));
+    assertEquals(FilterMatcher.PARALLEL_THRESHOLD - 34, matchingEvents.size());
+    for (int i = 1; i < matchingEvents.size(); i++) {
+      assertTrue(matchingEvents.get(i - 1).getTime() < matchingEvents.get(i).getTime());
+    }
+  }
+
+  @Test
+  public void testCanonicalForm() {
+    Filter filter = new Filter().setFromTime(1.0)
+        .addStream(new Stream("b", null)).addStream(new Stream("a", null)).addStream(new Stream("c", null))
+        .addTag("z").addTag("y").addType("note/txt").addType("mass/kg");
+    Filter sameFilter = new Filter().addType("mass/kg").addType("note/txt").addTag("y").addTag("z")
+        .addStream(new Stream("c", null)).addStream(new Stream("a", null)).addStream(new Stream("b", null))
+        .setFromTime(1.0);
+
+    assertEquals("&fromTime=1.0&streams[]=a&streams[]=b&streams[]=c&tags[]=y&tags[]=z"
+        + "&types[]=mass/kg&types[]=note/txt", filter.toUrlParameters());
+    assertEquals(filter.toUrlParameters(), sameFilter.toUrlParameters());
+    assertEquals(filter, sameFilter);
+    assertEquals(filter.hashCode(), sameFilter.hashCode());
+    assertEquals(filter, filter.copy());
+    assertFalse(filter.equals(sameFilter.copy().setLimit(10)));
+    assertFalse(filter.equals(sameFilter.copy().addTag("x")));
+  }
+
 }
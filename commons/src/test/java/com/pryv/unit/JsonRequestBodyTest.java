@@ -0,0 +1,103 @@
+package com.pryv.unit;
+
+import com.pryv.api.HttpClient;
+import com.pryv.api.JsonRequestBody;
+import com.pryv.model.Event;
+import com.pryv.utils.JsonConverter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test the JSON request bodies written while the request is sent
+ */
+public class JsonRequestBodyTest {
+
+  @Test
+  public void testBodyIsSerializedAsToJson() throws IOException {
+    Event event = new Event("diary", "note/txt", "I track, therefore I am.");
+    assertEquals(JsonConverter.toJson(event), write(JsonRequestBody.of(event)));
+
+    Map<String, Object> methodCall = new LinkedHashMap<String, Object>();
+    methodCall.put("method", "events.create");
+    methodCall.put("params", event);
+    List<Object> methodCalls = new ArrayList<Object>(Arrays.asList(methodCall, null, "text"));
+    assertEquals(JsonConverter.toJson(methodCalls), write(JsonRequestBody.ofArray(methodCalls)));
+    // an Iterable body can be written again
+    assertEquals(JsonConverter.toJson(methodCalls), write(JsonRequestBody.ofArray(methodCalls)));
+  }
+
+  @Test
+  public void testIteratorItemsAreProducedLazilyAndOnce() throws IOException {
+    final int[] produced = {0};
+    Iterator<Event> events = new Iterator<Event>() {
+      @Override
+      public boolean hasNext() {
+        return produced[0] < 3;
+      }
+
+      @Override
+      public Event next() {
+        produced[0]++;
+        return new Event().setId("event-" + produced[0]);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    JsonRequestBody body = JsonRequestBody.ofArray(events);
+    assertEquals(0, produced[0]);
+    assertEquals(-1, body.contentLength());
+
+    String json = write(body);
+    assertEquals(3, produced[0]);
+    assertEquals("event-3", JsonConverter.toJsonNode(json).get(2).get("id").textValue());
+    try {
+      write(body);
+      fail("an Iterator body cannot be written twice");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRequestsStreamTheirBody() throws Exception {
+    MockWebServer server = new MockWebServer();
+    server.enqueue(new MockResponse().setBody("{\"results\":[],\"meta\":{\"serverTime\":1}}"));
+    server.start();
+    try {
+      HttpClient httpClient = new HttpClient(server.url("/").toString(), "?auth=token");
+      List<Event> events = Arrays.asList(new Event().setId("a"), new Event().setId("b"));
+      httpClient.batchRequest(events).exec();
+
+      RecordedRequest request = server.takeRequest();
+      assertEquals("chunked", request.getHeader("Transfer-Encoding"));
+      assertEquals(JsonConverter.toJson(events), request.getBody().readUtf8());
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  private String write(JsonRequestBody body) throws IOException {
+    Buffer buffer = new Buffer();
+    body.writeTo(buffer);
+    return buffer.readUtf8();
+  }
+}
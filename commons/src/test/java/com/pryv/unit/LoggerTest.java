@@ -0,0 +1,108 @@
+package com.pryv.unit;
+
+import com.pryv.utils.AsyncLogAppender;
+import com.pryv.utils.LogAppender;
+import com.pryv.utils.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test the leveled Logger and its appenders
+ */
+public class LoggerTest {
+
+  private Logger logger;
+  private List<String> messages;
+
+  @Before
+  public void setUp() {
+    logger = new Logger();
+    messages = Collections.synchronizedList(new ArrayList<String>());
+    logger.setAppender(new LogAppender() {
+      @Override
+      public void append(Logger.Level level, String threadName, String message) {
+        messages.add(level + " " + message);
+      }
+    });
+  }
+
+  @Test
+  public void testLevelsBelowCurrentOneAreSkipped() {
+    logger.setLevel(Logger.Level.WARN);
+    logger.debug("debug {}", 1);
+    logger.info("info");
+    logger.warn("warn {} {}", 1, 2);
+    logger.error("error {}", "a");
+    assertEquals(2, messages.size());
+    assertEquals("WARN warn 1 2", messages.get(0));
+    assertEquals("ERROR error a", messages.get(1));
+  }
+
+  @Test
+  public void testParameterizedMessages() {
+    logger.setLevel(Logger.Level.DEBUG);
+    logger.log(Logger.Level.INFO, "{} and {} then {}", "a", null, 3);
+    logger.debug("missing {} {}", "argument");
+    logger.info("no placeholder", "ignored");
+    assertEquals("INFO a and null then 3", messages.get(0));
+    assertEquals("DEBUG missing argument {}", messages.get(1));
+    assertEquals("INFO no placeholder", messages.get(2));
+  }
+
+  @Test
+  public void testThrowablesAreWrittenWithTheirStackTrace() {
+    logger.error("failure", new IllegalStateException("broken"));
+    String message = messages.get(0);
+    assertTrue(message.startsWith("ERROR failure"));
+    assertTrue(message.contains("java.lang.IllegalStateException: broken"));
+    assertTrue(message.contains("at com.pryv.unit.LoggerTest.testThrowablesAreWrittenWithTheirStackTrace"));
+  }
+
+  @Test
+  public void testDisabledMessagesAreNotBuilt() {
+    final boolean[] built = {false};
+    Logger.Message message = new Logger.Message() {
+      @Override
+      public String get() {
+        built[0] = true;
+        return "built";
+      }
+    };
+    logger.turnOff();
+    logger.log(Logger.Level.ERROR, message);
+    assertFalse(built[0]);
+    assertFalse(logger.isEnabled(Logger.Level.ERROR));
+
+    logger.setLevel(Logger.Level.DEBUG);
+    logger.log(Logger.Level.DEBUG, message);
+    assertTrue(built[0]);
+    assertEquals("DEBUG built", messages.get(0));
+  }
+
+  @Test
+  public void testAsyncAppenderWritesEveryBufferedMessage() throws InterruptedException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Logger streamLogger = new Logger();
+    streamLogger.setOutputStream(output);
+    AsyncLogAppender asyncAppender = new AsyncLogAppender(streamLogger.getAppender(), 10000);
+    logger.setAppender(asyncAppender);
+    for (int i = 0; i < 1000; i++) {
+      logger.info("message {}", i);
+    }
+    asyncAppender.close();
+    assertEquals(0, asyncAppender.getDroppedCount());
+    String[] lines = output.toString().split("\n");
+    assertEquals(1000, lines.length);
+    assertTrue(lines[999].startsWith("INFO message 999 - Thread:"));
+  }
+}
@@ -0,0 +1,159 @@
+package com.pryv.unit;
+
+import com.pryv.api.HttpClient;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.connection.PagedEventIterator;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test the keyset pagination of Events against a local HTTP server
+ */
+public class PagedEventIteratorTest {
+
+  private MockWebServer server;
+  private ConnectionEvents events;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    events = new ConnectionEvents(new HttpClient(server.url("/").toString(), "?auth=token"));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testPagesMoveTheTimeBoundAndSkipTheBoundaryEvents() throws Exception {
+    server.enqueue(page("a", 5, "b", 4));
+    server.enqueue(page("b", 4, "c", 4, "d", 4));
+    server.enqueue(page("b", 4, "c", 4, "d", 4, "e", 3));
+
+    PagedEventIterator iterator = events.iterate(new Filter().setToTime(10.0).setLimit(1), 2);
+    List<String> ids = new ArrayList<String>();
+    while (iterator.hasNext()) {
+      ids.add(iterator.next().getId());
+    }
+
+    assertEquals(Arrays.asList("a", "b", "c", "d", "e"), ids);
+    assertEquals(5, iterator.getReturnedCount());
+    assertEquals(3, iterator.getPagesCount());
+    assertEquals(1, iterator.getProgress(), 0);
+
+    HttpUrl first = url(server.takeRequest());
+    assertEquals("10.0", first.queryParameter("toTime"));
+    assertEquals("2", first.queryParameter("limit"));
+    assertNotNull("the API defaults fromTime to 24h before toTime", first.queryParameter("fromTime"));
+    HttpUrl second = url(server.takeRequest());
+    assertEquals("4.0", second.queryParameter("toTime"));
+    assertEquals("3", second.queryParameter("limit"));
+    HttpUrl third = url(server.takeRequest());
+    assertEquals("4.0", third.queryParameter("toTime"));
+    assertEquals("5", third.queryParameter("limit"));
+    assertNull(third.queryParameter("skip"));
+  }
+
+  @Test
+  public void testNextPageIsPrefetched() throws Exception {
+    server.enqueue(page("a", 1, "b", 2));
+    server.enqueue(page("c", 3));
+
+    Filter filter = new Filter().setFromTime(0.0).setToTime(4.0).setSortAscending(true);
+    PagedEventIterator iterator = events.iterate(filter, 2);
+    assertEquals("a", iterator.nextEvent().getId());
+    assertEquals(0.5, iterator.getProgress(), 0);
+
+    // the second page is requested before the first one is read
+    server.takeRequest();
+    RecordedRequest prefetch = server.takeRequest(5, TimeUnit.SECONDS);
+    assertNotNull(prefetch);
+    assertEquals("2.0", url(prefetch).queryParameter("fromTime"));
+
+    assertEquals("b", iterator.nextEvent().getId());
+    assertEquals("c", iterator.nextEvent().getId());
+    assertNull(iterator.nextEvent());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testEventsOverlappingTheBoundaryAreNotReadAgain() throws Exception {
+    // the time of "a" is followed by its duration, its period reaching the next pages
+    String spanning = "1,\"duration\":5";
+    server.enqueue(page("a", spanning, "b", 2));
+    server.enqueue(page("a", spanning, "b", 2, "c", 3));
+    server.enqueue(page("a", spanning, "c", 3, "d", 4));
+
+    Filter filter = new Filter().setFromTime(0.0).setToTime(10.0).setSortAscending(true);
+    PagedEventIterator iterator = events.iterate(filter, 2);
+    List<String> ids = new ArrayList<String>();
+    while (iterator.hasNext()) {
+      ids.add(iterator.next().getId());
+    }
+
+    assertEquals(Arrays.asList("a", "b", "c", "d"), ids);
+    assertEquals(3.0, iterator.getBoundaryTime(), 0);
+    server.takeRequest();
+    assertEquals("3", url(server.takeRequest()).queryParameter("limit"));
+    HttpUrl third = url(server.takeRequest());
+    assertEquals("3.0", third.queryParameter("fromTime"));
+    assertEquals("4", third.queryParameter("limit"));
+  }
+
+  @Test
+  public void testErrorsAreThrownWhenThePageIsRead() throws Exception {
+    server.enqueue(page("a", 2, "b", 1));
+    server.enqueue(new MockResponse().setResponseCode(400)
+        .setBody("{\"error\":{\"id\":\"invalid-parameters-format\",\"message\":\"bad\"}}"));
+
+    PagedEventIterator iterator = events.iterate(new Filter(), 2);
+    iterator.nextEvent();
+    iterator.nextEvent();
+    try {
+      iterator.nextEvent();
+      fail("the error of the second page should be thrown");
+    } catch (ApiException e) {
+      assertEquals("invalid-parameters-format", e.getId());
+    }
+  }
+
+  private static HttpUrl url(RecordedRequest request) {
+    return HttpUrl.parse("http://localhost" + request.getPath());
+  }
+
+  private static MockResponse page(Object... idsAndTimes) {
+    StringBuilder body = new StringBuilder("{\"events\":[");
+    for (int i = 0; i < idsAndTimes.length; i += 2) {
+      if (i > 0) {
+        body.append(',');
+      }
+      body.append("{\"id\":\"").append(idsAndTimes[i]).append("\",\"streamId\":\"s\",\"time\":")
+          .append(idsAndTimes[i + 1]).append('}');
+    }
+    return new MockResponse().setBody(body.append("],\"meta\":{\"serverTime\":1}}").toString());
+  }
+}
@@ -0,0 +1,47 @@
+package com.pryv.unit;
+
+import com.pryv.api.PryvHttpEngine;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test the configuration of PryvHttpEngine
+ */
+public class PryvHttpEngineTest {
+
+  @Test
+  public void testBuilderConfiguresClient() {
+    PryvHttpEngine engine = new PryvHttpEngine.Builder()
+            .setConnectTimeout(3, TimeUnit.SECONDS)
+            .setReadTimeout(4, TimeUnit.SECONDS)
+            .setWriteTimeout(5, TimeUnit.SECONDS)
+            .setMaxRequests(100)
+            .setMaxRequestsPerHost(20)
+            .setHttp2Enabled(false)
+            .build();
+    OkHttpClient client = engine.getClient();
+    assertEquals(3000, client.connectTimeoutMillis());
+    assertEquals(4000, client.readTimeoutMillis());
+    assertEquals(5000, client.writeTimeoutMillis());
+    assertEquals(100, client.dispatcher().getMaxRequests());
+    assertEquals(20, client.dispatcher().getMaxRequestsPerHost());
+    assertFalse(client.protocols().contains(Protocol.HTTP_2));
+    assertTrue(client.protocols().contains(Protocol.HTTP_1_1));
+  }
+
+  @Test
+  public void testDefaultEngineIsShared() {
+    assertSame(PryvHttpEngine.getDefault(), PryvHttpEngine.getDefault());
+    assertSame(PryvHttpEngine.getDefault().getClient(), PryvHttpEngine.getDefault().getClient());
+  }
+}
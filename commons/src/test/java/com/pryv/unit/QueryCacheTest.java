@@ -0,0 +1,169 @@
+package com.pryv.unit;
+
+import com.pryv.api.HttpClient;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.connection.ConnectionStreams;
+import com.pryv.connection.QueryCache;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Class used to test the in-memory cache of get results against a local HTTP server
+ */
+public class QueryCacheTest {
+
+  private static final String META = "\"meta\":{\"serverTime\":1}";
+  private static final String EVENT = "{\"id\":\"ev\",\"streamId\":\"other\",\"time\":1,\"content\":\"text\"}";
+
+  private MockWebServer server;
+  private ConnectionEvents events;
+  private ConnectionStreams streams;
+  private AtomicInteger eventsRequests = new AtomicInteger();
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        String path = request.getPath();
+        if (path.startsWith("/streams/other")) {
+          return new MockResponse().setBody("{\"stream\":{\"id\":\"other\",\"name\":\"renamed\"}," + META + "}");
+        }
+        if (path.startsWith("/streams")) {
+          return new MockResponse().setBody("{\"streams\":[{\"id\":\"root\",\"name\":\"root\",\"children\":["
+              + "{\"id\":\"child\",\"name\":\"child\",\"parentId\":\"root\"}]},"
+              + "{\"id\":\"other\",\"name\":\"other\"}]," + META + "}");
+        }
+        if ("GET".equals(request.getMethod())) {
+          eventsRequests.incrementAndGet();
+          return new MockResponse().setBody("{\"events\":[" + EVENT + "]," + META + "}");
+        }
+        if (path.startsWith("/events/ev")) {
+          // the Event is moved to child
+          return new MockResponse().setBody("{\"event\":{\"id\":\"ev\",\"streamId\":\"child\","
+              + "\"time\":1}," + META + "}");
+        }
+        // creations return the sent Event
+        return new MockResponse().setBody("{\"event\":" + request.getBody().readUtf8() + "," + META + "}");
+      }
+    });
+    server.start();
+    HttpClient client = new HttpClient(server.url("/").toString(), "?auth=token");
+    events = new ConnectionEvents(client);
+    streams = new ConnectionStreams(client);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testEqualFiltersAreAnsweredFromTheCache() throws Exception {
+    QueryCache cache = cache(10, 1 << 20, 1, TimeUnit.MINUTES);
+    Filter filter = new Filter().addTag("a").addTag("b");
+
+    List<Event> first = events.get(filter);
+    first.clear();
+    filter.addTag("c");
+    List<Event> second = events.get(new Filter().addTag("b").addTag("a"));
+
+    assertEquals(1, second.size());
+    assertEquals(1, eventsRequests.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testEntriesExpire() throws Exception {
+    QueryCache cache = cache(10, 1 << 20, 50, TimeUnit.MILLISECONDS);
+    events.get(new Filter());
+    Thread.sleep(100);
+    events.get(new Filter());
+
+    assertEquals(2, eventsRequests.get());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+    QueryCache cache = cache(2, 1 << 20, 1, TimeUnit.MINUTES);
+    events.get(new Filter().addTag("a"));
+    events.get(new Filter().addTag("b"));
+    events.get(new Filter().addTag("a"));
+    events.get(new Filter().addTag("c"));
+    assertEquals(1, cache.getEvictionCount());
+    events.get(new Filter().addTag("a"));
+    assertEquals(3, eventsRequests.get());
+
+    events.get(new Filter().addTag("b"));
+    assertEquals(4, eventsRequests.get());
+    assertEquals(2, cache.size());
+    assertEquals(2 * cache.getBytes() / cache.size(), cache.getBytes());
+
+    // bounded by the estimated size
+    QueryCache smallCache = cache(10, cache.getBytes() / 2 + 1, 1, TimeUnit.MINUTES);
+    events.get(new Filter().addTag("a"));
+    events.get(new Filter().addTag("b"));
+    assertEquals(1, smallCache.size());
+  }
+
+  @Test
+  public void testWritesInvalidateTheirScope() throws Exception {
+    QueryCache cache = cache(10, 1 << 20, 1, TimeUnit.MINUTES);
+    streams.get(null);
+    Filter rootFilter = new Filter().addStream(new Stream("root", null));
+    Filter otherFilter = new Filter().addStream(new Stream("other", null));
+    events.get(rootFilter);
+    events.get(otherFilter);
+    events.get(new Filter().addTag("t"));
+    assertEquals(4, cache.size());
+
+    // created in a child of root: only the root and the all-streams results are invalidated
+    events.create(new Event("child", "note/txt", "new"));
+    assertEquals(2, cache.size());
+    events.get(otherFilter);
+    assertEquals(3, eventsRequests.get());
+
+    // moved from other: the results holding the Event are invalidated
+    events.update(new Event().setId("ev").setStreamId("child"));
+    assertEquals(1, cache.size());
+    assertEquals(3, cache.getInvalidationCount());
+
+    // Stream changes invalidate the Events results of their scope, the known tree is cached again
+    events.get(otherFilter);
+    streams.update(new Stream("other", "renamed"));
+    assertEquals(1, cache.size());
+    int requestsCount = server.getRequestCount();
+    assertEquals("renamed", streams.get(null).get("other").getName());
+    assertEquals(requestsCount, server.getRequestCount());
+  }
+
+  private QueryCache cache(int maxEntries, long maxBytes, long ttl, TimeUnit unit) {
+    QueryCache cache = new QueryCache(maxEntries, maxBytes, ttl, unit);
+    cache.setStreams(streams);
+    events.setQueryCache(cache);
+    streams.setQueryCache(cache);
+    return cache;
+  }
+}
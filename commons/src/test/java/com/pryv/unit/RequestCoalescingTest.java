@@ -0,0 +1,243 @@
+package com.pryv.unit;
+
+import com.pryv.api.ApiCallback;
+import com.pryv.api.HttpClient;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.connection.ConnectionStreams;
+import com.pryv.exceptions.ApiException;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test that identical GET requests in flight at the same time are sent once
+ */
+public class RequestCoalescingTest {
+
+  private static final String EVENTS = "{\"events\":[{\"id\":\"ev\",\"streamId\":\"s\",\"time\":1}],"
+      + "\"meta\":{\"serverTime\":1}}";
+  private static final int CALLERS = 8;
+
+  private MockWebServer server;
+  private HttpClient client;
+  private ConnectionEvents events;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+    client = new HttpClient(server.url("/").toString(), "?auth=token");
+    client.setCoalescingEnabled(true);
+    events = new ConnectionEvents(client);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testConcurrentIdenticalGetsShareOneCall() throws Exception {
+    server.enqueue(new MockResponse().setBody(EVENTS).setBodyDelay(500, TimeUnit.MILLISECONDS));
+    final AtomicReferenceArray<List<Event>> results = new AtomicReferenceArray<List<Event>>(CALLERS);
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[CALLERS];
+    for (int i = 0; i < CALLERS; i++) {
+      final int caller = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            // each caller builds its own Filter, with its sets filled in another order
+            Filter filter = caller % 2 == 0
+                ? new Filter().addStream(new Stream("a", null)).addStream(new Stream("b", null))
+                : new Filter().addStream(new Stream("b", null)).addStream(new Stream("a", null));
+            results.set(caller, events.get(filter));
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    assertEquals(1, server.getRequestCount());
+    assertNotNull(results.get(0));
+    for (int i = 1; i < CALLERS; i++) {
+      assertSame("the response is parsed once", results.get(0), results.get(i));
+    }
+    assertEquals(0, client.getInFlightCount());
+    try {
+      results.get(0).clear();
+      fail("the shared result should be unmodifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testStreamsAreParsedAndIndexedOnce() throws Exception {
+    server.enqueue(new MockResponse().setBodyDelay(500, TimeUnit.MILLISECONDS)
+        .setBody("{\"streams\":[{\"id\":\"s\",\"name\":\"s\"}],\"meta\":{\"serverTime\":1}}"));
+    final ConnectionStreams streams = new ConnectionStreams(client);
+    final AtomicReferenceArray<Map<String, Stream>> results = new AtomicReferenceArray<Map<String, Stream>>(CALLERS);
+    Thread[] threads = new Thread[CALLERS];
+    for (int i = 0; i < CALLERS; i++) {
+      final int caller = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            results.set(caller, streams.get(new Filter()));
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+
+    assertEquals(1, server.getRequestCount());
+    for (int i = 1; i < CALLERS; i++) {
+      assertSame(results.get(0), results.get(i));
+    }
+    assertEquals(1, streams.getVersion());
+  }
+
+  @Test
+  public void testGetsAfterAWriteAreSentAgain() throws Exception {
+    server.setDispatcher(new Dispatcher() {
+      private boolean firstGet = true;
+
+      @Override
+      public synchronized MockResponse dispatch(RecordedRequest request) {
+        if ("POST".equals(request.getMethod())) {
+          return new MockResponse().setBody("{\"event\":{\"id\":\"new\",\"streamId\":\"s\",\"time\":2},"
+              + "\"meta\":{\"serverTime\":1}}");
+        }
+        MockResponse response = new MockResponse().setBody(EVENTS);
+        if (firstGet) {
+          firstGet = false;
+          response.setBodyDelay(1, TimeUnit.SECONDS);
+        }
+        return response;
+      }
+    });
+    final Filter filter = new Filter().setFromTime(0.0);
+    Thread earlierGet = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          events.get(filter);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    earlierGet.start();
+    server.takeRequest();
+    assertEquals(1, client.getInFlightCount());
+
+    events.create(new Event("s", "note/txt", "new"));
+    assertEquals(0, client.getInFlightCount());
+    events.get(filter);
+    assertEquals(3, server.getRequestCount());
+    earlierGet.join(10000);
+  }
+
+  @Test
+  public void testAsynchronousCallersShareTheError() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(400).setBodyDelay(300, TimeUnit.MILLISECONDS)
+        .setBody("{\"error\":{\"id\":\"invalid-parameters-format\",\"message\":\"bad\"}}"));
+    server.enqueue(new MockResponse().setBody(EVENTS));
+    final CountDownLatch done = new CountDownLatch(CALLERS);
+    final AtomicInteger apiErrors = new AtomicInteger();
+    Filter filter = new Filter().setFromTime(1.0);
+    for (int i = 0; i < CALLERS; i++) {
+      events.get(filter, new ApiCallback<List<Event>>() {
+        @Override
+        public void onSuccess(List<Event> result) {
+          done.countDown();
+        }
+
+        @Override
+        public void onApiError(ApiException exception) {
+          apiErrors.incrementAndGet();
+          done.countDown();
+        }
+
+        @Override
+        public void onFailure(IOException exception) {
+          done.countDown();
+        }
+      });
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(CALLERS, apiErrors.get());
+    assertEquals(1, server.getRequestCount());
+
+    // once completed, the request is sent again
+    assertEquals(1, events.get(filter).size());
+    assertEquals(2, server.getRequestCount());
+  }
+
+  @Test
+  public void testCoalescingCanBeDisabled() throws Exception {
+    client.setCoalescingEnabled(false);
+    for (int i = 0; i < 2; i++) {
+      server.enqueue(new MockResponse().setBody(EVENTS).setBodyDelay(200, TimeUnit.MILLISECONDS));
+    }
+    final CountDownLatch done = new CountDownLatch(2);
+    ApiCallback<List<Event>> callback = new ApiCallback<List<Event>>() {
+      @Override
+      public void onSuccess(List<Event> result) {
+        done.countDown();
+      }
+
+      @Override
+      public void onApiError(ApiException exception) {
+      }
+
+      @Override
+      public void onFailure(IOException exception) {
+      }
+    };
+    events.get(new Filter(), callback);
+    events.get(new Filter(), callback);
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(2, server.getRequestCount());
+  }
+}
@@ -0,0 +1,186 @@
+package com.pryv.unit;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.pryv.api.EventIterator;
+import com.pryv.model.Access;
+import com.pryv.model.Attachment;
+import com.pryv.model.Event;
+import com.pryv.model.Permission;
+import com.pryv.model.Stream;
+import com.pryv.utils.JsonConverter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Class used to test that the streaming codecs and the ObjectMapper bindings give the same results
+ */
+public class ResourceCodecTest {
+
+  private static final String EVENT = "{\"id\":\"ev\",\"streamId\":\"diary\",\"time\":1400000000.5,"
+      + "\"type\":\"note/txt\",\"created\":\"1400000001\",\"createdBy\":\"me\",\"modified\":1400000002,"
+      + "\"modifiedBy\":\"you\",\"duration\":null,\"tags\":[\"a\",\"b\",null],\"description\":\"d\\\"q\","
+      + "\"content\":{\"int\":1,\"long\":12345678901,\"big\":123456789012345678901234567890,"
+      + "\"float\":1.5,\"bool\":true,\"null\":null,\"text\":\"\\u00e9\",\"list\":[1,[2.0],{\"k\":false}]},"
+      + "\"attachments\":[{\"id\":\"at\",\"fileName\":\"f.txt\",\"type\":\"text/plain\",\"size\":12,"
+      + "\"readToken\":\"rt\",\"unknown\":[1]}],\"clientData\":{\"color\":\"blue\",\"height\":100},"
+      + "\"trashed\":1,\"deleted\":true,\"unknown\":{\"nested\":[{}]}}";
+
+  private static final String STREAM = "{\"id\":\"root\",\"name\":\"Root\",\"created\":1,\"createdBy\":\"me\","
+      + "\"modified\":2.5,\"modifiedBy\":\"me\",\"trashed\":false,\"parentId\":null,\"singleActivity\":true,"
+      + "\"clientData\":{\"x\":[\"y\"]},\"children\":[{\"id\":\"child\",\"name\":\"Child\",\"parentId\":\"root\","
+      + "\"children\":[{\"id\":\"grandchild\",\"name\":\"Grandchild\",\"parentId\":\"child\",\"trashed\":true}]}],"
+      + "\"unknown\":\"ignored\"}";
+
+  private static final String ACCESS = "{\"id\":\"acc\",\"token\":\"tok\",\"name\":\"forMyDoctor\","
+      + "\"permissions\":[{\"streamId\":\"heartRate\",\"level\":\"read\"},{\"streamId\":\"*\","
+      + "\"level\":\"manage\",\"defaultName\":\"All\"}],\"created\":1,\"createdBy\":\"me\",\"modified\":2,"
+      + "\"modifiedBy\":\"me\",\"type\":\"shared\",\"deviceName\":\"phone\",\"lastUsed\":3.25}";
+
+  @After
+  public void tearDown() {
+    JsonConverter.setCodecsEnabled(true);
+  }
+
+  @Test
+  public void testEventsAreDecodedAndEncodedIdentically() throws Exception {
+    Event codecEvent = (Event) decode(EVENT, Event.class, true);
+    Event mapperEvent = (Event) decode(EVENT, Event.class, false);
+
+    assertEquals(mapperEvent.getContent(), codecEvent.getContent());
+    assertEquals(BigInteger.class, ((Map<?, ?>) codecEvent.getContent()).get("big").getClass());
+    assertEquals(Long.class, ((Map<?, ?>) codecEvent.getContent()).get("long").getClass());
+    assertEquals(mapperEvent.getTags(), codecEvent.getTags());
+    assertEquals(mapperEvent.getClientData(), codecEvent.getClientData());
+    assertEquals(mapperEvent.getCreated(), codecEvent.getCreated());
+    assertTrue(codecEvent.isTrashed());
+    assertFalse(codecEvent.isDeleted());
+    assertNull(codecEvent.getDuration());
+    assertEquals(encode(mapperEvent, false), encode(codecEvent, true));
+    assertEquals(encode(mapperEvent, false), encode(mapperEvent, true));
+  }
+
+  @Test
+  public void testNewEventsAreEncodedIdentically() throws Exception {
+    Event event = new Event("diary", "note/txt", "content");
+    assertEquals(encode(event, false), encode(event, true));
+    event.setAttachments(new HashSet<Attachment>(Arrays.asList(new Attachment("id", "f", "t", 1, null))));
+    event.setContent(Arrays.asList(1L, 2.5f, (short) 3, new String[] {"a"}, null));
+    assertEquals(encode(event, false), encode(event, true));
+  }
+
+  @Test
+  public void testStreamsAreDecodedAndEncodedIdentically() throws Exception {
+    Stream codecStream = (Stream) decode(STREAM, Stream.class, true);
+    Stream mapperStream = (Stream) decode(STREAM, Stream.class, false);
+
+    assertEquals("grandchild", codecStream.getChildrenMap().get("child").getChildrenMap()
+        .get("grandchild").getId());
+    assertEquals(Boolean.TRUE, codecStream.isSingleActivity());
+    assertEquals(encode(mapperStream, false), encode(codecStream, true));
+  }
+
+  @Test
+  public void testAccessesAreDecodedAndEncodedIdentically() throws Exception {
+    Access codecAccess = (Access) decode(ACCESS, Access.class, true);
+    Access mapperAccess = (Access) decode(ACCESS, Access.class, false);
+
+    assertEquals(Permission.Level.manage, codecAccess.getPermissions().get(1).getLevel());
+    assertEquals(encode(mapperAccess, false), encode(codecAccess, true));
+    Access newAccess = new Access("name", new ArrayList<Permission>())
+        .addPermission(new Permission("s", Permission.Level.contribute, null));
+    assertEquals(encode(newAccess, false), encode(newAccess, true));
+  }
+
+  @Test
+  public void testUnknownPermissionFieldsAreRejectedByBothPaths() throws Exception {
+    String permission = "{\"streamId\":\"s\",\"level\":\"read\",\"feature\":\"selfRevoke\"}";
+    for (boolean codecs : new boolean[] {true, false}) {
+      try {
+        decode(permission, Permission.class, codecs);
+        fail("unknown Permission fields should be rejected");
+      } catch (JsonMappingException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testUnhandledValuesFallBackToTheMapper() throws Exception {
+    // the codec does not coerce an array into a String, the ObjectMapper decides
+    String event = "{\"id\":\"ev\",\"streamId\":[\"diary\"]}";
+    try {
+      JsonConverter.fromJson(event, Event.class);
+      fail("a String cannot be read from an array");
+    } catch (JsonMappingException e) {
+      // expected, thrown by the ObjectMapper
+    }
+    assertNull(JsonConverter.fromJsonNode(JsonConverter.toJsonNode("null"), Event.class));
+  }
+
+  @Test
+  public void testResponsesAreParsedIdentically() throws Exception {
+    String response = "{\"events\":[" + EVENT + "," + EVENT.replace("\"ev\"", "\"ev2\"")
+        + "],\"meta\":{\"serverTime\":1}}";
+    List<Event> codecEvents = JsonConverter.createEventsFromJson(response);
+    JsonConverter.setCodecsEnabled(false);
+    List<Event> mapperEvents = JsonConverter.createEventsFromJson(response);
+    assertEquals(2, codecEvents.size());
+    for (int i = 0; i < codecEvents.size(); i++) {
+      assertEquals(encode(mapperEvents.get(i), false), encode(codecEvents.get(i), false));
+    }
+
+    JsonConverter.setCodecsEnabled(true);
+    EventIterator iterator = new EventIterator(
+        new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+    for (Event mapperEvent : mapperEvents) {
+      assertEquals(encode(mapperEvent, false), encode(iterator.next(), false));
+    }
+    assertFalse(iterator.hasNext());
+    assertEquals(1, iterator.getServerTime(), 0);
+  }
+
+  @Test
+  public void testContentKeepsMapOrder() throws Exception {
+    Map<String, Object> content = new LinkedHashMap<String, Object>();
+    content.put("z", 1);
+    content.put("a", null);
+    Event event = new Event().setContent(content);
+    assertEquals(encode(event, false), encode(event, true));
+    assertEquals(content, ((Event) decode(encode(event, true), Event.class, true)).getContent());
+  }
+
+  private Object decode(String json, Class<?> type, boolean codecs) throws Exception {
+    JsonConverter.setCodecsEnabled(codecs);
+    try {
+      return JsonConverter.fromJson(json, type);
+    } finally {
+      JsonConverter.setCodecsEnabled(true);
+    }
+  }
+
+  private String encode(Object resource, boolean codecs) throws Exception {
+    JsonConverter.setCodecsEnabled(codecs);
+    try {
+      return JsonConverter.toJson(resource);
+    } finally {
+      JsonConverter.setCodecsEnabled(true);
+    }
+  }
+}
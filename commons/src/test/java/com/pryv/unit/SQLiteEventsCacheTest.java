@@ -0,0 +1,169 @@
+package com.pryv.unit;
+
+import com.pryv.database.SQLiteEventsCache;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test the on-disk Events cache
+ */
+public class SQLiteEventsCacheTest {
+
+  private File dbFile;
+  private SQLiteEventsCache cache;
+  private Stream parent;
+  private Stream child;
+
+  @Before
+  public void setUp() throws IOException, SQLException {
+    dbFile = File.createTempFile("pryv-events-cache", ".db");
+    cache = new SQLiteEventsCache(dbFile.getAbsolutePath());
+    child = new Stream("childId", "child");
+    parent = new Stream("parentId", "parent").addChildStream(child);
+  }
+
+  @After
+  public void tearDown() throws SQLException {
+    cache.close();
+    dbFile.delete();
+  }
+
+  @Test
+  public void testCoversOnlyFiltersIncludedInScope() throws SQLException {
+    Filter scope = new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0);
+    assertFalse(cache.covers(scope));
+    cache.replaceScope(scope, new ArrayList<Event>(), 1000.0);
+
+    assertTrue(cache.covers(new Filter().addStream(child).setFromTime(120.0).setToTime(150.0)));
+    assertFalse(cache.covers(new Filter().addStream(child).setFromTime(50.0).setToTime(150.0)));
+    assertFalse(cache.covers(new Filter().addStream(new Stream("otherId", "other"))
+            .setFromTime(120.0).setToTime(150.0)));
+    assertFalse(cache.covers(new Filter().setFromTime(120.0).setToTime(150.0)));
+    assertFalse(cache.covers(new Filter().addStream(child).setFromTime(120.0).setToTime(150.0).setLimit(10)));
+  }
+
+  @Test
+  public void testQueryAppliesFilterSortAndDeltas() throws SQLException {
+    Filter scope = new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0);
+    List<Event> events = Arrays.asList(
+            createEvent("e1", "parentId", 110.0, "note/txt"),
+            createEvent("e2", "childId", 120.0, "note/txt"),
+            createEvent("e3", "childId", 130.0, "mass/kg"),
+            createEvent("e4", "childId", 140.0, "note/txt").setTrashed(true));
+    cache.replaceScope(scope, events, 1000.0);
+
+    List<Event> result = cache.query(new Filter().addStream(child).setFromTime(100.0).setToTime(200.0));
+    assertEquals(2, result.size());
+    assertEquals("e3", result.get(0).getId());
+    assertEquals("e2", result.get(1).getId());
+
+    result = cache.query(new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0)
+            .addType("note/txt").setSortAscending(true));
+    assertEquals(2, result.size());
+    assertEquals("e1", result.get(0).getId());
+
+    cache.applyChanges(Collections.singletonList(createEvent("e5", "childId", 150.0, "note/txt")),
+            Collections.singletonList("e2"), 2000.0);
+    assertEquals(2000.0, cache.getServerTime(), 0.0);
+    Filter delta = cache.createDeltaFilter();
+    assertEquals(new Double(2000.0), delta.getModifiedSince());
+    assertEquals(Boolean.TRUE, delta.getIncludeDeletions());
+
+    result = cache.query(new Filter().addStream(child).setFromTime(100.0).setToTime(200.0));
+    assertEquals(2, result.size());
+    assertEquals("e5", result.get(0).getId());
+    assertEquals("e3", result.get(1).getId());
+  }
+
+  @Test
+  public void testChangesOutOfTheScopeRemoveTheirEvents() throws SQLException {
+    Filter scope = new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0);
+    cache.replaceScope(scope, Arrays.asList(
+            createEvent("e1", "parentId", 110.0, "note/txt"),
+            createEvent("e2", "childId", 120.0, "note/txt"),
+            createEvent("e3", "childId", 130.0, "note/txt")), 1000.0);
+    Filter delta = cache.createDeltaFilter();
+    assertNull(delta.getStreams());
+    assertNull(delta.getToTime());
+
+    cache.applyChanges(Arrays.asList(
+            createEvent("e1", "parentId", 300.0, "note/txt"),
+            createEvent("e2", "otherId", 120.0, "note/txt"),
+            createEvent("e3", "childId", 140.0, "note/txt"),
+            createEvent("e4", "otherId", 150.0, "note/txt")), Collections.<String>emptyList(), 2000.0);
+
+    List<Event> result = cache.query(new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0));
+    assertEquals(1, result.size());
+    assertEquals("e3", result.get(0).getId());
+    assertEquals(140.0, result.get(0).getTime(), 0.0);
+    assertEquals(1, cache.query(new Filter().setFromTime(0.0).setToTime(400.0)).size());
+  }
+
+  @Test
+  public void testScopeIsReloadedFromDisk() throws SQLException {
+    Filter scope = new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0);
+    cache.replaceScope(scope, Collections.singletonList(createEvent("e1", "parentId", 110.0, "note/txt")),
+            1000.0);
+    cache.close();
+
+    cache = new SQLiteEventsCache(dbFile.getAbsolutePath());
+    assertEquals(1000.0, cache.getServerTime(), 0.0);
+    Filter sameScope = new Filter().addStream(new Stream("parentId", null)).setFromTime(100.0).setToTime(200.0);
+    assertTrue(cache.covers(sameScope));
+    assertEquals(1, cache.query(sameScope).size());
+  }
+
+  @Test
+  public void testQueryIncludesEventsWhosePeriodOverlapsTheRange() throws SQLException {
+    Filter scope = new Filter().addStream(parent).setFromTime(0.0).setToTime(200.0);
+    cache.replaceScope(scope, Arrays.asList(
+            createEvent("e1", "childId", 50.0, "note/txt").setDuration(80.0),
+            createEvent("e2", "childId", 60.0, "note/txt").setDuration(10.0),
+            createEvent("e3", "childId", 110.0, "note/txt")), 1000.0);
+
+    List<Event> result = cache.query(new Filter().addStream(child).setFromTime(100.0).setToTime(200.0));
+    assertEquals(2, result.size());
+    assertEquals("e3", result.get(0).getId());
+    assertEquals("e1", result.get(1).getId());
+  }
+
+  @Test
+  public void testQueryIncludesTheKnownDescendantsOfTheFilterStreams() throws SQLException {
+    Filter scope = new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0);
+    cache.replaceScope(scope, Arrays.asList(
+            createEvent("e1", "parentId", 110.0, "note/txt"),
+            createEvent("e2", "childId", 120.0, "note/txt")), 1000.0);
+
+    Filter filter = new Filter().addStream(new Stream("parentId", null)).setFromTime(100.0).setToTime(200.0);
+    assertEquals(1, cache.query(filter).size());
+    Filter knownTree = new Filter().addStream(parent).setFromTime(100.0).setToTime(200.0);
+    assertEquals(2, cache.query(filter, knownTree.compile()).size());
+  }
+
+  private Event createEvent(String id, String streamId, Double time, String type) {
+    return new Event()
+            .setId(id)
+            .setStreamId(streamId)
+            .setTime(time)
+            .setType(type)
+            .setModified(time);
+  }
+}
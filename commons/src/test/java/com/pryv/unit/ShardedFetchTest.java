@@ -0,0 +1,199 @@
+package com.pryv.unit;
+
+import com.pryv.api.HttpClient;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test the parallel fetch of time shards against a local HTTP server answering
+ * events.get calls from a fixed set of Events
+ */
+public class ShardedFetchTest {
+
+  private MockWebServer server;
+  private ConnectionEvents events;
+  private List<Double> times = new ArrayList<Double>();
+  private Map<Double, Double> durations = new HashMap<Double, Double>();
+  private BlockingQueue<HttpUrl> requests = new LinkedBlockingQueue<HttpUrl>();
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        requests.add(url);
+        return answer(url);
+      }
+    });
+    server.start();
+    events = new ConnectionEvents(new HttpClient(server.url("/").toString(), "?auth=token"));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testShardsAreMergedInSortOrder() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      times.add((double) i);
+    }
+
+    List<Event> descending = events.getParallel(new Filter().setFromTime(0.0).setToTime(19.0), 4);
+    assertEquals(20, descending.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals("e" + (19 - i), descending.get(i).getId());
+    }
+    assertEquals(4, requests.size());
+
+    List<Event> latest = events.getParallel(new Filter().setFromTime(0.0).setToTime(19.0).setLimit(5), 4);
+    assertEquals(ids("e19", "e18", "e17", "e16", "e15"), ids(latest));
+
+    List<Event> ascending = events.getParallel(new Filter().setFromTime(0.0).setToTime(19.0)
+        .setSortAscending(true).setSkip(2).setLimit(3), 3);
+    assertEquals(ids("e2", "e3", "e4"), ids(ascending));
+  }
+
+  @Test
+  public void testEventsSpanningShardsAreReturnedOnce() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      times.add((double) i);
+    }
+    durations.put(3.0, 12.0);
+
+    List<Event> descending = events.getParallel(new Filter().setFromTime(0.0).setToTime(19.0), 4);
+    assertEquals(20, descending.size());
+    assertEquals("e3", descending.get(16).getId());
+
+    List<Event> ascending = events.getParallel(new Filter().setFromTime(5.0).setToTime(19.0)
+        .setSortAscending(true), 3);
+    assertEquals(16, ascending.size());
+    assertEquals("e3", ascending.get(0).getId());
+  }
+
+  @Test
+  public void testShardsAdaptToTheObservedDensity() throws Exception {
+    // 90 Events in [0, 9), 10 Events in [10, 100)
+    for (int i = 0; i < 90; i++) {
+      times.add(i * 0.1);
+    }
+    for (int i = 0; i < 10; i++) {
+      times.add(10.0 + i * 9.5);
+    }
+    Filter filter = new Filter().setFromTime(0.0).setToTime(100.0);
+
+    assertEquals(100, events.getParallel(filter, 2).size());
+    assertEquals(50.0, boundary(), 0);
+    requests.clear();
+
+    // 95 Events were received for [0, 50], 5 for [50, 100]
+    assertEquals(100, events.getParallel(filter, 2).size());
+    double second = boundary();
+    assertEquals(50.0 * 50 / 95, second, 0.01);
+    requests.clear();
+
+    assertEquals(100, events.getParallel(filter, 2).size());
+    assertTrue("shards should keep converging on the dense range", boundary() < second);
+  }
+
+  @Test
+  public void testShardsCutAtTheLimitAreNotRecorded() throws Exception {
+    for (int i = 0; i < 90; i++) {
+      times.add(i * 0.1);
+    }
+    for (int i = 0; i < 10; i++) {
+      times.add(10.0 + i * 9.5);
+    }
+    Filter filter = new Filter().setFromTime(0.0).setToTime(100.0);
+
+    // the first shard is cut at 6 of its 95 Events
+    assertEquals(6, events.getParallel(filter.copy().setLimit(6), 2).size());
+    requests.clear();
+    assertEquals(100, events.getParallel(filter, 2).size());
+    assertEquals(50.0, boundary(), 0);
+  }
+
+  /**
+   * Returns the boundary between the two shards of the last call
+   */
+  private double boundary() {
+    List<Double> bounds = new ArrayList<Double>();
+    for (HttpUrl url : requests) {
+      bounds.add(Double.parseDouble(url.queryParameter("toTime")));
+    }
+    return Collections.min(bounds);
+  }
+
+  private MockResponse answer(HttpUrl url) {
+    double from = Double.parseDouble(url.queryParameter("fromTime"));
+    double to = Double.parseDouble(url.queryParameter("toTime"));
+    boolean ascending = "true".equals(url.queryParameter("sortAscending"));
+    String limit = url.queryParameter("limit");
+    List<Double> matching = new ArrayList<Double>();
+    for (Double time : times) {
+      Double duration = durations.get(time);
+      if (time <= to && time + (duration == null ? 0 : duration) >= from) {
+        matching.add(time);
+      }
+    }
+    if (!ascending) {
+      Collections.reverse(matching);
+    }
+    if (limit != null && matching.size() > Integer.parseInt(limit)) {
+      matching = matching.subList(0, Integer.parseInt(limit));
+    }
+    StringBuilder body = new StringBuilder("{\"events\":[");
+    for (int i = 0; i < matching.size(); i++) {
+      if (i > 0) {
+        body.append(',');
+      }
+      body.append("{\"id\":\"e").append(times.indexOf(matching.get(i)))
+          .append("\",\"streamId\":\"s\",\"time\":").append(matching.get(i));
+      if (durations.containsKey(matching.get(i))) {
+        body.append(",\"duration\":").append(durations.get(matching.get(i)));
+      }
+      body.append('}');
+    }
+    return new MockResponse().setBody(body.append("],\"meta\":{\"serverTime\":1}}").toString());
+  }
+
+  private static List<String> ids(String... ids) {
+    List<String> list = new ArrayList<String>();
+    Collections.addAll(list, ids);
+    return list;
+  }
+
+  private static List<String> ids(List<Event> events) {
+    List<String> list = new ArrayList<String>();
+    for (Event event : events) {
+      list.add(event.getId());
+    }
+    return list;
+  }
+}
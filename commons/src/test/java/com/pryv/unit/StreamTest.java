@@ -55,6 +55,17 @@ public class StreamTest {
     assertTrue(parent.hasChild(grandChild.getId()));
   }
 
+  @Test
+  public void testIsChildTrueAmongSiblings() {
+    Stream parent = new Stream("parentId", null);
+    for (int i = 0; i < 10; i++) {
+      parent.addChildStream(new Stream("childId" + i, null));
+    }
+    for (int i = 0; i < 10; i++) {
+      assertTrue(parent.hasChild("childId" + i));
+    }
+  }
+
   @Test
   public void testIsChildFalse() {
     Stream grandChild = new Stream("grandChildId", null);
@@ -0,0 +1,128 @@
+package com.pryv.unit;
+
+import com.pryv.connection.SyncResult;
+import com.pryv.connection.SyncSession;
+import com.pryv.database.InMemoryEventStore;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+import com.pryv.model.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class used to test how a SyncSession applies changes to its store
+ */
+public class SyncSessionTest {
+
+  private InMemoryEventStore store;
+  private SyncSession session;
+
+  @Before
+  public void setUp() {
+    store = new InMemoryEventStore();
+    Filter scope = new Filter().addStream(new Stream("streamId", "stream")).addType("note/txt");
+    session = new SyncSession(null, scope, store);
+  }
+
+  @Test
+  public void testFullSyncReplacesStoreContent() {
+    store.put(createEvent("stale", "note/txt"));
+    SyncResult result = session.applyFull(Arrays.asList(
+            createEvent("e1", "note/txt"),
+            createEvent("e2", "note/txt")), 100.0);
+
+    assertEquals(2, result.getAdded().size());
+    assertEquals(1, result.getRemoved().size());
+    assertEquals("stale", result.getRemoved().get(0).getId());
+    assertEquals(2, store.size());
+    assertEquals(new Double(100.0), session.getLastServerTime());
+  }
+
+  @Test
+  public void testDeltaReportsAddedUpdatedAndRemovedEvents() {
+    session.applyFull(Arrays.asList(
+            createEvent("e1", "note/txt"),
+            createEvent("e2", "note/txt"),
+            createEvent("e3", "note/txt")), 100.0);
+
+    SyncResult result = session.applyChanges(Arrays.asList(
+            createEvent("e1", "note/txt").setContent("updated"),
+            createEvent("e2", "note/txt").setTrashed(true),
+            createEvent("e4", "note/txt"),
+            createEvent("e5", "mass/kg")),
+            Collections.singletonList("e3"), 200.0);
+
+    assertEquals(1, result.getAdded().size());
+    assertEquals("e4", result.getAdded().get(0).getId());
+    assertEquals(1, result.getUpdated().size());
+    assertEquals("updated", store.get("e1").getContent());
+    assertEquals(2, result.getRemoved().size());
+    assertNull(store.get("e2"));
+    assertNull(store.get("e3"));
+    assertNull(store.get("e5"));
+    assertNotNull(store.get("e4"));
+    assertEquals(new Double(200.0), session.getLastServerTime());
+  }
+
+  @Test
+  public void testEventsMovedToAnotherStreamAreRemoved() {
+    session.applyFull(Arrays.asList(
+            createEvent("e1", "note/txt"),
+            createEvent("e2", "note/txt").setStreamId("childId")), 100.0);
+    assertEquals(2, store.size());
+
+    SyncResult result = session.applyChanges(Arrays.asList(
+            createEvent("e1", "note/txt").setStreamId("otherId"),
+            createEvent("e2", "note/txt").setContent("updated").setStreamId("childId"),
+            createEvent("e3", "note/txt").setStreamId("otherId")),
+            new ArrayList<String>(), 200.0);
+
+    assertEquals(1, result.getRemoved().size());
+    assertEquals("e1", result.getRemoved().get(0).getId());
+    assertNull(store.get("e1"));
+    assertNull(store.get("e3"));
+    assertEquals("updated", store.get("e2").getContent());
+  }
+
+  @Test
+  public void testEmptyDeltaHasNoChanges() {
+    session.applyFull(Collections.singletonList(createEvent("e1", "note/txt")), 100.0);
+    SyncResult result = session.applyChanges(new ArrayList<Event>(), new ArrayList<String>(), 150.0);
+    assertFalse(result.hasChanges());
+    assertTrue(store.get("e1") != null);
+  }
+
+  @Test
+  public void testEventsWhosePeriodOverlapsTheScopeAreKept() {
+    Filter scope = new Filter().addStream(new Stream("streamId", "stream")).setFromTime(100.0).setToTime(200.0);
+    session = new SyncSession(null, scope, store);
+    SyncResult result = session.applyFull(Collections.singletonList(
+            createEvent("e1", "note/txt").setTime(50.0).setDuration(80.0)), 100.0);
+    assertEquals(1, result.getAdded().size());
+    assertTrue(result.getRemoved().isEmpty());
+
+    result = session.applyChanges(Collections.singletonList(
+            createEvent("e1", "note/txt").setTime(50.0).setDuration(10.0)), new ArrayList<String>(), 150.0);
+    assertEquals(1, result.getRemoved().size());
+    assertNull(store.get("e1"));
+  }
+
+  private Event createEvent(String id, String type) {
+    return new Event()
+            .setId(id)
+            .setStreamId("streamId")
+            .setType(type)
+            .setTime(10.0);
+  }
+}
@@ -0,0 +1,163 @@
+package com.pryv.unit;
+
+import com.pryv.api.HttpClient;
+import com.pryv.connection.ConnectionEvents;
+import com.pryv.model.Event;
+import com.pryv.model.Filter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Class used to test the merging of get calls with overlapping time ranges against a local HTTP
+ * server holding one Event per time unit
+ */
+public class WindowCoalescingTest {
+
+  private MockWebServer server;
+  private ConnectionEvents events;
+  private BlockingQueue<HttpUrl> requests = new LinkedBlockingQueue<HttpUrl>();
+  // answers with an Event lasting from 5 to 11 as well
+  private volatile boolean withPeriod = false;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.setDispatcher(new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        HttpUrl url = HttpUrl.parse("http://localhost" + request.getPath());
+        requests.add(url);
+        return answer(url);
+      }
+    });
+    server.start();
+    events = new ConnectionEvents(new HttpClient(server.url("/").toString(), "?auth=token"));
+    events.setBatchingWindow(200, TimeUnit.MILLISECONDS);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void testOverlappingWindowsShareOneCall() throws Exception {
+    List<List<Event>> results = getConcurrently(
+        new Filter().addTag("a").setFromTime(10.0).setToTime(30.0),
+        new Filter().addTag("a").setFromTime(20.0).setToTime(40.0),
+        new Filter().addTag("a").setFromTime(25.0).setToTime(50.0));
+
+    assertEquals(1, requests.size());
+    HttpUrl url = requests.poll();
+    assertEquals("10.0", url.queryParameter("fromTime"));
+    assertEquals("50.0", url.queryParameter("toTime"));
+    assertEquals("a", url.queryParameter("tags[]"));
+    assertEquals(21, results.get(0).size());
+    assertEquals(21, results.get(1).size());
+    assertEquals(26, results.get(2).size());
+    assertEquals(40.0, results.get(1).get(0).getTime(), 0);
+    assertEquals(20.0, results.get(1).get(20).getTime(), 0);
+  }
+
+  @Test
+  public void testOnlyMergeableFiltersAreMerged() throws Exception {
+    getConcurrently(
+        new Filter().setFromTime(0.0).setToTime(10.0),
+        new Filter().setFromTime(50.0).setToTime(60.0),
+        new Filter().addType("note/txt").setFromTime(0.0).setToTime(10.0),
+        new Filter().setFromTime(0.0).setToTime(10.0).setLimit(5));
+    assertEquals(4, requests.size());
+
+    events.setBatchingWindow(0, TimeUnit.MILLISECONDS);
+    getConcurrently(
+        new Filter().setFromTime(0.0).setToTime(10.0),
+        new Filter().setFromTime(5.0).setToTime(15.0));
+    assertEquals(6, requests.size());
+  }
+
+  @Test
+  public void testEventsWithADurationAreSplitByTheirPeriod() throws Exception {
+    withPeriod = true;
+    List<List<Event>> results = getConcurrently(
+        new Filter().setFromTime(10.0).setToTime(12.0),
+        new Filter().setFromTime(11.0).setToTime(40.0),
+        new Filter().setFromTime(11.5).setToTime(30.0));
+
+    assertEquals(1, requests.size());
+    assertEquals(4, results.get(0).size());
+    assertEquals("period", results.get(0).get(3).getId());
+    assertEquals(31, results.get(1).size());
+    assertEquals("period", results.get(1).get(30).getId());
+    assertEquals(19, results.get(2).size());
+    assertEquals(12.0, results.get(2).get(18).getTime(), 0);
+  }
+
+  private List<List<Event>> getConcurrently(final Filter... filters) throws InterruptedException {
+    final AtomicReferenceArray<List<Event>> results = new AtomicReferenceArray<List<Event>>(filters.length);
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[filters.length];
+    for (int i = 0; i < filters.length; i++) {
+      final int caller = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            results.set(caller, events.get(filters[caller]));
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+    List<List<Event>> list = new ArrayList<List<Event>>();
+    for (int i = 0; i < filters.length; i++) {
+      list.add(results.get(i));
+    }
+    return list;
+  }
+
+  private MockResponse answer(HttpUrl url) {
+    double from = Double.parseDouble(url.queryParameter("fromTime"));
+    double to = Double.parseDouble(url.queryParameter("toTime"));
+    StringBuilder body = new StringBuilder("{\"events\":[");
+    boolean first = true;
+    for (int time = 99; time >= 0; time--) {
+      if (time >= from && time <= to) {
+        if (!first) {
+          body.append(',');
+        }
+        first = false;
+        body.append("{\"id\":\"e").append(time).append("\",\"streamId\":\"s\",\"time\":").append(time).append('}');
+      }
+    }
+    if (withPeriod && from <= 11 && to >= 5) {
+      body.append(first ? "" : ",").append("{\"id\":\"period\",\"streamId\":\"s\",\"time\":5,\"duration\":6}");
+    }
+    return new MockResponse().setBody(body.append("],\"meta\":{\"serverTime\":1}}").toString());
+  }
+}